@@ -0,0 +1,452 @@
+/**
+ * Diese Datei ist Teil des Vorgabeframeworks für die Veranstaltung "Mixed Reality"
+ * <p>
+ * Prof. Dr. Philipp Jenke, Hochschule für Angewandte Wissenschaften Hamburg.
+ */
+
+package mixedreality.base.mesh;
+
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.mesh.IndexBuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Binary file format for triangle meshes, read without parsing.
+ * <p>
+ * All values are little-endian and 4-byte aligned. The header holds a magic
+ * number, the format version, the element counts, the texture name and the
+ * names of the material libraries the mesh was read with. It is followed by the arrays of the mesh (positions, normals, colors, vertex
+ * indices, texture coordinate indices, triangle normals, triangle colors and
+ * texture coordinates). Optionally, the file also contains the vertex and
+ * index buffers of the JMonkey mesh for one shading. createMesh() maps them
+ * into memory and uses them directly as JMonkey buffers.
+ * <p>
+ * Files are limited to 2 GB (one mapping).
+ */
+public class BinaryMeshFile {
+
+    /**
+     * "MRMB" in little-endian.
+     */
+    private static final int MAGIC = 0x424D524D;
+
+    /**
+     * Increment on every change of the layout, files of other versions are
+     * rejected.
+     */
+    private static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 36;
+
+    /**
+     * Size of the write buffer.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private BinaryMeshFile() {
+    }
+
+    /**
+     * Header of a mesh file, offsets of the sections in bytes.
+     */
+    private static class Header {
+        int numberOfVertices;
+        int numberOfTriangles;
+        int numberOfTextureCoordinates;
+        int numberOfRenderVertices;
+        TriangleMeshTools.Shading renderShading;
+        String textureName;
+        List<String> materialLibraries;
+        long meshOffset;
+        long renderOffset;
+    }
+
+    /**
+     * Write the mesh to the file. If renderShading is not null, the JMonkey
+     * buffers for this shading are written as well. The file is written to a
+     * temporary file first and replaces the target when it is complete.
+     */
+    public static void write(TriangleMesh mesh, File file,
+                             TriangleMeshTools.Shading renderShading) throws IOException {
+        write(mesh, file, renderShading, Collections.emptyList());
+    }
+
+    /**
+     * Write the mesh to the file together with the names of the material
+     * libraries it was read with, see getMaterialLibraries().
+     */
+    public static void write(TriangleMesh mesh, File file,
+                             TriangleMeshTools.Shading renderShading,
+                             List<String> materialLibraries) throws IOException {
+        Path target = file.toPath();
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        Mesh renderMesh = renderShading != null
+                ? TriangleMeshTools.createMesh(mesh, renderShading) : null;
+        byte[] textureName = mesh.getTextureName() != null
+                ? mesh.getTextureName().getBytes(StandardCharsets.UTF_8) : null;
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Writer out = new Writer(channel);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(mesh.getNumberOfVertices());
+            out.putInt(mesh.getNumberOfTriangles());
+            out.putInt(mesh.getNumberOfTextureCoordinates());
+            out.putInt(renderMesh != null ? renderMesh.getVertexCount() : 0);
+            out.putInt(renderShading != null ? renderShading.ordinal() : -1);
+            out.putInt(textureName != null ? textureName.length : -1);
+            out.putInt(materialLibraries.size());
+            if (textureName != null) {
+                out.putBytes(textureName);
+                out.pad();
+            }
+            for (String materialLibrary : materialLibraries) {
+                byte[] name = materialLibrary.getBytes(StandardCharsets.UTF_8);
+                out.putInt(name.length);
+                out.putBytes(name);
+                out.pad();
+            }
+
+            int numberOfVertices = mesh.getNumberOfVertices();
+            int numberOfTriangles = mesh.getNumberOfTriangles();
+            out.putFloats(mesh.getPositions(), numberOfVertices * 3);
+            out.putFloats(mesh.getNormals(), numberOfVertices * 3);
+            out.putFloats(mesh.getColors(), numberOfVertices * 4);
+            out.putInts(mesh.getVertexIndices(), numberOfTriangles * 3);
+            out.putInts(mesh.getTexCoordIndices(), numberOfTriangles * 3);
+            out.putFloats(mesh.getTriangleNormals(), numberOfTriangles * 3);
+            out.putFloats(mesh.getTriangleColors(), numberOfTriangles * 4);
+            out.putFloats(mesh.getTextureCoordinates(), mesh.getNumberOfTextureCoordinates() * 2);
+
+            if (renderMesh != null) {
+                out.putFloats(renderMesh.getFloatBuffer(VertexBuffer.Type.Position));
+                out.putFloats(renderMesh.getFloatBuffer(VertexBuffer.Type.Normal));
+                out.putFloats(renderMesh.getFloatBuffer(VertexBuffer.Type.Color));
+                out.putFloats(renderMesh.getFloatBuffer(VertexBuffer.Type.TexCoord));
+                IndexBuffer indices = renderMesh.getIndexBuffer();
+                for (int i = 0; i < indices.size(); i++) {
+                    out.putInt(indices.get(i));
+                }
+            }
+            out.flush();
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read the triangle mesh from the file (bulk copies from the mapped file).
+     */
+    public static TriangleMesh read(File file) throws IOException {
+        ByteBuffer buffer = map(file);
+        Header header = readHeader(buffer, file);
+        int numberOfVertices = header.numberOfVertices;
+        int numberOfTriangles = header.numberOfTriangles;
+        buffer.position((int) header.meshOffset);
+        return new TriangleMesh(
+                getFloats(buffer, numberOfVertices * 3),
+                getFloats(buffer, numberOfVertices * 3),
+                getFloats(buffer, numberOfVertices * 4),
+                numberOfVertices,
+                getInts(buffer, numberOfTriangles * 3),
+                getInts(buffer, numberOfTriangles * 3),
+                getFloats(buffer, numberOfTriangles * 3),
+                getFloats(buffer, numberOfTriangles * 4),
+                numberOfTriangles,
+                getFloats(buffer, header.numberOfTextureCoordinates * 2),
+                header.numberOfTextureCoordinates,
+                header.textureName);
+    }
+
+    /**
+     * Create a JMonkey mesh from the file. If the file contains the buffers
+     * for the requested shading, they are views of the mapped file (no
+     * copies); otherwise the mesh is read and converted.
+     */
+    public static Mesh createMesh(File file, TriangleMeshTools.Shading shading)
+            throws IOException {
+        ByteBuffer buffer = mapWritable(file);
+        Header header = readHeader(buffer, file);
+        if (header.renderShading != shading || ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) {
+            return TriangleMeshTools.createMesh(read(file), shading);
+        }
+        int renderVertices = header.numberOfRenderVertices;
+        int offset = (int) header.renderOffset;
+        Mesh mesh = new Mesh();
+        mesh.setMode(Mesh.Mode.Triangles);
+        mesh.setBuffer(VertexBuffer.Type.Position, 3, floatView(buffer, offset, renderVertices * 3));
+        offset += renderVertices * 3 * 4;
+        mesh.setBuffer(VertexBuffer.Type.Normal, 3, floatView(buffer, offset, renderVertices * 3));
+        offset += renderVertices * 3 * 4;
+        mesh.setBuffer(VertexBuffer.Type.Color, 4, floatView(buffer, offset, renderVertices * 4));
+        offset += renderVertices * 4 * 4;
+        mesh.setBuffer(VertexBuffer.Type.TexCoord, 2, floatView(buffer, offset, renderVertices * 2));
+        offset += renderVertices * 2 * 4;
+        mesh.setBuffer(VertexBuffer.Type.Index, 1,
+                intView(buffer, offset, header.numberOfTriangles * 3));
+        mesh.updateBound();
+        return mesh;
+    }
+
+    /**
+     * Names of the material libraries stored with the mesh (e.g. to check if
+     * the file is up to date).
+     */
+    public static List<String> getMaterialLibraries(File file) throws IOException {
+        return readHeader(map(file), file).materialLibraries;
+    }
+
+    /**
+     * Checks if the file starts with the header of the current version.
+     */
+    public static boolean isValid(File file) {
+        try {
+            readHeader(map(file), file);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            checkSize(channel, file);
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * Map the file into writable memory (JMonkey rejects read-only buffers).
+     * The private mapping is copy-on-write, the file is never changed. If the
+     * file cannot be opened for writing, it is copied into a direct buffer.
+     */
+    private static ByteBuffer mapWritable(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            checkSize(channel, file);
+            return channel.map(FileChannel.MapMode.PRIVATE, 0, channel.size())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        } catch (AccessDeniedException e) {
+            ByteBuffer mapped = map(file);
+            ByteBuffer copy = ByteBuffer.allocateDirect(mapped.limit());
+            copy.put(mapped).flip();
+            return copy.order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    private static void checkSize(FileChannel channel, File file) throws IOException {
+        if (channel.size() > Integer.MAX_VALUE) {
+            throw new IOException("Mesh file too large: " + file);
+        }
+    }
+
+    /**
+     * Read and validate the header, computes the section offsets.
+     */
+    private static Header readHeader(ByteBuffer buffer, File file) throws IOException {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a binary mesh file: " + file);
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported binary mesh file version "
+                    + buffer.getInt(4) + ": " + file);
+        }
+        Header header = new Header();
+        header.numberOfVertices = buffer.getInt(8);
+        header.numberOfTriangles = buffer.getInt(12);
+        header.numberOfTextureCoordinates = buffer.getInt(16);
+        header.numberOfRenderVertices = buffer.getInt(20);
+        int shading = buffer.getInt(24);
+        int textureNameLength = buffer.getInt(28);
+        int numberOfMaterialLibraries = buffer.getInt(32);
+        if (header.numberOfVertices < 0 || header.numberOfTriangles < 0
+                || header.numberOfTextureCoordinates < 0 || header.numberOfRenderVertices < 0
+                || shading >= TriangleMeshTools.Shading.values().length
+                || numberOfMaterialLibraries < 0) {
+            throw new IOException("Corrupt binary mesh file: " + file);
+        }
+        header.renderShading = shading >= 0 ? TriangleMeshTools.Shading.values()[shading] : null;
+        header.meshOffset = HEADER_SIZE;
+        if (textureNameLength >= 0) {
+            header.textureName = readString(buffer, header.meshOffset, textureNameLength, file);
+            header.meshOffset += align(textureNameLength);
+        }
+        header.materialLibraries = new ArrayList<>();
+        for (int i = 0; i < numberOfMaterialLibraries; i++) {
+            if (header.meshOffset + 4 > buffer.limit()) {
+                throw new IOException("Corrupt binary mesh file: " + file);
+            }
+            int length = buffer.getInt((int) header.meshOffset);
+            header.materialLibraries.add(readString(buffer, header.meshOffset + 4, length, file));
+            header.meshOffset += 4 + align(length);
+        }
+        header.renderOffset = header.meshOffset
+                + 4L * (header.numberOfVertices * 10L + header.numberOfTriangles * 13L
+                + header.numberOfTextureCoordinates * 2L);
+        long size = header.renderOffset;
+        if (header.renderShading != null) {
+            size += 4L * (header.numberOfRenderVertices * 12L + header.numberOfTriangles * 3L);
+        }
+        if (buffer.limit() != size) {
+            throw new IOException("Corrupt binary mesh file: " + file);
+        }
+        return header;
+    }
+
+    private static String readString(ByteBuffer buffer, long offset, int length, File file)
+            throws IOException {
+        if (length < 0 || offset + length > buffer.limit()) {
+            throw new IOException("Corrupt binary mesh file: " + file);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get((int) offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int align(int size) {
+        return (size + 3) & ~3;
+    }
+
+    private static float[] getFloats(ByteBuffer buffer, int count) {
+        float[] values = new float[count];
+        buffer.asFloatBuffer().get(values);
+        buffer.position(buffer.position() + count * 4);
+        return values;
+    }
+
+    private static int[] getInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * 4);
+        return values;
+    }
+
+    /**
+     * View of count floats at the byte offset (the view shares the mapped
+     * memory).
+     */
+    private static FloatBuffer floatView(ByteBuffer buffer, int offset, int count) {
+        return slice(buffer, offset, count).asFloatBuffer();
+    }
+
+    private static IntBuffer intView(ByteBuffer buffer, int offset, int count) {
+        return slice(buffer, offset, count).asIntBuffer();
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int count) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset);
+        duplicate.limit(offset + count * 4);
+        return duplicate.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Streaming little-endian writer, only the buffer is held in memory.
+     */
+    private static class Writer {
+        private final FileChannel channel;
+        private final ByteBuffer buffer =
+                ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private long written = 0;
+
+        Writer(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putInt(int value) throws IOException {
+            if (buffer.remaining() < 4) {
+                flush();
+            }
+            buffer.putInt(value);
+        }
+
+        void putBytes(byte[] values) throws IOException {
+            for (int i = 0; i < values.length; ) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                int n = Math.min(values.length - i, buffer.remaining());
+                buffer.put(values, i, n);
+                i += n;
+            }
+        }
+
+        /**
+         * Pad with zeros to a multiple of 4 bytes.
+         */
+        void pad() throws IOException {
+            while ((written + buffer.position()) % 4 != 0) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                buffer.put((byte) 0);
+            }
+        }
+
+        void putFloats(float[] values, int count) throws IOException {
+            for (int i = 0; i < count; ) {
+                if (buffer.remaining() < 4) {
+                    flush();
+                }
+                int n = Math.min(count - i, buffer.remaining() / 4);
+                buffer.asFloatBuffer().put(values, i, n);
+                buffer.position(buffer.position() + n * 4);
+                i += n;
+            }
+        }
+
+        void putInts(int[] values, int count) throws IOException {
+            for (int i = 0; i < count; ) {
+                if (buffer.remaining() < 4) {
+                    flush();
+                }
+                int n = Math.min(count - i, buffer.remaining() / 4);
+                buffer.asIntBuffer().put(values, i, n);
+                buffer.position(buffer.position() + n * 4);
+                i += n;
+            }
+        }
+
+        void putFloats(FloatBuffer values) throws IOException {
+            FloatBuffer source = values.duplicate();
+            source.rewind();
+            while (source.hasRemaining()) {
+                if (buffer.remaining() < 4) {
+                    flush();
+                }
+                int n = Math.min(source.remaining(), buffer.remaining() / 4);
+                FloatBuffer part = source.duplicate();
+                part.limit(part.position() + n);
+                buffer.asFloatBuffer().put(part);
+                buffer.position(buffer.position() + n * 4);
+                source.position(source.position() + n);
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
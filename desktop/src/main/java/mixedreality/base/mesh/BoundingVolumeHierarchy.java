@@ -0,0 +1,627 @@
+/**
+ * Diese Datei ist Teil des Vorgabeframeworks für die Veranstaltung "Mixed Reality"
+ * <p>
+ * Prof. Dr. Philipp Jenke, Hochschule für Angewandte Wissenschaften Hamburg.
+ */
+
+package mixedreality.base.mesh;
+
+import com.jme3.math.Vector3f;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounding volume hierarchy over the triangles of a triangle mesh for ray
+ * picking, closest point and box overlap queries. Built top-down with binned
+ * SAH splits (subtrees in parallel), stored in flat arrays. After changes of
+ * the vertex positions only, refit() updates the boxes without rebuilding.
+ * Use TriangleMesh.getBoundingVolumeHierarchy() to get an up-to-date instance.
+ */
+public class BoundingVolumeHierarchy {
+
+    /**
+     * Result of a ray or closest point query.
+     */
+    public static class Hit {
+        /**
+         * Index of the triangle in the mesh.
+         */
+        public final int triangleIndex;
+
+        /**
+         * Ray parameter or distance to the query point.
+         */
+        public final float distance;
+
+        /**
+         * Hit point or closest point on the triangle.
+         */
+        public final Vector3f point;
+
+        Hit(int triangleIndex, float distance, Vector3f point) {
+            this.triangleIndex = triangleIndex;
+            this.distance = distance;
+            this.point = point;
+        }
+    }
+
+    /**
+     * Leaves contain at most this many triangles unless they cannot be split.
+     */
+    private static final int MAX_LEAF_SIZE = 4;
+
+    /**
+     * Number of bins for the SAH evaluation.
+     */
+    private static final int NUMBER_OF_BINS = 16;
+
+    /**
+     * Subtrees with more triangles are built in a separate task.
+     */
+    private static final int PARALLEL_BUILD_THRESHOLD = 1 << 14;
+
+    /**
+     * Rays with |det| <= PARALLEL_EPSILON * |e1| |e2| |direction| miss the
+     * triangle in the ray intersection (roughly the sine of the angle between
+     * ray and triangle plane).
+     */
+    private static final double PARALLEL_EPSILON = 1e-7;
+
+    private final TriangleMesh mesh;
+
+    /**
+     * Node boxes (minX, minY, minZ, maxX, maxY, maxZ), 6 floats per node.
+     */
+    private final float[] nodeBounds;
+
+    /**
+     * Per node: index of the left child (the right child follows it) for inner
+     * nodes, index of the first entry in triangleOrder for leaves.
+     */
+    private final int[] nodeStart;
+
+    /**
+     * Per node: number of triangles for leaves, 0 for inner nodes.
+     */
+    private final int[] nodeCount;
+
+    /**
+     * Triangle indices, each leaf references a range.
+     */
+    private final int[] triangleOrder;
+
+    private final int numberOfNodes;
+
+    BoundingVolumeHierarchy(TriangleMesh mesh) {
+        this.mesh = mesh;
+        int numberOfTriangles = mesh.getNumberOfTriangles();
+        int maxNodes = Math.max(1, 2 * numberOfTriangles - 1);
+        nodeBounds = new float[maxNodes * 6];
+        nodeStart = new int[maxNodes];
+        nodeCount = new int[maxNodes];
+        triangleOrder = new int[numberOfTriangles];
+        for (int i = 0; i < numberOfTriangles; i++) {
+            triangleOrder[i] = i;
+        }
+
+        float[] triangleBounds = new float[numberOfTriangles * 6];
+        float[] centroids = new float[numberOfTriangles * 3];
+        float[] positions = mesh.getPositions();
+        int[] vertexIndices = mesh.getVertexIndices();
+        Parallel.forRange(numberOfTriangles, (from, to) -> {
+            for (int t = from; t < to; t++) {
+                triangleBounds(positions, vertexIndices, t, triangleBounds, t * 6);
+                for (int k = 0; k < 3; k++) {
+                    centroids[t * 3 + k] = (triangleBounds[t * 6 + k] + triangleBounds[t * 6 + k + 3]) * 0.5f;
+                }
+            }
+        });
+
+        AtomicInteger nodeCounter = new AtomicInteger(1);
+        if (numberOfTriangles > 0) {
+            ForkJoinPool.commonPool().invoke(new BuildTask(0, 0, numberOfTriangles,
+                    triangleBounds, centroids, nodeCounter));
+        } else {
+            Arrays.fill(nodeBounds, 0);
+        }
+        numberOfNodes = nodeCounter.get();
+    }
+
+    /**
+     * Builds the subtree for the triangles in [begin, end) of triangleOrder.
+     */
+    private class BuildTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int node, begin, end;
+        private final float[] triangleBounds, centroids;
+        private final AtomicInteger nodeCounter;
+
+        BuildTask(int node, int begin, int end, float[] triangleBounds, float[] centroids,
+                  AtomicInteger nodeCounter) {
+            this.node = node;
+            this.begin = begin;
+            this.end = end;
+            this.triangleBounds = triangleBounds;
+            this.centroids = centroids;
+            this.nodeCounter = nodeCounter;
+        }
+
+        @Override
+        protected void compute() {
+            int mid = split(node, begin, end, triangleBounds, centroids);
+            if (mid < 0) {
+                return;
+            }
+            int left = nodeCounter.getAndAdd(2);
+            nodeStart[node] = left;
+            nodeCount[node] = 0;
+            BuildTask leftTask = new BuildTask(left, begin, mid, triangleBounds, centroids, nodeCounter);
+            BuildTask rightTask = new BuildTask(left + 1, mid, end, triangleBounds, centroids, nodeCounter);
+            if (end - begin > PARALLEL_BUILD_THRESHOLD) {
+                invokeAll(leftTask, rightTask);
+            } else {
+                leftTask.compute();
+                rightTask.compute();
+            }
+        }
+    }
+
+    /**
+     * Compute the node box, find the best binned SAH split and partition the
+     * triangle range. Returns the split position or -1 if the node became a
+     * leaf.
+     */
+    private int split(int node, int begin, int end, float[] triangleBounds, float[] centroids) {
+        float[] centroidBounds = emptyBounds();
+        int b = node * 6;
+        System.arraycopy(emptyBounds(), 0, nodeBounds, b, 6);
+        for (int i = begin; i < end; i++) {
+            int t = triangleOrder[i];
+            grow(nodeBounds, b, triangleBounds, t * 6);
+            for (int k = 0; k < 3; k++) {
+                centroidBounds[k] = Math.min(centroidBounds[k], centroids[t * 3 + k]);
+                centroidBounds[k + 3] = Math.max(centroidBounds[k + 3], centroids[t * 3 + k]);
+            }
+        }
+        int count = end - begin;
+        nodeStart[node] = begin;
+        nodeCount[node] = count;
+        if (count <= MAX_LEAF_SIZE) {
+            return -1;
+        }
+
+        // Split along the largest centroid extent
+        int axis = 0;
+        for (int k = 1; k < 3; k++) {
+            if (centroidBounds[k + 3] - centroidBounds[k] > centroidBounds[axis + 3] - centroidBounds[axis]) {
+                axis = k;
+            }
+        }
+        float extent = centroidBounds[axis + 3] - centroidBounds[axis];
+        if (extent <= 0) {
+            // All centroids coincide - split in the middle
+            return (begin + end) / 2;
+        }
+
+        // Fill the bins
+        float scale = NUMBER_OF_BINS / extent;
+        int[] binCounts = new int[NUMBER_OF_BINS];
+        float[] binBounds = new float[NUMBER_OF_BINS * 6];
+        for (int i = 0; i < NUMBER_OF_BINS; i++) {
+            System.arraycopy(emptyBounds(), 0, binBounds, i * 6, 6);
+        }
+        for (int i = begin; i < end; i++) {
+            int t = triangleOrder[i];
+            int bin = bin(centroids[t * 3 + axis], centroidBounds[axis], scale);
+            binCounts[bin]++;
+            grow(binBounds, bin * 6, triangleBounds, t * 6);
+        }
+
+        // Sweep: cost of splitting after bin i is area(left) * n(left) + area(right) * n(right)
+        float[] leftCost = new float[NUMBER_OF_BINS - 1];
+        float[] accumulated = emptyBounds();
+        int accumulatedCount = 0;
+        for (int i = 0; i < NUMBER_OF_BINS - 1; i++) {
+            grow(accumulated, 0, binBounds, i * 6);
+            accumulatedCount += binCounts[i];
+            leftCost[i] = area(accumulated) * accumulatedCount;
+        }
+        accumulated = emptyBounds();
+        accumulatedCount = 0;
+        float bestCost = Float.POSITIVE_INFINITY;
+        int bestSplit = -1;
+        for (int i = NUMBER_OF_BINS - 1; i > 0; i--) {
+            grow(accumulated, 0, binBounds, i * 6);
+            accumulatedCount += binCounts[i];
+            float cost = leftCost[i - 1] + area(accumulated) * accumulatedCount;
+            if (accumulatedCount < count && accumulatedCount > 0 && cost < bestCost) {
+                bestCost = cost;
+                bestSplit = i;
+            }
+        }
+        if (bestSplit < 0) {
+            return (begin + end) / 2;
+        }
+
+        // Partition the triangle range
+        int i = begin;
+        int j = end - 1;
+        while (i <= j) {
+            if (bin(centroids[triangleOrder[i] * 3 + axis], centroidBounds[axis], scale) < bestSplit) {
+                i++;
+            } else {
+                int tmp = triangleOrder[i];
+                triangleOrder[i] = triangleOrder[j];
+                triangleOrder[j--] = tmp;
+            }
+        }
+        return i;
+    }
+
+    private static int bin(float centroid, float min, float scale) {
+        return Math.min(NUMBER_OF_BINS - 1, (int) ((centroid - min) * scale));
+    }
+
+    /**
+     * Update all node boxes after the vertex positions changed (the triangles
+     * must be unchanged). Children are stored after their parents, so a single
+     * backwards pass suffices.
+     */
+    public void refit() {
+        float[] positions = mesh.getPositions();
+        int[] vertexIndices = mesh.getVertexIndices();
+        float[] box = new float[6];
+        for (int node = numberOfNodes - 1; node >= 0; node--) {
+            int b = node * 6;
+            if (nodeCount[node] > 0) {
+                System.arraycopy(emptyBounds(), 0, nodeBounds, b, 6);
+                for (int i = nodeStart[node]; i < nodeStart[node] + nodeCount[node]; i++) {
+                    triangleBounds(positions, vertexIndices, triangleOrder[i], box, 0);
+                    grow(nodeBounds, b, box, 0);
+                }
+            } else {
+                int left = nodeStart[node] * 6;
+                for (int k = 0; k < 3; k++) {
+                    nodeBounds[b + k] = Math.min(nodeBounds[left + k], nodeBounds[left + 6 + k]);
+                    nodeBounds[b + k + 3] = Math.max(nodeBounds[left + k + 3], nodeBounds[left + 6 + k + 3]);
+                }
+            }
+        }
+    }
+
+    // +++ QUERIES +++++++++++++++++++++++++++++
+
+    /**
+     * Find the first intersection of the ray with the mesh.
+     */
+    public Optional<Hit> intersectRay(Vector3f origin, Vector3f direction) {
+        if (mesh.getNumberOfTriangles() == 0) {
+            return Optional.empty();
+        }
+        float[] positions = mesh.getPositions();
+        int[] vertexIndices = mesh.getVertexIndices();
+        float invX = inverse(direction.x), invY = inverse(direction.y), invZ = inverse(direction.z);
+        float bestT = Float.POSITIVE_INFINITY;
+        int bestTriangle = -1;
+        int[] stack = new int[64];
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+            if (rayBoxDistance(node * 6, origin, invX, invY, invZ) >= bestT) {
+                continue;
+            }
+            if (nodeCount[node] > 0) {
+                for (int i = nodeStart[node]; i < nodeStart[node] + nodeCount[node]; i++) {
+                    int t = triangleOrder[i];
+                    float d = intersectTriangle(positions, vertexIndices, t, origin, direction);
+                    if (d < bestT) {
+                        bestT = d;
+                        bestTriangle = t;
+                    }
+                }
+            } else {
+                if (stackSize + 2 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                // Visit the nearer child first
+                int left = nodeStart[node];
+                float dLeft = rayBoxDistance(left * 6, origin, invX, invY, invZ);
+                float dRight = rayBoxDistance((left + 1) * 6, origin, invX, invY, invZ);
+                stack[stackSize++] = dLeft < dRight ? left + 1 : left;
+                stack[stackSize++] = dLeft < dRight ? left : left + 1;
+            }
+        }
+        if (bestTriangle < 0) {
+            return Optional.empty();
+        }
+        return Optional.of(new Hit(bestTriangle, bestT,
+                origin.add(direction.mult(bestT))));
+    }
+
+    /**
+     * Find the closest point on the mesh surface.
+     */
+    public Optional<Hit> closestPoint(Vector3f p) {
+        if (mesh.getNumberOfTriangles() == 0) {
+            return Optional.empty();
+        }
+        int[] vertexIndices = mesh.getVertexIndices();
+        float bestDistanceSquared = Float.POSITIVE_INFINITY;
+        int bestTriangle = -1;
+        Vector3f best = new Vector3f();
+        Vector3f candidate = new Vector3f();
+        Vector3f a = new Vector3f(), b = new Vector3f(), c = new Vector3f();
+        int[] stack = new int[64];
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+            if (pointBoxDistanceSquared(node * 6, p) >= bestDistanceSquared) {
+                continue;
+            }
+            if (nodeCount[node] > 0) {
+                for (int i = nodeStart[node]; i < nodeStart[node] + nodeCount[node]; i++) {
+                    int t = triangleOrder[i];
+                    mesh.getVertexPosition(vertexIndices[t * 3], a);
+                    mesh.getVertexPosition(vertexIndices[t * 3 + 1], b);
+                    mesh.getVertexPosition(vertexIndices[t * 3 + 2], c);
+                    closestPointOnTriangle(p, a, b, c, candidate);
+                    float distanceSquared = candidate.distanceSquared(p);
+                    if (distanceSquared < bestDistanceSquared) {
+                        bestDistanceSquared = distanceSquared;
+                        bestTriangle = t;
+                        best.set(candidate);
+                    }
+                }
+            } else {
+                if (stackSize + 2 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                int left = nodeStart[node];
+                boolean leftFirst = pointBoxDistanceSquared(left * 6, p)
+                        <= pointBoxDistanceSquared((left + 1) * 6, p);
+                stack[stackSize++] = leftFirst ? left + 1 : left;
+                stack[stackSize++] = leftFirst ? left : left + 1;
+            }
+        }
+        return Optional.of(new Hit(bestTriangle, (float) Math.sqrt(bestDistanceSquared), best));
+    }
+
+    /**
+     * Return the indices of all triangles whose bounding boxes overlap the box
+     * given by min and max.
+     */
+    public int[] getOverlappingTriangles(Vector3f min, Vector3f max) {
+        float[] positions = mesh.getPositions();
+        int[] vertexIndices = mesh.getVertexIndices();
+        float[] query = {min.x, min.y, min.z, max.x, max.y, max.z};
+        float[] box = new float[6];
+        int[] result = new int[16];
+        int resultSize = 0;
+        int[] stack = new int[64];
+        int stackSize = 0;
+        if (mesh.getNumberOfTriangles() > 0) {
+            stack[stackSize++] = 0;
+        }
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+            if (!overlap(nodeBounds, node * 6, query)) {
+                continue;
+            }
+            if (nodeCount[node] > 0) {
+                for (int i = nodeStart[node]; i < nodeStart[node] + nodeCount[node]; i++) {
+                    triangleBounds(positions, vertexIndices, triangleOrder[i], box, 0);
+                    if (overlap(box, 0, query)) {
+                        if (resultSize == result.length) {
+                            result = Arrays.copyOf(result, result.length * 2);
+                        }
+                        result[resultSize++] = triangleOrder[i];
+                    }
+                }
+            } else {
+                if (stackSize + 2 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[stackSize++] = nodeStart[node];
+                stack[stackSize++] = nodeStart[node] + 1;
+            }
+        }
+        return Arrays.copyOf(result, resultSize);
+    }
+
+    public int getNumberOfNodes() {
+        return numberOfNodes;
+    }
+
+    // +++ GEOMETRY HELPERS ++++++++++++++++++++
+
+    /**
+     * Reciprocal for the slab test, axis parallel rays get a huge finite value
+     * to avoid 0 * infinity.
+     */
+    private static float inverse(float d) {
+        return 1.0f / (d == 0 ? 1e-30f : d);
+    }
+
+    private static float[] emptyBounds() {
+        return new float[]{Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+                Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+    }
+
+    /**
+     * Grow the box at offset a in boxes by the box at offset b in other.
+     */
+    private static void grow(float[] boxes, int a, float[] other, int b) {
+        for (int k = 0; k < 3; k++) {
+            boxes[a + k] = Math.min(boxes[a + k], other[b + k]);
+            boxes[a + k + 3] = Math.max(boxes[a + k + 3], other[b + k + 3]);
+        }
+    }
+
+    /**
+     * Half the surface area of the box (sufficient for SAH comparisons).
+     */
+    private static float area(float[] box) {
+        float dx = box[3] - box[0];
+        float dy = box[4] - box[1];
+        float dz = box[5] - box[2];
+        if (dx < 0) {
+            return 0;
+        }
+        return dx * dy + dy * dz + dz * dx;
+    }
+
+    private static boolean overlap(float[] boxes, int b, float[] query) {
+        return boxes[b] <= query[3] && boxes[b + 3] >= query[0]
+                && boxes[b + 1] <= query[4] && boxes[b + 4] >= query[1]
+                && boxes[b + 2] <= query[5] && boxes[b + 5] >= query[2];
+    }
+
+    /**
+     * Write the bounding box of the triangle into target at the given offset.
+     */
+    private static void triangleBounds(float[] positions, int[] vertexIndices, int t,
+                                       float[] target, int offset) {
+        int a = vertexIndices[t * 3] * 3;
+        int b = vertexIndices[t * 3 + 1] * 3;
+        int c = vertexIndices[t * 3 + 2] * 3;
+        for (int k = 0; k < 3; k++) {
+            target[offset + k] = Math.min(positions[a + k], Math.min(positions[b + k], positions[c + k]));
+            target[offset + k + 3] = Math.max(positions[a + k], Math.max(positions[b + k], positions[c + k]));
+        }
+    }
+
+    /**
+     * Ray parameter where the ray enters the node box (slab test), infinity if
+     * the box is missed.
+     */
+    private float rayBoxDistance(int b, Vector3f origin, float invX, float invY, float invZ) {
+        float tx1 = (nodeBounds[b] - origin.x) * invX;
+        float tx2 = (nodeBounds[b + 3] - origin.x) * invX;
+        float tMin = Math.min(tx1, tx2);
+        float tMax = Math.max(tx1, tx2);
+        float ty1 = (nodeBounds[b + 1] - origin.y) * invY;
+        float ty2 = (nodeBounds[b + 4] - origin.y) * invY;
+        tMin = Math.max(tMin, Math.min(ty1, ty2));
+        tMax = Math.min(tMax, Math.max(ty1, ty2));
+        float tz1 = (nodeBounds[b + 2] - origin.z) * invZ;
+        float tz2 = (nodeBounds[b + 5] - origin.z) * invZ;
+        tMin = Math.max(tMin, Math.min(tz1, tz2));
+        tMax = Math.min(tMax, Math.max(tz1, tz2));
+        if (tMax < Math.max(tMin, 0)) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return Math.max(tMin, 0);
+    }
+
+    private float pointBoxDistanceSquared(int b, Vector3f p) {
+        float dx = Math.max(0, Math.max(nodeBounds[b] - p.x, p.x - nodeBounds[b + 3]));
+        float dy = Math.max(0, Math.max(nodeBounds[b + 1] - p.y, p.y - nodeBounds[b + 4]));
+        float dz = Math.max(0, Math.max(nodeBounds[b + 2] - p.z, p.z - nodeBounds[b + 5]));
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * Möller-Trumbore ray triangle intersection, returns the ray parameter or
+     * infinity. Rays (nearly) parallel to the triangle plane miss, independent
+     * of the scale of the mesh (see PARALLEL_EPSILON).
+     */
+    private static float intersectTriangle(float[] positions, int[] vertexIndices, int t,
+                                           Vector3f origin, Vector3f direction) {
+        int a = vertexIndices[t * 3] * 3;
+        int b = vertexIndices[t * 3 + 1] * 3;
+        int c = vertexIndices[t * 3 + 2] * 3;
+        float e1x = positions[b] - positions[a];
+        float e1y = positions[b + 1] - positions[a + 1];
+        float e1z = positions[b + 2] - positions[a + 2];
+        float e2x = positions[c] - positions[a];
+        float e2y = positions[c + 1] - positions[a + 1];
+        float e2z = positions[c + 2] - positions[a + 2];
+        float px = direction.y * e2z - direction.z * e2y;
+        float py = direction.z * e2x - direction.x * e2z;
+        float pz = direction.x * e2y - direction.y * e2x;
+        float det = e1x * px + e1y * py + e1z * pz;
+        // Compared in double, the squared products may leave the float range
+        double lengthsSquared = (double) (e1x * e1x + e1y * e1y + e1z * e1z)
+                * (e2x * e2x + e2y * e2y + e2z * e2z) * direction.lengthSquared();
+        if ((double) det * det <= PARALLEL_EPSILON * PARALLEL_EPSILON * lengthsSquared) {
+            return Float.POSITIVE_INFINITY;
+        }
+        float invDet = 1.0f / det;
+        float sx = origin.x - positions[a];
+        float sy = origin.y - positions[a + 1];
+        float sz = origin.z - positions[a + 2];
+        float u = (sx * px + sy * py + sz * pz) * invDet;
+        if (u < 0 || u > 1) {
+            return Float.POSITIVE_INFINITY;
+        }
+        float qx = sy * e1z - sz * e1y;
+        float qy = sz * e1x - sx * e1z;
+        float qz = sx * e1y - sy * e1x;
+        float v = (direction.x * qx + direction.y * qy + direction.z * qz) * invDet;
+        if (v < 0 || u + v > 1) {
+            return Float.POSITIVE_INFINITY;
+        }
+        float distance = (e2x * qx + e2y * qy + e2z * qz) * invDet;
+        return distance >= 0 ? distance : Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Closest point on the triangle abc to p (Ericson, Real-Time Collision
+     * Detection, 5.1.5), written into result.
+     */
+    private static void closestPointOnTriangle(Vector3f p, Vector3f a, Vector3f b, Vector3f c,
+                                               Vector3f result) {
+        float abx = b.x - a.x, aby = b.y - a.y, abz = b.z - a.z;
+        float acx = c.x - a.x, acy = c.y - a.y, acz = c.z - a.z;
+        float apx = p.x - a.x, apy = p.y - a.y, apz = p.z - a.z;
+        float d1 = abx * apx + aby * apy + abz * apz;
+        float d2 = acx * apx + acy * apy + acz * apz;
+        if (d1 <= 0 && d2 <= 0) {
+            result.set(a);
+            return;
+        }
+        float bpx = p.x - b.x, bpy = p.y - b.y, bpz = p.z - b.z;
+        float d3 = abx * bpx + aby * bpy + abz * bpz;
+        float d4 = acx * bpx + acy * bpy + acz * bpz;
+        if (d3 >= 0 && d4 <= d3) {
+            result.set(b);
+            return;
+        }
+        float vc = d1 * d4 - d3 * d2;
+        if (vc <= 0 && d1 >= 0 && d3 <= 0) {
+            float v = d1 / (d1 - d3);
+            result.set(a.x + v * abx, a.y + v * aby, a.z + v * abz);
+            return;
+        }
+        float cpx = p.x - c.x, cpy = p.y - c.y, cpz = p.z - c.z;
+        float d5 = abx * cpx + aby * cpy + abz * cpz;
+        float d6 = acx * cpx + acy * cpy + acz * cpz;
+        if (d6 >= 0 && d5 <= d6) {
+            result.set(c);
+            return;
+        }
+        float vb = d5 * d2 - d1 * d6;
+        if (vb <= 0 && d2 >= 0 && d6 <= 0) {
+            float w = d2 / (d2 - d6);
+            result.set(a.x + w * acx, a.y + w * acy, a.z + w * acz);
+            return;
+        }
+        float va = d3 * d6 - d5 * d4;
+        if (va <= 0 && (d4 - d3) >= 0 && (d5 - d6) >= 0) {
+            float w = (d4 - d3) / ((d4 - d3) + (d5 - d6));
+            result.set(b.x + w * (c.x - b.x), b.y + w * (c.y - b.y), b.z + w * (c.z - b.z));
+            return;
+        }
+        float denom = 1.0f / (va + vb + vc);
+        float v = vb * denom;
+        float w = vc * denom;
+        result.set(a.x + abx * v + acx * w, a.y + aby * v + acy * w, a.z + abz * v + acz * w);
+    }
+}
@@ -0,0 +1,366 @@
+/**
+ * Diese Datei ist Teil des Vorgabeframeworks für die Veranstaltung "Mixed Reality"
+ * <p>
+ * Prof. Dr. Philipp Jenke, Hochschule für Angewandte Wissenschaften Hamburg.
+ */
+
+package mixedreality.base.mesh;
+
+import com.jme3.math.Vector2f;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.util.BufferUtils;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Compact read-only form of a triangle mesh for large static meshes.
+ * <p>
+ * Positions are quantized to 16 bits per coordinate relative to the bounding
+ * box (error at most half a quantization step, i.e. extent / 131070 per axis),
+ * vertex normals are octahedrally encoded in two 16 bit values (error below
+ * 0.01 degrees), colors are stored as RGBA8 and the vertex and texture
+ * coordinate indices of the triangles as zigzag varint deltas to the previous
+ * index. Texture coordinates are quantized to 16 bits relative to their range.
+ * Triangle normals are not stored, they are recomputed on decompression.
+ */
+public class CompressedTriangleMesh {
+
+    private static final int QUANTIZATION_STEPS = 0xFFFF;
+
+    private final int numberOfVertices;
+    private final int numberOfTriangles;
+    private final int numberOfTextureCoordinates;
+
+    /**
+     * Bounding box minimum and size per axis for dequantization.
+     */
+    private final float[] positionOffset = new float[3];
+    private final float[] positionScale = new float[3];
+    private final float[] texCoordOffset = new float[2];
+    private final float[] texCoordScale = new float[2];
+
+    /**
+     * Quantized positions (3 per vertex), octahedral normals (2 per vertex)
+     * and quantized texture coordinates (2 per texture coordinate).
+     */
+    private final short[] positions;
+    private final short[] normals;
+    private final short[] textureCoordinates;
+
+    /**
+     * RGBA8 colors per vertex and per triangle.
+     */
+    private final int[] vertexColors;
+    private final int[] triangleColors;
+
+    /**
+     * Delta encoded vertex and texture coordinate indices of the triangles.
+     */
+    private final byte[] vertexIndices;
+    private final byte[] texCoordIndices;
+
+    public CompressedTriangleMesh(TriangleMesh mesh) {
+        numberOfVertices = mesh.getNumberOfVertices();
+        numberOfTriangles = mesh.getNumberOfTriangles();
+        numberOfTextureCoordinates = mesh.getNumberOfTextureCoordinates();
+
+        float[] meshPositions = mesh.getPositions();
+        float[] meshNormals = mesh.getNormals();
+        float[] meshColors = mesh.getColors();
+        computeRange(meshPositions, numberOfVertices, 3, positionOffset, positionScale);
+        positions = new short[numberOfVertices * 3];
+        normals = new short[numberOfVertices * 2];
+        vertexColors = new int[numberOfVertices];
+        Parallel.forRange(numberOfVertices, (from, to) -> {
+            for (int v = from; v < to; v++) {
+                for (int k = 0; k < 3; k++) {
+                    positions[v * 3 + k] = quantize(meshPositions[v * 3 + k], positionOffset[k], positionScale[k]);
+                }
+                encodeOctahedral(meshNormals, v * 3, normals, v * 2);
+                vertexColors[v] = packColor(meshColors, v * 4);
+            }
+        });
+
+        float[] meshTextureCoordinates = mesh.getTextureCoordinates();
+        computeRange(meshTextureCoordinates, numberOfTextureCoordinates, 2, texCoordOffset, texCoordScale);
+        textureCoordinates = new short[numberOfTextureCoordinates * 2];
+        for (int i = 0; i < numberOfTextureCoordinates * 2; i++) {
+            textureCoordinates[i] = quantize(meshTextureCoordinates[i], texCoordOffset[i % 2], texCoordScale[i % 2]);
+        }
+
+        float[] meshTriangleColors = mesh.getTriangleColors();
+        triangleColors = new int[numberOfTriangles];
+        for (int t = 0; t < numberOfTriangles; t++) {
+            triangleColors[t] = packColor(meshTriangleColors, t * 4);
+        }
+        vertexIndices = encodeIndices(mesh.getVertexIndices(), numberOfTriangles * 3);
+        texCoordIndices = encodeIndices(mesh.getTexCoordIndices(), numberOfTriangles * 3);
+    }
+
+    /**
+     * Decode into a new triangle mesh. Triangle normals are computed from the
+     * decoded positions.
+     */
+    public TriangleMesh decompress() {
+        TriangleMesh mesh = new TriangleMesh();
+        for (int v = 0; v < numberOfVertices; v++) {
+            mesh.addVertex(dequantize(positions[v * 3], 0), dequantize(positions[v * 3 + 1], 1),
+                    dequantize(positions[v * 3 + 2], 2));
+        }
+        float[] meshNormals = mesh.getNormals();
+        float[] meshColors = mesh.getColors();
+        for (int v = 0; v < numberOfVertices; v++) {
+            decodeOctahedral(normals, v * 2, meshNormals, v * 3);
+            unpackColor(vertexColors[v], meshColors, v * 4);
+        }
+        for (int i = 0; i < numberOfTextureCoordinates; i++) {
+            mesh.addTextureCoordinate(new Vector2f(
+                    texCoordOffset[0] + (textureCoordinates[i * 2] & 0xFFFF) * texCoordScale[0],
+                    texCoordOffset[1] + (textureCoordinates[i * 2 + 1] & 0xFFFF) * texCoordScale[1]));
+        }
+        int[] indices = decodeIndices(vertexIndices, numberOfTriangles * 3);
+        int[] texIndices = decodeIndices(texCoordIndices, numberOfTriangles * 3);
+        for (int t = 0; t < numberOfTriangles; t++) {
+            mesh.addTriangle(indices[t * 3], indices[t * 3 + 1], indices[t * 3 + 2]);
+        }
+        System.arraycopy(texIndices, 0, mesh.getTexCoordIndices(), 0, texIndices.length);
+        float[] meshTriangleColors = mesh.getTriangleColors();
+        for (int t = 0; t < numberOfTriangles; t++) {
+            unpackColor(triangleColors[t], meshTriangleColors, t * 4);
+        }
+        mesh.computeTriangleNormals();
+        return mesh;
+    }
+
+    /**
+     * Decode directly into the buffers of a smooth shaded JMonkey mesh with one
+     * render vertex per mesh vertex. As in TriangleMeshTools.createMesh(), the
+     * colors are taken from the triangles, so this only works if all triangles
+     * of a vertex have the same color. Other meshes and meshes with texture
+     * coordinates are decompressed and converted by
+     * TriangleMeshTools.createMesh() instead.
+     */
+    public Mesh createMesh() {
+        if (numberOfTextureCoordinates > 0) {
+            return TriangleMeshTools.createMesh(decompress(), TriangleMeshTools.Shading.SMOOTH);
+        }
+        int numberOfIndices = numberOfTriangles * 3;
+        int[] indices = decodeIndices(vertexIndices, numberOfIndices);
+        int[] renderColors = getRenderColors(indices);
+        if (renderColors == null) {
+            return TriangleMeshTools.createMesh(decompress(), TriangleMeshTools.Shading.SMOOTH);
+        }
+
+        FloatBuffer positionBuffer = BufferUtils.createFloatBuffer(numberOfVertices * 3);
+        FloatBuffer normalBuffer = BufferUtils.createFloatBuffer(numberOfVertices * 3);
+        FloatBuffer colorBuffer = BufferUtils.createFloatBuffer(numberOfVertices * 4);
+        float[] normal = new float[3];
+        for (int v = 0; v < numberOfVertices; v++) {
+            for (int k = 0; k < 3; k++) {
+                positionBuffer.put(dequantize(positions[v * 3 + k], k));
+            }
+            decodeOctahedral(normals, v * 2, normal, 0);
+            normalBuffer.put(normal);
+            int color = renderColors[v];
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                colorBuffer.put(((color >>> shift) & 0xFF) / 255.0f);
+            }
+        }
+
+        Mesh mesh = new Mesh();
+        mesh.setMode(Mesh.Mode.Triangles);
+        mesh.setBuffer(VertexBuffer.Type.Position, 3, positionBuffer.flip());
+        mesh.setBuffer(VertexBuffer.Type.Normal, 3, normalBuffer.flip());
+        mesh.setBuffer(VertexBuffer.Type.Color, 4, colorBuffer.flip());
+        if (numberOfVertices <= 0xFFFF + 1) {
+            ShortBuffer indexBuffer = BufferUtils.createShortBuffer(numberOfIndices);
+            for (int index : indices) {
+                indexBuffer.put((short) index);
+            }
+            mesh.setBuffer(VertexBuffer.Type.Index, 1, indexBuffer.flip());
+        } else {
+            mesh.setBuffer(VertexBuffer.Type.Index, 1, BufferUtils.createIntBuffer(indices));
+        }
+        mesh.updateBound();
+        return mesh;
+    }
+
+    /**
+     * Color of the triangles of each vertex (the vertex color for unused
+     * vertices), null if the triangles of a vertex have different colors.
+     */
+    private int[] getRenderColors(int[] indices) {
+        int[] colors = vertexColors.clone();
+        boolean[] used = new boolean[numberOfVertices];
+        for (int i = 0; i < indices.length; i++) {
+            int v = indices[i];
+            int color = triangleColors[i / 3];
+            if (!used[v]) {
+                used[v] = true;
+                colors[v] = color;
+            } else if (colors[v] != color) {
+                return null;
+            }
+        }
+        return colors;
+    }
+
+    /**
+     * Approximate memory used by the compressed data in bytes (array contents
+     * only).
+     */
+    public long getMemoryUsage() {
+        return positions.length * 2L + normals.length * 2L + textureCoordinates.length * 2L
+                + vertexColors.length * 4L + triangleColors.length * 4L
+                + vertexIndices.length + texCoordIndices.length;
+    }
+
+    public int getNumberOfVertices() {
+        return numberOfVertices;
+    }
+
+    public int getNumberOfTriangles() {
+        return numberOfTriangles;
+    }
+
+    // +++ QUANTIZATION +++++++++++++++++++++++++
+
+    /**
+     * Compute minimum and quantization step size for each of the given number
+     * of components.
+     */
+    private static void computeRange(float[] values, int count, int components, float[] offset,
+                                     float[] scale) {
+        for (int k = 0; k < components; k++) {
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            for (int i = 0; i < count; i++) {
+                min = Math.min(min, values[i * components + k]);
+                max = Math.max(max, values[i * components + k]);
+            }
+            offset[k] = count > 0 ? min : 0;
+            scale[k] = count > 0 && max > min ? (max - min) / QUANTIZATION_STEPS : 1;
+        }
+    }
+
+    private static short quantize(float value, float offset, float scale) {
+        int q = Math.round((value - offset) / scale);
+        return (short) Math.max(0, Math.min(QUANTIZATION_STEPS, q));
+    }
+
+    private float dequantize(short value, int axis) {
+        return positionOffset[axis] + (value & 0xFFFF) * positionScale[axis];
+    }
+
+    /**
+     * Octahedral encoding: project the unit vector onto the octahedron and
+     * unfold the lower half, both coordinates in [-1, 1] as signed 16 bit.
+     */
+    private static void encodeOctahedral(float[] n, int offset, short[] target, int targetOffset) {
+        float x = n[offset], y = n[offset + 1], z = n[offset + 2];
+        float norm = Math.abs(x) + Math.abs(y) + Math.abs(z);
+        if (norm == 0) {
+            target[targetOffset] = 0;
+            target[targetOffset + 1] = 0;
+            return;
+        }
+        x /= norm;
+        y /= norm;
+        if (z < 0) {
+            float u = (1 - Math.abs(y)) * signNotZero(x);
+            float v = (1 - Math.abs(x)) * signNotZero(y);
+            x = u;
+            y = v;
+        }
+        target[targetOffset] = (short) Math.round(x * Short.MAX_VALUE);
+        target[targetOffset + 1] = (short) Math.round(y * Short.MAX_VALUE);
+    }
+
+    private static void decodeOctahedral(short[] encoded, int offset, float[] n, int targetOffset) {
+        float x = encoded[offset] / (float) Short.MAX_VALUE;
+        float y = encoded[offset + 1] / (float) Short.MAX_VALUE;
+        float z = 1 - Math.abs(x) - Math.abs(y);
+        if (z < 0) {
+            float u = (1 - Math.abs(y)) * signNotZero(x);
+            float v = (1 - Math.abs(x)) * signNotZero(y);
+            x = u;
+            y = v;
+        }
+        float norm = (float) Math.sqrt(x * x + y * y + z * z);
+        n[targetOffset] = x / norm;
+        n[targetOffset + 1] = y / norm;
+        n[targetOffset + 2] = z / norm;
+    }
+
+    private static float signNotZero(float value) {
+        return value >= 0 ? 1 : -1;
+    }
+
+    private static int packColor(float[] colors, int offset) {
+        int packed = 0;
+        for (int k = 0; k < 4; k++) {
+            int c = Math.round(Math.max(0, Math.min(1, colors[offset + k])) * 255);
+            packed = (packed << 8) | c;
+        }
+        return packed;
+    }
+
+    private static void unpackColor(int packed, float[] colors, int offset) {
+        for (int k = 0; k < 4; k++) {
+            colors[offset + k] = ((packed >>> (24 - 8 * k)) & 0xFF) / 255.0f;
+        }
+    }
+
+    // +++ INDEX CODING +++++++++++++++++++++++++
+
+    /**
+     * Encode the indices as zigzag varint deltas to the previous index.
+     */
+    private static byte[] encodeIndices(int[] indices, int count) {
+        byte[] encoded = new byte[Math.max(16, count * 2)];
+        int size = 0;
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            int delta = indices[i] - previous;
+            previous = indices[i];
+            int zigzag = (delta << 1) ^ (delta >> 31);
+            if (size + 5 > encoded.length) {
+                encoded = Arrays.copyOf(encoded, encoded.length * 2);
+            }
+            while ((zigzag & ~0x7F) != 0) {
+                encoded[size++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            encoded[size++] = (byte) zigzag;
+        }
+        return Arrays.copyOf(encoded, size);
+    }
+
+    private static void decodeIndices(byte[] encoded, int count, IntConsumer consumer) {
+        int position = 0;
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            int zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = encoded[position++];
+                zigzag |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            previous += (zigzag >>> 1) ^ -(zigzag & 1);
+            consumer.accept(previous);
+        }
+    }
+
+    private static int[] decodeIndices(byte[] encoded, int count) {
+        int[] indices = new int[count];
+        int[] next = {0};
+        decodeIndices(encoded, count, index -> indices[next[0]++] = index);
+        return indices;
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Diese Datei ist Teil des Vorgabeframeworks für die Veranstaltung "Mixed Reality"
+ * <p>
+ * Prof. Dr. Philipp Jenke, Hochschule für Angewandte Wissenschaften Hamburg.
+ */
+
+package mixedreality.base.mesh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Collects geometry from several producer threads without locking: each
+ * producer appends to its own buffer mesh (vertex indices are local to that
+ * buffer), build() merges all buffers into one mesh with a single bulk copy
+ * and index offset fix-up.
+ * <p>
+ * getBuffer() returns a buffer per thread, the order of these buffers in the
+ * result depends on the scheduling. For deterministic output use
+ * getBuffer(sequenceNumber): keyed buffers are merged in ascending key order
+ * (before the per-thread buffers), independent of the threads which filled
+ * them. A keyed buffer must only be filled by one thread at a time.
+ * <p>
+ * All producers must have finished before build() is called.
+ */
+public class MeshBuilder {
+
+    /**
+     * Per-thread buffers. They are owned by the builder (not by thread-locals
+     * of the producer threads), so build() releases them for all threads.
+     */
+    private final Map<Thread, TriangleMesh> threadBuffers = new ConcurrentHashMap<>();
+
+    /**
+     * Buffers for deterministic output, sorted by sequence number.
+     */
+    private final Map<Integer, TriangleMesh> sequencedBuffers = new ConcurrentSkipListMap<>();
+
+    /**
+     * Return the buffer of the calling thread.
+     */
+    public TriangleMesh getBuffer() {
+        return threadBuffers.computeIfAbsent(Thread.currentThread(), thread -> new TriangleMesh());
+    }
+
+    /**
+     * Return the buffer for the given sequence number, created on first use.
+     */
+    public TriangleMesh getBuffer(int sequenceNumber) {
+        return sequencedBuffers.computeIfAbsent(sequenceNumber, key -> new TriangleMesh());
+    }
+
+    /**
+     * Merge all buffers into a new mesh and reset the builder. Large merges
+     * copy the buffers in parallel.
+     */
+    public TriangleMesh build() {
+        List<TriangleMesh> buffers = new ArrayList<>(sequencedBuffers.values());
+        buffers.addAll(threadBuffers.values());
+        sequencedBuffers.clear();
+        threadBuffers.clear();
+
+        long numberOfTriangles = 0;
+        for (TriangleMesh buffer : buffers) {
+            numberOfTriangles += buffer.getNumberOfTriangles();
+        }
+        TriangleMesh mesh = new TriangleMesh();
+        mesh.unite(buffers, buffers.size() > 1 && numberOfTriangles >= Parallel.SEQUENTIAL_THRESHOLD);
+        return mesh;
+    }
+}
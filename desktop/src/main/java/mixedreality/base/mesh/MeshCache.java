@@ -0,0 +1,298 @@
+/**
+ * Diese Datei ist Teil des Vorgabeframeworks für die Veranstaltung "Mixed Reality"
+ * <p>
+ * Prof. Dr. Philipp Jenke, Hochschule für Angewandte Wissenschaften Hamburg.
+ */
+
+package mixedreality.base.mesh;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide cache for parsed asset files (meshes and material libraries),
+ * keyed by the canonical path of the file. An entry is only used while the
+ * modification times of the file and the files it depends on (e.g. the
+ * material libraries of a mesh) are unchanged.
+ * <p>
+ * The least recently used entries are evicted once the estimated size of all
+ * entries exceeds the capacity. Evicted entries are still softly referenced
+ * and can be used again until the garbage collector needs the memory.
+ * <p>
+ * Meshes are stored as read-only snapshots; callers get a copy-on-write copy
+ * which they may modify. Cached materials are shared and must not be changed.
+ */
+public class MeshCache {
+
+    /**
+     * Default capacity in bytes.
+     */
+    private static final long DEFAULT_CAPACITY = 256L << 20;
+
+    /**
+     * Estimated size of a material in bytes.
+     */
+    private static final long MATERIAL_SIZE = 128;
+
+    private static final MeshCache instance = new MeshCache(DEFAULT_CAPACITY);
+
+    /**
+     * Loads the content of a file on a cache miss.
+     */
+    public interface Loader<T> {
+        T load() throws IOException;
+    }
+
+    /**
+     * Cached content of a file.
+     */
+    private static class Entry {
+        final Object value;
+        final long lastModified;
+        final File[] dependencies;
+        final long[] dependenciesLastModified;
+        final long size;
+
+        Entry(Object value, long lastModified, List<File> dependencies, long size) {
+            this.value = value;
+            this.lastModified = lastModified;
+            this.dependencies = dependencies.toArray(new File[0]);
+            this.dependenciesLastModified = new long[this.dependencies.length];
+            for (int i = 0; i < this.dependencies.length; i++) {
+                dependenciesLastModified[i] = this.dependencies[i].lastModified();
+            }
+            this.size = size;
+        }
+
+        /**
+         * Checks if the file and its dependencies have not been modified.
+         */
+        boolean isUpToDate(long fileLastModified) {
+            if (lastModified != fileLastModified) {
+                return false;
+            }
+            for (int i = 0; i < dependencies.length; i++) {
+                if (dependencies[i].lastModified() != dependenciesLastModified[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Soft reference to an evicted entry, knows its key for the cleanup.
+     */
+    private static class SoftEntry extends SoftReference<Entry> {
+        final String path;
+
+        SoftEntry(String path, Entry entry, ReferenceQueue<Entry> queue) {
+            super(entry, queue);
+            this.path = path;
+        }
+    }
+
+    /**
+     * Entries in access order (least recently used first).
+     */
+    private final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Evicted entries, the garbage collector may clear them.
+     */
+    private final Map<String, SoftEntry> evictedEntries = new HashMap<>();
+    private final ReferenceQueue<Entry> clearedEntries = new ReferenceQueue<>();
+
+    private long capacity;
+    private long size = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    public MeshCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    public static MeshCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Return a copy of the mesh read from the file, the loader is called if
+     * the mesh is not cached. Returns null if the loader returns null (not
+     * cached).
+     */
+    public TriangleMesh getMesh(File file, Loader<TriangleMesh> loader)
+            throws IOException {
+        return getMesh(file, loader, Collections::emptyList);
+    }
+
+    /**
+     * Same as getMesh(File, Loader), the mesh also depends on the files
+     * returned by dependencies (called after the loader, e.g. the material
+     * libraries found while parsing): it is loaded again if one of them is
+     * modified.
+     */
+    public TriangleMesh getMesh(File file, Loader<TriangleMesh> loader,
+                                Supplier<List<File>> dependencies) throws IOException {
+        TriangleMesh snapshot = get(file, () -> {
+            TriangleMesh mesh = loader.load();
+            return mesh != null ? mesh.snapshot() : null;
+        }, dependencies);
+        if (snapshot == null) {
+            return null;
+        }
+        synchronized (this) {
+            // The copy marks the arrays of the shared snapshot as shared
+            return new TriangleMesh(snapshot);
+        }
+    }
+
+    /**
+     * Return the materials of a material library file (in the order of their
+     * definition), the loader is called if they are not cached.
+     */
+    public List<ObjMaterial> getMaterials(File file, Loader<List<ObjMaterial>> loader)
+            throws IOException {
+        return get(file, loader, Collections::emptyList);
+    }
+
+    /**
+     * Cached content of the file or the content from the loader. The loader
+     * runs without holding the lock, concurrent misses for the same file may
+     * load it twice.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T get(File file, Loader<T> loader, Supplier<List<File>> dependencies)
+            throws IOException {
+        String path = file.getCanonicalPath();
+        long lastModified = file.lastModified();
+        synchronized (this) {
+            Entry entry = lookup(path);
+            if (entry != null && entry.isUpToDate(lastModified)) {
+                hits++;
+                return (T) entry.value;
+            }
+            misses++;
+        }
+        T value = loader.load();
+        if (value != null) {
+            put(path, new Entry(value, lastModified, dependencies.get(), estimateSize(value)));
+        }
+        return value;
+    }
+
+    /**
+     * Find the entry for the path, evicted entries which have not been cleared
+     * are moved back into the cache.
+     */
+    private Entry lookup(String path) {
+        Entry entry = entries.get(path);
+        if (entry == null) {
+            SoftEntry evicted = evictedEntries.remove(path);
+            entry = evicted != null ? evicted.get() : null;
+            if (entry != null) {
+                add(path, entry);
+            }
+        }
+        return entry;
+    }
+
+    private synchronized void put(String path, Entry entry) {
+        Entry previous = entries.remove(path);
+        if (previous != null) {
+            size -= previous.size;
+        }
+        evictedEntries.remove(path);
+        add(path, entry);
+    }
+
+    private void add(String path, Entry entry) {
+        entries.put(path, entry);
+        size += entry.size;
+        evict(entry);
+    }
+
+    /**
+     * Evict least recently used entries until the size fits the capacity. The
+     * given entry (may be null) stays, it may be larger than the capacity.
+     */
+    private void evict(Entry keep) {
+        for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+             size > capacity && it.hasNext(); ) {
+            Map.Entry<String, Entry> eldest = it.next();
+            if (eldest.getValue() == keep) {
+                continue;
+            }
+            it.remove();
+            size -= eldest.getValue().size;
+            evictedEntries.put(eldest.getKey(),
+                    new SoftEntry(eldest.getKey(), eldest.getValue(), clearedEntries));
+        }
+        removeClearedEntries();
+    }
+
+    /**
+     * Remove the evicted entries which have been cleared by the garbage
+     * collector.
+     */
+    private void removeClearedEntries() {
+        Reference<? extends Entry> reference;
+        while ((reference = clearedEntries.poll()) != null) {
+            SoftEntry cleared = (SoftEntry) reference;
+            evictedEntries.remove(cleared.path, cleared);
+        }
+    }
+
+    private static long estimateSize(Object value) {
+        if (value instanceof TriangleMesh) {
+            return ((TriangleMesh) value).getMemoryUsage();
+        } else if (value instanceof List) {
+            return ((List<?>) value).size() * MATERIAL_SIZE;
+        }
+        return 0;
+    }
+
+    /**
+     * Remove all entries, the counters are kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        evictedEntries.clear();
+        size = 0;
+    }
+
+    public synchronized void setCapacity(long capacity) {
+        this.capacity = capacity;
+        evict(null);
+    }
+
+    public synchronized long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Estimated size of the entries in bytes (without the evicted ones).
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,350 @@
+/**
+ * Diese Datei ist Teil des Vorgabeframeworks für die Veranstaltung "Mixed Reality"
+ * <p>
+ * Prof. Dr. Philipp Jenke, Hochschule für Angewandte Wissenschaften Hamburg.
+ */
+
+package mixedreality.base.mesh;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * Connectivity information of a triangle mesh, stored in compressed (CSR)
+ * primitive arrays: triangles around a vertex, neighbor vertices of a vertex
+ * and the opposite triangle of each triangle edge (half-edge twin). The
+ * vertex-to-triangle index is built in linear time on construction, the other
+ * parts on first use. Describes the mesh at the time it was built, use
+ * TriangleMesh.getConnectivity() to get an up-to-date instance.
+ * <p>
+ * Instances can be queried by several threads: the parts built on first use
+ * are published through volatile fields once they are complete (concurrent
+ * first queries may build them twice).
+ */
+public class MeshConnectivity {
+
+    /**
+     * Vertex indices of the triangles, 3 per triangle.
+     */
+    private final int[] vertexIndices;
+
+    private final int numberOfVertices;
+
+    private final int numberOfTriangles;
+
+    /**
+     * Incident triangles of vertex v are at [offsets[v], offsets[v + 1]) in
+     * incidentTriangles (ascending triangle order).
+     */
+    private final int[] triangleOffsets;
+    private final int[] incidentTriangles;
+
+    /**
+     * Neighbor vertices of vertex v are at [offsets[v], offsets[v + 1]) in
+     * neighbors, built on first use.
+     */
+    private static final class Neighbors {
+        final int[] offsets;
+        final int[] neighbors;
+
+        Neighbors(int[] offsets, int[] neighbors) {
+            this.offsets = offsets;
+            this.neighbors = neighbors;
+        }
+    }
+
+    private volatile Neighbors neighbors;
+
+    /**
+     * Opposite triangle for edge e (corner e to corner e + 1) of triangle t at
+     * index 3 * t + e, -1 at the boundary, built on first use.
+     */
+    private volatile int[] oppositeTriangles;
+
+    MeshConnectivity(TriangleMesh mesh) {
+        numberOfVertices = mesh.getNumberOfVertices();
+        numberOfTriangles = mesh.getNumberOfTriangles();
+        vertexIndices = Arrays.copyOf(mesh.getVertexIndices(), numberOfTriangles * 3);
+
+        // Counting sort of the corners by vertex index
+        triangleOffsets = new int[numberOfVertices + 1];
+        for (int corner = 0; corner < numberOfTriangles * 3; corner++) {
+            triangleOffsets[vertexIndices[corner] + 1]++;
+        }
+        for (int v = 0; v < numberOfVertices; v++) {
+            triangleOffsets[v + 1] += triangleOffsets[v];
+        }
+        int[] fill = Arrays.copyOf(triangleOffsets, numberOfVertices);
+        incidentTriangles = new int[numberOfTriangles * 3];
+        for (int corner = 0; corner < numberOfTriangles * 3; corner++) {
+            incidentTriangles[fill[vertexIndices[corner]]++] = corner / 3;
+        }
+    }
+
+    /**
+     * Build the neighbor vertex index from the vertex-to-triangle index.
+     */
+    private Neighbors buildNeighbors() {
+        // Stamp: mark[w] == v + 1 if w has already been seen as neighbor of v
+        int[] mark = new int[numberOfVertices];
+        int[] neighborOffsets = new int[numberOfVertices + 1];
+        int[] neighbors = null;
+        for (int pass = 0; pass < 2; pass++) {
+            Arrays.fill(mark, 0);
+            for (int v = 0; v < numberOfVertices; v++) {
+                int count = 0;
+                for (int i = triangleOffsets[v]; i < triangleOffsets[v + 1]; i++) {
+                    int t = incidentTriangles[i];
+                    for (int k = 0; k < 3; k++) {
+                        int w = vertexIndices[t * 3 + k];
+                        if (w != v && mark[w] != v + 1) {
+                            mark[w] = v + 1;
+                            if (pass == 1) {
+                                neighbors[neighborOffsets[v] + count] = w;
+                            }
+                            count++;
+                        }
+                    }
+                }
+                if (pass == 0) {
+                    neighborOffsets[v + 1] = neighborOffsets[v] + count;
+                }
+            }
+            if (pass == 0) {
+                neighbors = new int[neighborOffsets[numberOfVertices]];
+            }
+        }
+        return new Neighbors(neighborOffsets, neighbors);
+    }
+
+    private Neighbors getNeighbors() {
+        Neighbors result = neighbors;
+        if (result == null) {
+            result = buildNeighbors();
+            neighbors = result;
+        }
+        return result;
+    }
+
+    /**
+     * Build the opposite triangle index from the vertex-to-triangle index.
+     */
+    private int[] buildOppositeTriangles() {
+        int[] oppositeTriangles = new int[numberOfTriangles * 3];
+        for (int t = 0; t < numberOfTriangles; t++) {
+            for (int e = 0; e < 3; e++) {
+                int a = vertexIndices[t * 3 + e];
+                int b = vertexIndices[t * 3 + (e + 1) % 3];
+                // Prefer the consistently oriented twin (b -> a)
+                int opposite = findTriangleWithEdge(b, a, t);
+                if (opposite < 0) {
+                    opposite = findTriangleWithEdge(a, b, t);
+                }
+                oppositeTriangles[t * 3 + e] = opposite;
+            }
+        }
+        return oppositeTriangles;
+    }
+
+    private int[] getOppositeTriangles() {
+        int[] result = oppositeTriangles;
+        if (result == null) {
+            result = buildOppositeTriangles();
+            oppositeTriangles = result;
+        }
+        return result;
+    }
+
+    /**
+     * Find a triangle other than exclude which contains the directed edge
+     * (from, to), return -1 if there is none.
+     */
+    private int findTriangleWithEdge(int from, int to, int exclude) {
+        for (int i = triangleOffsets[from]; i < triangleOffsets[from + 1]; i++) {
+            int s = incidentTriangles[i];
+            if (s == exclude) {
+                continue;
+            }
+            for (int k = 0; k < 3; k++) {
+                if (vertexIndices[s * 3 + k] == from
+                        && vertexIndices[s * 3 + (k + 1) % 3] == to) {
+                    return s;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks if the triangle contains both vertices.
+     */
+    private boolean containsEdge(int t, int u, int v) {
+        boolean hasU = false, hasV = false;
+        for (int k = 0; k < 3; k++) {
+            hasU |= vertexIndices[t * 3 + k] == u;
+            hasV |= vertexIndices[t * 3 + k] == v;
+        }
+        return hasU && hasV;
+    }
+
+    // +++ QUERIES +++++++++++++++++++++++++++++
+
+    int[] getTriangleOffsets() {
+        return triangleOffsets;
+    }
+
+    int[] getIncidentTriangles() {
+        return incidentTriangles;
+    }
+
+    public int getNumberOfIncidentTriangles(int vertexIndex) {
+        return triangleOffsets[vertexIndex + 1] - triangleOffsets[vertexIndex];
+    }
+
+    /**
+     * Return the i-th triangle containing the vertex.
+     */
+    public int getIncidentTriangle(int vertexIndex, int i) {
+        Preconditions.checkElementIndex(i, getNumberOfIncidentTriangles(vertexIndex));
+        return incidentTriangles[triangleOffsets[vertexIndex] + i];
+    }
+
+    public int getNumberOfNeighbors(int vertexIndex) {
+        int[] offsets = getNeighbors().offsets;
+        return offsets[vertexIndex + 1] - offsets[vertexIndex];
+    }
+
+    /**
+     * Return the i-th vertex connected to the vertex by an edge.
+     */
+    public int getNeighbor(int vertexIndex, int i) {
+        Preconditions.checkElementIndex(i, getNumberOfNeighbors(vertexIndex));
+        Neighbors result = getNeighbors();
+        return result.neighbors[result.offsets[vertexIndex] + i];
+    }
+
+    /**
+     * Return the triangle on the other side of the edge from corner e to corner
+     * (e + 1) % 3 of the triangle, -1 if the edge is a boundary edge.
+     */
+    public int getOppositeTriangle(int triangleIndex, int e) {
+        return getOppositeTriangles()[triangleIndex * 3 + e];
+    }
+
+    /**
+     * Return the number of triangles sharing the edge (u, v).
+     */
+    public int getNumberOfTrianglesOnEdge(int u, int v) {
+        int count = 0;
+        for (int i = triangleOffsets[u]; i < triangleOffsets[u + 1]; i++) {
+            if (containsEdge(incidentTriangles[i], u, v)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Return the triangles sharing the edge (u, v).
+     */
+    public int[] getTrianglesOnEdge(int u, int v) {
+        int[] triangles = new int[getNumberOfTrianglesOnEdge(u, v)];
+        int count = 0;
+        for (int i = triangleOffsets[u]; i < triangleOffsets[u + 1]; i++) {
+            if (containsEdge(incidentTriangles[i], u, v)) {
+                triangles[count++] = incidentTriangles[i];
+            }
+        }
+        return triangles;
+    }
+
+    /**
+     * An edge is a boundary edge if it belongs to exactly one triangle.
+     */
+    public boolean isBoundaryEdge(int u, int v) {
+        return getNumberOfTrianglesOnEdge(u, v) == 1;
+    }
+
+    /**
+     * A vertex is a boundary vertex if it belongs to a boundary edge.
+     */
+    public boolean isBoundaryVertex(int vertexIndex) {
+        for (int i = 0; i < getNumberOfNeighbors(vertexIndex); i++) {
+            if (isBoundaryEdge(vertexIndex, getNeighbor(vertexIndex, i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return all boundary edges as pairs of vertex indices (oriented like in
+     * their triangle).
+     */
+    public int[] getBoundaryEdges() {
+        int[] oppositeTriangles = getOppositeTriangles();
+        int count = 0;
+        for (int i = 0; i < numberOfTriangles * 3; i++) {
+            if (oppositeTriangles[i] < 0) {
+                count++;
+            }
+        }
+        int[] edges = new int[count * 2];
+        count = 0;
+        for (int i = 0; i < numberOfTriangles * 3; i++) {
+            if (oppositeTriangles[i] < 0) {
+                edges[count++] = vertexIndices[i];
+                edges[count++] = vertexIndices[(i / 3) * 3 + (i % 3 + 1) % 3];
+            }
+        }
+        return edges;
+    }
+
+    /**
+     * Compute the connected components (triangles sharing a vertex are
+     * connected). Writes the component index of each triangle into
+     * componentOfTriangle, returns the number of components.
+     */
+    public int getConnectedComponents(int[] componentOfTriangle) {
+        Preconditions.checkArgument(componentOfTriangle.length >= numberOfTriangles);
+        // Union-find over the vertices
+        int[] parent = new int[numberOfVertices];
+        for (int v = 0; v < numberOfVertices; v++) {
+            parent[v] = v;
+        }
+        for (int t = 0; t < numberOfTriangles; t++) {
+            int root = find(parent, vertexIndices[t * 3]);
+            for (int k = 1; k < 3; k++) {
+                int other = find(parent, vertexIndices[t * 3 + k]);
+                if (other != root) {
+                    parent[Math.max(root, other)] = Math.min(root, other);
+                    root = Math.min(root, other);
+                }
+            }
+        }
+        // Number the components in order of first appearance
+        int[] componentOfRoot = new int[numberOfVertices];
+        Arrays.fill(componentOfRoot, -1);
+        int numberOfComponents = 0;
+        for (int t = 0; t < numberOfTriangles; t++) {
+            int root = find(parent, vertexIndices[t * 3]);
+            if (componentOfRoot[root] < 0) {
+                componentOfRoot[root] = numberOfComponents++;
+            }
+            componentOfTriangle[t] = componentOfRoot[root];
+        }
+        return numberOfComponents;
+    }
+
+    /**
+     * Union-find root with path halving.
+     */
+    private static int find(int[] parent, int v) {
+        while (parent[v] != v) {
+            parent[v] = parent[parent[v]];
+            v = parent[v];
+        }
+        return v;
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Diese Datei ist Teil des Vorgabeframeworks für die Veranstaltung "Mixed Reality"
+ * <p>
+ * Prof. Dr. Philipp Jenke, Hochschule für Angewandte Wissenschaften Hamburg.
+ */
+
+package mixedreality.base.mesh;
+
+import misc.Logger;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes facet normals and area-weighted vertex normals on the packed arrays
+ * of a triangle mesh. Large meshes are processed in parallel chunks, the inner
+ * loops do not allocate. Vertex normals are gathered per vertex from the
+ * incident triangles (see {@link MeshConnectivity}) in ascending triangle
+ * order, so the result does not depend on the number of threads.
+ */
+final class MeshNormals {
+
+    private MeshNormals() {
+    }
+
+    /**
+     * Compute the facet normals of all triangles.
+     */
+    static void computeTriangleNormals(TriangleMesh mesh) {
+        computeNormals(mesh, true, false);
+    }
+
+    /**
+     * Compute the vertex normals as area-weighted average of the normals of the
+     * incident triangles.
+     */
+    static void computeVertexNormals(TriangleMesh mesh) {
+        computeNormals(mesh, false, true);
+    }
+
+    /**
+     * Compute facet and/or vertex normals with a single cross product per
+     * triangle.
+     */
+    static void computeNormals(TriangleMesh mesh, boolean triangleNormals,
+                               boolean vertexNormals) {
+        if (triangleNormals) {
+            mesh.modifyTriangles();
+        }
+        if (vertexNormals) {
+            mesh.modifyVertices();
+        }
+        int numberOfTriangles = mesh.getNumberOfTriangles();
+        int numberOfVertices = mesh.getNumberOfVertices();
+        float[] positions = mesh.getPositions();
+        int[] vertexIndices = mesh.getVertexIndices();
+        float[] facetNormals = mesh.getTriangleNormals();
+        // Area weighted (not normalized) facet normals
+        float[] weighted = vertexNormals ? new float[numberOfTriangles * 3] : null;
+        AtomicInteger invalid = new AtomicInteger();
+
+        Parallel.forRange(numberOfTriangles, (from, to) -> {
+            int invalidInChunk = 0;
+            for (int t = from; t < to; t++) {
+                int a = vertexIndices[t * 3] * 3;
+                int b = vertexIndices[t * 3 + 1] * 3;
+                int c = vertexIndices[t * 3 + 2] * 3;
+                float ux = positions[b] - positions[a];
+                float uy = positions[b + 1] - positions[a + 1];
+                float uz = positions[b + 2] - positions[a + 2];
+                float vx = positions[c] - positions[a];
+                float vy = positions[c + 1] - positions[a + 1];
+                float vz = positions[c + 2] - positions[a + 2];
+                // Length of the cross product is twice the triangle area
+                float nx = uy * vz - uz * vy;
+                float ny = uz * vx - ux * vz;
+                float nz = ux * vy - uy * vx;
+                if (weighted != null) {
+                    weighted[t * 3] = nx;
+                    weighted[t * 3 + 1] = ny;
+                    weighted[t * 3 + 2] = nz;
+                }
+                if (triangleNormals) {
+                    float norm = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+                    if (norm > 1e-8) {
+                        nx /= norm;
+                        ny /= norm;
+                        nz /= norm;
+                    } else {
+                        invalidInChunk++;
+                    }
+                    facetNormals[t * 3] = nx;
+                    facetNormals[t * 3 + 1] = ny;
+                    facetNormals[t * 3 + 2] = nz;
+                }
+            }
+            invalid.addAndGet(invalidInChunk);
+        });
+        if (invalid.get() > 0) {
+            Logger.getInstance().error("Invalid triangle - cannot compute " +
+                    "normal (" + invalid.get() + " triangles).");
+        }
+
+        if (vertexNormals) {
+            gatherVertexNormals(numberOfVertices, mesh.getConnectivity(), weighted,
+                    mesh.getNormals());
+        }
+    }
+
+    /**
+     * Sum up the weighted facet normals at the vertices and normalize. Uses the
+     * vertex-to-triangle index of the mesh connectivity, so each vertex is
+     * written by exactly one thread.
+     */
+    private static void gatherVertexNormals(int numberOfVertices, MeshConnectivity connectivity,
+                                            float[] weighted, float[] normals) {
+        int[] offsets = connectivity.getTriangleOffsets();
+        int[] incidentTriangles = connectivity.getIncidentTriangles();
+
+        Parallel.forRange(numberOfVertices, (from, to) -> {
+            for (int v = from; v < to; v++) {
+                float nx = 0, ny = 0, nz = 0;
+                for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+                    int t = incidentTriangles[i] * 3;
+                    nx += weighted[t];
+                    ny += weighted[t + 1];
+                    nz += weighted[t + 2];
+                }
+                float norm = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+                if (norm > 1e-8) {
+                    nx /= norm;
+                    ny /= norm;
+                    nz /= norm;
+                }
+                normals[v * 3] = nx;
+                normals[v * 3 + 1] = ny;
+                normals[v * 3 + 2] = nz;
+            }
+        });
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Diese Datei ist Teil des Vorgabeframeworks für die Veranstaltung "Mixed Reality"
+ * <p>
+ * Prof. Dr. Philipp Jenke, Hochschule für Angewandte Wissenschaften Hamburg.
+ */
+
+package mixedreality.base.mesh;
+
+/**
+ * Finds vertices of a triangle mesh which lie within an epsilon of each other
+ * using a uniform grid with cell size epsilon, hashed into buckets on the
+ * integer cell coordinates. Each vertex is merged into the vertex with the
+ * smallest index within epsilon in the 27 surrounding cells (transitively), so
+ * the result does not depend on the number of threads.
+ */
+final class MeshWelding {
+
+    private MeshWelding() {
+    }
+
+    /**
+     * Merge all vertices within epsilon, epsilon 0 merges vertices with equal
+     * positions. Returns the number of removed vertices.
+     */
+    static int weld(TriangleMesh mesh, float epsilon) {
+        int numberOfVertices = mesh.getNumberOfVertices();
+        float[] positions = mesh.getPositions();
+        boolean exact = epsilon <= 0;
+        float scale = exact ? 0 : 1.0f / epsilon;
+        float epsilonSquared = epsilon * epsilon;
+        int mask = Integer.highestOneBit(Math.max(numberOfVertices, 1)) * 2 - 1;
+
+        // Integer cell coordinates and bucket of each vertex
+        int[] cells = new int[numberOfVertices * 3];
+        int[] bucketOf = new int[numberOfVertices];
+        Parallel.forRange(numberOfVertices, (from, to) -> {
+            for (int v = from; v < to; v++) {
+                for (int k = 0; k < 3; k++) {
+                    float p = positions[v * 3 + k];
+                    // + 0.0f maps -0 to 0
+                    cells[v * 3 + k] = exact ? Float.floatToIntBits(p + 0.0f) : (int) Math.floor(p * scale);
+                }
+                bucketOf[v] = hash(cells[v * 3], cells[v * 3 + 1], cells[v * 3 + 2]) & mask;
+            }
+        });
+
+        // Counting sort of the vertices into the buckets, ascending vertex
+        // indices within each bucket
+        int[] bucketStart = new int[mask + 2];
+        for (int v = 0; v < numberOfVertices; v++) {
+            bucketStart[bucketOf[v] + 1]++;
+        }
+        for (int b = 0; b <= mask; b++) {
+            bucketStart[b + 1] += bucketStart[b];
+        }
+        int[] fill = new int[mask + 1];
+        int[] bucketVertices = new int[numberOfVertices];
+        for (int v = 0; v < numberOfVertices; v++) {
+            int b = bucketOf[v];
+            bucketVertices[bucketStart[b] + fill[b]++] = v;
+        }
+
+        // For each vertex: the smallest vertex index within epsilon, processed
+        // in parallel over the buckets
+        int[] target = new int[numberOfVertices];
+        int range = exact ? 0 : 1;
+        Parallel.forRange(mask + 1, (from, to) -> {
+            for (int b = from; b < to; b++) {
+                for (int i = bucketStart[b]; i < bucketStart[b + 1]; i++) {
+                    int v = bucketVertices[i];
+                    int best = v;
+                    for (int dx = -range; dx <= range; dx++) {
+                        for (int dy = -range; dy <= range; dy++) {
+                            for (int dz = -range; dz <= range; dz++) {
+                                int nb = hash(cells[v * 3] + dx, cells[v * 3 + 1] + dy,
+                                        cells[v * 3 + 2] + dz) & mask;
+                                for (int j = bucketStart[nb]; j < bucketStart[nb + 1]; j++) {
+                                    int w = bucketVertices[j];
+                                    if (w >= best) {
+                                        break;
+                                    }
+                                    if (exact ? sameCell(cells, v, w)
+                                            : distanceSquared(positions, v, w) <= epsilonSquared) {
+                                        best = w;
+                                    }
+                                }
+                            }
+                        }
+                    }
+                    target[v] = best;
+                }
+            }
+        });
+
+        // Resolve chains: target[v] <= v, so ascending order sees final targets
+        for (int v = 0; v < numberOfVertices; v++) {
+            target[v] = target[target[v]];
+        }
+        return mesh.mergeVertices(target);
+    }
+
+    private static int hash(int x, int y, int z) {
+        int hash = x * 73856093 ^ y * 19349663 ^ z * 83492791;
+        hash = (hash ^ (hash >>> 16)) * 0x45d9f3b;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean sameCell(int[] cells, int v, int w) {
+        return cells[v * 3] == cells[w * 3] && cells[v * 3 + 1] == cells[w * 3 + 1]
+                && cells[v * 3 + 2] == cells[w * 3 + 2];
+    }
+
+    private static float distanceSquared(float[] positions, int v, int w) {
+        float dx = positions[v * 3] - positions[w * 3];
+        float dy = positions[v * 3 + 1] - positions[w * 3 + 1];
+        float dz = positions[v * 3 + 2] - positions[w * 3 + 2];
+        return dx * dx + dy * dy + dz * dz;
+    }
+}
@@ -0,0 +1,270 @@
+/**
+ * Diese Datei ist Teil des Vorgabeframeworks für die Veranstaltung "Mixed Reality"
+ * <p>
+ * Prof. Dr. Philipp Jenke, Hochschule für Angewandte Wissenschaften Hamburg.
+ */
+
+package mixedreality.base.mesh;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Content of a part of an OBJ file (complete lines), parsed independently of
+ * the other parts. Vertex and texture coordinate indices of the facets are
+ * global (0-based); relative (negative) indices only know the number of
+ * vertices before them in this chunk and are marked, they are resolved by the
+ * reader once the number of vertices in the previous chunks is known. Object
+ * and material statements are kept in order together with the number of
+ * vertices, texture coordinates and triangles before them.
+ */
+final class ObjChunk {
+
+  /**
+   * Index of a missing corner (e.g. "f 1/2 /3 ...").
+   */
+  static final int MISSING = Integer.MIN_VALUE;
+
+  /**
+   * Flags of a triangle: corner i has a relative vertex index (bit i) or
+   * texture coordinate index (bit 3 + i).
+   */
+  static final int RELATIVE_VERTEX = 1;
+  static final int RELATIVE_TEXTURE_COORDINATE = 1 << 3;
+
+  private static final String OP_MAT_LIB = "mtllib";
+  private static final String OP_VERTEX = "v";
+  private static final String OP_FACET = "f";
+  private static final String OP_TEXTURE_COORDINATE = "vt";
+  private static final String OP_NEW_OBJECT = "o";
+  private static final String OP_USE_MTL = "usemtl";
+
+  /**
+   * Statement which changes the state of the reader.
+   */
+  enum StatementType {
+    MAT_LIB, NEW_OBJECT, USE_MTL
+  }
+
+  /**
+   * Object or material statement at its position in the chunk.
+   */
+  static final class Statement {
+    final StatementType type;
+    final String name;
+    final int vertices;
+    final int textureCoordinates;
+    final int triangles;
+
+    Statement(StatementType type, String name, int vertices,
+              int textureCoordinates, int triangles) {
+      this.type = type;
+      this.name = name;
+      this.vertices = vertices;
+      this.textureCoordinates = textureCoordinates;
+      this.triangles = triangles;
+    }
+  }
+
+  // Vertex positions (x, y, z)
+  float[] positions = new float[3 * 1024];
+  int numberOfVertices = 0;
+
+  // Texture coordinates (u, v), already wrapped
+  float[] textureCoordinates = new float[0];
+  int numberOfTextureCoordinates = 0;
+
+  // Vertex and texture coordinate indices (a, b, c, tA, tB, tC) and flags
+  int[] corners = new int[6 * 1024];
+  byte[] relative = new byte[1024];
+  int numberOfTriangles = 0;
+
+  final List<Statement> statements = new ArrayList<>();
+
+  // Parser state: indices of the facet corners and whether they are relative
+  // (vertex indices at 0-3, texture coordinate indices at 4-7)
+  private final ObjTokenizer tokenizer = new ObjTokenizer();
+  private final int[] cornerVertices = new int[4];
+  private final int[] cornerTexCoords = new int[4];
+  private final boolean[] cornerRelative = new boolean[8];
+
+  /**
+   * Parse all lines (separated by \n, \r or \r\n) in buffer[from, to),
+   * returns the number of lines.
+   */
+  int parse(ByteBuffer buffer, int from, int to) {
+    int lines = 0;
+    int lineStart = from;
+    for (int i = from; i < to; i++) {
+      if (buffer.get(i) == '\n' || buffer.get(i) == '\r') {
+        parseLine(buffer, lineStart, i);
+        lineStart = i + 1;
+        if (buffer.get(i) == '\n' || i + 1 == to || buffer.get(i + 1) != '\n') {
+          lines++;
+        }
+      }
+    }
+    if (lineStart < to) {
+      parseLine(buffer, lineStart, to);
+      lines++;
+    }
+    return lines;
+  }
+
+  private void parseLine(ByteBuffer buffer, int from, int to) {
+    tokenizer.reset(buffer, from, to);
+    if (!tokenizer.nextToken()) {
+      return;
+    }
+    if (tokenizer.tokenEquals(OP_VERTEX)) {
+      if (tokenizer.countRemainingTokens() >= 3) {
+        if (3 * numberOfVertices + 3 > positions.length) {
+          positions = Arrays.copyOf(positions, positions.length * 2);
+        }
+        for (int i = 0; i < 3; i++) {
+          tokenizer.nextToken();
+          positions[3 * numberOfVertices + i] = tokenizer.parseFloat();
+        }
+        numberOfVertices++;
+      }
+    } else if (tokenizer.tokenEquals(OP_FACET)) {
+      try {
+        parseFacet();
+      } catch (Exception e) {
+        System.out.println("Failed to parseFile facet.");
+      }
+    } else if (tokenizer.tokenEquals(OP_TEXTURE_COORDINATE)) {
+      if (tokenizer.countRemainingTokens() >= 2) {
+        if (2 * numberOfTextureCoordinates + 2 > textureCoordinates.length) {
+          textureCoordinates = Arrays.copyOf(textureCoordinates,
+                  Math.max(2 * 1024, textureCoordinates.length * 2));
+        }
+        for (int i = 0; i < 2; i++) {
+          tokenizer.nextToken();
+          textureCoordinates[2 * numberOfTextureCoordinates + i] =
+                  wrapTextureCoordinate(tokenizer.parseFloat());
+        }
+        numberOfTextureCoordinates++;
+      }
+    } else if (tokenizer.tokenEquals(OP_MAT_LIB)) {
+      if (tokenizer.countRemainingTokens() == 1) {
+        tokenizer.nextToken();
+        addStatement(StatementType.MAT_LIB, tokenizer.tokenAsString());
+      }
+    } else if (tokenizer.tokenEquals(OP_NEW_OBJECT)) {
+      addStatement(StatementType.NEW_OBJECT, null);
+    } else if (tokenizer.tokenEquals(OP_USE_MTL)) {
+      addStatement(StatementType.USE_MTL,
+              tokenizer.nextToken() ? tokenizer.tokenAsString() : null);
+    }
+  }
+
+  private void addStatement(StatementType type, String name) {
+    statements.add(new Statement(type, name, numberOfVertices,
+            numberOfTextureCoordinates, numberOfTriangles));
+  }
+
+  /**
+   * Wrap texture coordinates larger than 1 into (0, 1].
+   */
+  private static float wrapTextureCoordinate(float t) {
+    if (t > 1 && !Float.isInfinite(t)) {
+      return t - (float) Math.ceil(t - 1);
+    }
+    return t;
+  }
+
+  /**
+   * Lesen einer Zeile, die ein Dreieck oder Viereck repräsentiert (Indices der
+   * Eckpunkte, Indices der Texturkoordinaten).
+   */
+  private void parseFacet() {
+    int numberOfCorners = tokenizer.countRemainingTokens();
+    if (numberOfCorners != 3 && numberOfCorners != 4) {
+      return;
+    }
+    for (int i = 0; i < numberOfCorners; i++) {
+      tokenizer.nextToken();
+      parseCorner(i);
+      if (i == 2) {
+        addTriangle(0, 1, 2);
+      } else if (i == 3) {
+        addTriangle(0, 2, 3);
+      }
+    }
+  }
+
+  /**
+   * Parse a corner token (v, v/vt, v//vn or v/vt/vn) into the corner arrays.
+   */
+  private void parseCorner(int corner) {
+    ByteBuffer buffer = tokenizer.getBuffer();
+    int end = tokenizer.getTokenEnd();
+    int start = tokenizer.getTokenStart();
+    int slash = start;
+    while (slash < end && buffer.get(slash) != '/') {
+      slash++;
+    }
+    cornerVertices[corner] = MISSING;
+    cornerRelative[corner] = false;
+    if (slash > start) {
+      int index = tokenizer.parseInt(start, slash);
+      if (index < 0) {
+        cornerRelative[corner] = true;
+        cornerVertices[corner] = numberOfVertices + index;
+      } else {
+        cornerVertices[corner] = index - 1;
+      }
+    }
+    cornerTexCoords[corner] = MISSING;
+    cornerRelative[4 + corner] = false;
+    if (slash < end) {
+      start = slash + 1;
+      slash = start;
+      while (slash < end && buffer.get(slash) != '/') {
+        slash++;
+      }
+      if (slash > start) {
+        int index = tokenizer.parseInt(start, slash);
+        if (index < 0) {
+          cornerRelative[4 + corner] = true;
+          cornerTexCoords[corner] = numberOfTextureCoordinates + index;
+        } else {
+          cornerTexCoords[corner] = index - 1;
+        }
+      }
+    }
+  }
+
+  private void addTriangle(int a, int b, int c) {
+    if (numberOfTriangles == relative.length) {
+      relative = Arrays.copyOf(relative, relative.length * 2);
+      corners = Arrays.copyOf(corners, corners.length * 2);
+    }
+    int i6 = numberOfTriangles * 6;
+    corners[i6] = cornerVertices[a];
+    corners[i6 + 1] = cornerVertices[b];
+    corners[i6 + 2] = cornerVertices[c];
+    corners[i6 + 3] = cornerTexCoords[a];
+    corners[i6 + 4] = cornerTexCoords[b];
+    corners[i6 + 5] = cornerTexCoords[c];
+    relative[numberOfTriangles] = (byte) (flags(a, 0) | flags(b, 1) | flags(c, 2));
+    numberOfTriangles++;
+  }
+
+  /**
+   * Flags of the given facet corner, moved to the given triangle corner.
+   */
+  private int flags(int corner, int triangleCorner) {
+    int flags = 0;
+    if (cornerRelative[corner]) {
+      flags |= RELATIVE_VERTEX << triangleCorner;
+    }
+    if (cornerRelative[4 + corner]) {
+      flags |= RELATIVE_TEXTURE_COORDINATE << triangleCorner;
+    }
+    return flags;
+  }
+}
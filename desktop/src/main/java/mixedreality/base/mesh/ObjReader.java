@@ -7,30 +7,46 @@
 package mixedreality.base.mesh;
 
 import com.jme3.math.ColorRGBA;
-import com.jme3.math.Vector2f;
 import com.jme3.math.Vector3f;
 import misc.Logger;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Read OBJ file and fill triangle mesh with the content.
  */
 public class ObjReader {
 
-  private static final String OP_MAT_LIB = "mtllib";
-  private static final String OP_VERTEX = "v";
-  private static final String OP_FACET = "f";
-  private static final String OP_TEXTURE_COORDINATE = "vt";
   private static final String OP_MAT_NEW_MAT = "newmtl";
   private static final String OP_MAT_KD = "Kd";
   private static final String OP_MAT_TEXTURE = "map_Kd";
-  private static final String OP_NEW_OBJECT = "o";
-  private static final String OP_USE_MTL = "usemtl";
   private static final ColorRGBA DEFAULT_COLOR = new ColorRGBA(0.5f, 0.5f,
           0.5f, 1);
 
+  /**
+   * Size range of the chunks which are parsed in parallel.
+   */
+  private static final long MIN_CHUNK_SIZE = 1 << 20;
+  private static final long MAX_CHUNK_SIZE = 1 << 28;
+
+  /**
+   * Progress is reported (and cancellation checked) after blocks of this size.
+   */
+  private static final int PROGRESS_BLOCK_SIZE = 1 << 20;
+
   // Subdirectory used to look for the material file (extracted from mesh file).
   private String directory = "";
 
@@ -42,6 +58,13 @@ public class ObjReader {
   private int vertexIndexOffset = 0;
   private int texCoordOffset = 0;
 
+  // Material libraries used by the last mesh (read from the OBJ file or the
+  // sidecar file)
+  private final List<String> materialLibraries = new ArrayList<>();
+
+  // Parser state of the material file
+  private final ObjTokenizer materialTokenizer = new ObjTokenizer();
+
   /**
    * Lesen eines Dreiecksnetzes aus einer OBJ-Datei. Die Information wird in das
    * Dreiecksnetz 'mesh' geschrieben.
@@ -49,8 +72,120 @@ public class ObjReader {
    * Returns true if the mesh is successfully read.
    */
   public TriangleMesh read(final String filename) {
+    try {
+      return MeshCache.getInstance().getMesh(getFile(filename),
+              () -> read(filename, new Progress(null, null)), this::getMaterialLibraryFiles);
+    } catch (Exception e) {
+      Logger.getInstance().msg("Error reading from the OBJ file.");
+      return null;
+    }
+  }
+
+  /**
+   * Read the OBJ file in the background. The listener (may be null) is
+   * notified about the progress from the loading threads. Cancelling the
+   * future stops the loading process.
+   */
+  public CompletableFuture<TriangleMesh> readAsync(final String filename,
+                                                   ProgressListener listener) {
+    CompletableFuture<TriangleMesh> future = new CompletableFuture<>();
+    // Separate reader, so this one is not blocked by the import state
+    ObjReader reader = new ObjReader();
+    CompletableFuture.runAsync(() -> {
+      try {
+        future.complete(MeshCache.getInstance().getMesh(getFile(filename),
+                () -> reader.read(filename, new Progress(listener, future)),
+                reader::getMaterialLibraryFiles));
+      } catch (Throwable e) {
+        future.completeExceptionally(e);
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Read the OBJ file in the background without progress information.
+   */
+  public CompletableFuture<TriangleMesh> readAsync(final String filename) {
+    return readAsync(filename, null);
+  }
+
+  /**
+   * Parse the OBJ file and write its binary sidecar file, which read() uses
+   * instead of the OBJ file while the sidecar is newer than the OBJ file and
+   * its material libraries. Only the mesh is stored, no JMonkey buffers (see
+   * BinaryMeshFile.createMesh()).
+   */
+  public void writeSidecar(final String filename) throws IOException {
+    TriangleMesh mesh = parse(filename, new Progress(null, null));
+    BinaryMeshFile.write(mesh, getFile(getSidecarFilename(filename)), null,
+            materialLibraries);
+  }
+
+  /**
+   * Name of the binary sidecar file (extension .bin instead of .obj).
+   */
+  public static String getSidecarFilename(String filename) {
+    String base = filename.toLowerCase().endsWith(".obj")
+            ? filename.substring(0, filename.length() - 4) : filename;
+    return base + ".bin";
+  }
+
+  /**
+   * Material library files used by the last mesh.
+   */
+  private List<File> getMaterialLibraryFiles() {
+    List<File> files = new ArrayList<>();
+    for (String materialLibrary : materialLibraries) {
+      files.add(getFile(materialLibrary));
+    }
+    return files;
+  }
+
+  /**
+   * Read the mesh from an up-to-date binary sidecar file if there is one,
+   * otherwise from the OBJ file.
+   */
+  private TriangleMesh read(String filename, Progress progress) throws IOException {
+    File sidecar = getFile(getSidecarFilename(filename));
+    if (sidecar.isFile() && sidecar.lastModified() >= getFile(filename).lastModified()) {
+      TriangleMesh mesh = readSidecar(sidecar, progress);
+      if (mesh != null) {
+        return mesh;
+      }
+    }
+    return parse(filename, progress);
+  }
+
+  /**
+   * Read the mesh from the sidecar file, returns null if a material library
+   * has been modified after the sidecar was written or the file is invalid.
+   */
+  private TriangleMesh readSidecar(File sidecar, Progress progress) {
+    try {
+      List<String> libraries = BinaryMeshFile.getMaterialLibraries(sidecar);
+      for (String library : libraries) {
+        if (getFile(library).lastModified() > sidecar.lastModified()) {
+          return null;
+        }
+      }
+      TriangleMesh mesh = BinaryMeshFile.read(sidecar);
+      materialLibraries.clear();
+      materialLibraries.addAll(libraries);
+      progress.totalBytes = sidecar.length();
+      progress.add(sidecar.length(), 0);
+      return mesh;
+    } catch (IOException e) {
+      Logger.getInstance().msg("Ignoring binary mesh file " + sidecar + ": "
+              + e.getMessage());
+      return null;
+    }
+  }
+
+  private TriangleMesh parse(String filename, Progress progress) throws IOException {
     // Setup
     meshes.clear();
+    materialLibraries.clear();
     directory = new File(filename).getParent() + "/";
     currentMesh = new TriangleMesh();
     meshes.add(currentMesh);
@@ -59,24 +194,20 @@ public class ObjReader {
     texCoordOffset = 0;
     //textureCoordinates.clear();
 
-    // Read input
+    // Read input: parse the chunks in parallel, then build the meshes in
+    // file order
     //System.out.println("Trying to read OBJ file " + filename);
-    InputStream inputStream = getInputStream(filename);
-    try {
-      String strLine = "";
-      DataInputStream in = new DataInputStream(inputStream);
-      BufferedReader br = new BufferedReader(new InputStreamReader(in));
-      while ((strLine = br.readLine()) != null) {
-        parseLine(strLine);
-      }
-      in.close();
-    } catch (Exception e) {
-      Logger.getInstance().msg("Error reading from the OBJ file.");
-      return null;
+    ObjChunk[] chunks = parseChunks(filename, progress);
+    for (int i = 0, vertexBase = 0, texCoordBase = 0; i < chunks.length; i++) {
+      progress.checkCancelled();
+      addChunk(chunks[i], vertexBase, texCoordBase);
+      vertexBase += chunks[i].numberOfVertices;
+      texCoordBase += chunks[i].numberOfTextureCoordinates;
     }
 
     // Post-process meshes
     for (Iterator<TriangleMesh> it = meshes.iterator(); it.hasNext(); ) {
+      progress.checkCancelled();
       TriangleMesh mesh = it.next();
       if (mesh.getNumberOfTriangles() == 0) {
         it.remove();
@@ -84,18 +215,26 @@ public class ObjReader {
       }
 
       // Remove degenerated triangles
-      for (int i = 0; i < mesh.getNumberOfTriangles(); i++) {
-        Triangle t = mesh.getTriangle(i);
-        Vector3f a = mesh.getVertex(t.getVertexIndex(0)).position;
-        Vector3f b = mesh.getVertex(t.getVertexIndex(1)).position;
-        Vector3f c = mesh.getVertex(t.getVertexIndex(2)).position;
-        if (t.isDegenerated() || Triangle.getArea(a, b, c) < 1e-5) {
-          mesh.removeTriangle(i);
-          i--;
+      Vector3f a = new Vector3f();
+      Vector3f b = new Vector3f();
+      Vector3f c = new Vector3f();
+      int[] vertexIndices = mesh.getVertexIndices();
+      mesh.removeTriangles(i -> {
+        int ia = vertexIndices[i * 3];
+        int ib = vertexIndices[i * 3 + 1];
+        int ic = vertexIndices[i * 3 + 2];
+        if (ia == ib || ib == ic || ic == ia) {
+          return true;
         }
-      }
-
-      mesh.computeTriangleNormals();
+        mesh.getVertexPosition(ia, a);
+        mesh.getVertexPosition(ib, b);
+        mesh.getVertexPosition(ic, c);
+        return Triangle.getArea(a, b, c) < 1e-5;
+      });
+      // Meshes created for materials share all vertices so far
+      mesh.removeUnreferencedVertices();
+
+      mesh.computeNormals();
       Logger.getInstance().debug("Successfully created triangle mesh with "
               + mesh.getNumberOfVertices() + " vertices and "
               + mesh.getNumberOfTriangles() + " triangles.");
@@ -109,11 +248,19 @@ public class ObjReader {
   }
 
 
+  /**
+   * File in the resources directory, absolute paths are used as they are.
+   */
+  private static File getFile(String filename) {
+    File file = new File(filename);
+    return file.isAbsolute() ? file : new File("src/main/resources/" + filename);
+  }
+
   /**
    * Get in input stream from a file.
    */
   private InputStream getInputStream(String filename) {
-    File initialFile = new File("src/main/resources/" + filename);
+    File initialFile = getFile(filename);
     try {
       InputStream stream = new FileInputStream(initialFile);
       if (stream == null) {
@@ -128,258 +275,337 @@ public class ObjReader {
   }
 
   /**
-   * Einlesen einer Zeile aus der OBJ-Datei.
+   * Map the file into memory, split it at line boundaries into chunks and
+   * parse the chunks in parallel.
    */
-  private void parseLine(String strLine) {
-    String line = trim(strLine);
-    String operator = getOperator(line);
-    if (operator.equals(OP_MAT_LIB)) {
-      // Lesen der Materialdatei (Texturname)
-      parseUseMaterial(line);
+  private static ObjChunk[] parseChunks(String filename, Progress progress)
+          throws IOException {
+    Path path = getFile(filename).toPath();
+    if (!Files.isRegularFile(path)) {
+      Logger.getInstance().error("Failed to read mesh file " + filename);
+      throw new FileNotFoundException(filename);
     }
-    if (operator.equals(OP_NEW_OBJECT)) {
-      // Neues (Teil-)Objekt
-      vertexIndexOffset += currentMesh.getNumberOfVertices();
-      texCoordOffset += currentMesh.getNumberOfTextureCoordinates();
-      currentMesh = new TriangleMesh();
-
-      meshes.add(currentMesh);
-    } else if (operator.equals(OP_USE_MTL)) {
-      String[] components = line.split("\\s+");
-      currentMaterial = null;
-      if (components.length > 1) {
-        String materalId = components[1];
-        // System.out.println("Assigned material: " + materalId);
-        ObjMaterial mat = materials.get(materalId);
-        if (mat != null) {
-
-          // Testing: add new mesh for each material
-          // copy vertices and texture coordinates
-          currentMesh = new TriangleMesh((TriangleMesh) currentMesh);
-          currentMesh.clearTriangles();
-          meshes.add(currentMesh);
-
-          currentMaterial = mat;
-          currentMesh.setTextureName(null);
-          if (mat.getTextureFilename() != null
-                  && mat.getTextureFilename().length() > 0) {
-            currentMesh.setTextureName(mat.getTextureFilename());
-          }
-        }
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      progress.totalBytes = size;
+      int parallelism = ForkJoinPool.getCommonPoolParallelism();
+      long chunkSize = Math.min(MAX_CHUNK_SIZE,
+              Math.max(MIN_CHUNK_SIZE, size / (parallelism * 4L)));
+      List<Long> bounds = new ArrayList<>();
+      bounds.add(0L);
+      for (long start = 0; start < size; ) {
+        start = nextLineStart(channel, start + chunkSize - 1, size);
+        bounds.add(start);
       }
-    } else if (operator.equals(OP_VERTEX)) {
-      // Lesen eines Vertex
-      Vector3f position = parseVertex(line);
-      if (position != null) {
-        currentMesh.addVertex(position);
+      if (bounds.size() == 1) {
+        bounds.add(size);
       }
-    } else if (operator.equals(OP_FACET)) {
-      try {
-        // Lesen einer Facette (Dreieck)
-        parseFacet(line);
-      } catch (Exception e) {
-        System.out.println("Failed to parseFile facet.");
+      int numberOfChunks = bounds.size() - 1;
+      ObjChunk[] chunks = new ObjChunk[numberOfChunks];
+      Parallel.forChunks(numberOfChunks, numberOfChunks, (chunk, from, to) ->
+              chunks[chunk] = parseChunk(channel, bounds.get(chunk), bounds.get(chunk + 1),
+                      progress));
+      return chunks;
+    }
+  }
+
+  /**
+   * Position after the first line break at or after the given position (or
+   * the file size).
+   */
+  private static long nextLineStart(FileChannel channel, long position, long size)
+          throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(1 << 12);
+    while (position < size) {
+      buffer.clear();
+      int read = channel.read(buffer, position);
+      if (read < 0) {
+        break;
       }
-    } else if (operator.equals(OP_TEXTURE_COORDINATE)) {
-      // Lesen einer Texturkoordinate
-      Vector2f t = parseTextureCoordinate(line);
-      if (t != null) {
-        currentMesh.addTextureCoordinate(t);
-        //textureCoordinates.add(t);
+      for (int i = 0; i < read; i++) {
+        if (buffer.get(i) == '\n' || buffer.get(i) == '\r') {
+          return position + i + 1;
+        }
       }
+      position += read;
     }
+    return size;
   }
 
   /**
-   * Einlesen einer Materialdatei mit Texturinformtion. Liefert den Namen der
-   * Texturdatei. Liefert null, falls keine Textur gefunden wurde.
+   * Parse the lines in the file region [start, end) directly from the mapped
+   * region, the progress is reported in blocks of about PROGRESS_BLOCK_SIZE
+   * bytes.
    */
-  private void parseUseMaterial(String line) {
-    String[] components = line.split("\\s+");
-    if (components.length == 2) {
-      String materialFilename = components[1];
-      parseMaterialFile(directory + materialFilename);
+  private static ObjChunk parseChunk(FileChannel channel, long start, long end,
+                                     Progress progress) {
+    ObjChunk chunk = new ObjChunk();
+    if (end > start) {
+      MappedByteBuffer mapped;
+      try {
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      int length = mapped.limit();
+      for (int from = 0; from < length; ) {
+        progress.checkCancelled();
+        int to = Math.min(length, from + PROGRESS_BLOCK_SIZE);
+        while (to < length && mapped.get(to - 1) != '\n' && mapped.get(to - 1) != '\r') {
+          to++;
+        }
+        int lines = chunk.parse(mapped, from, to);
+        progress.add(to - from, lines);
+        from = to;
+      }
     }
+    return chunk;
   }
 
-  private void parseMaterialFile(String materialFilename) {
-    currentMaterial = null;
-    //System.out.println("Trying to read material file " + materialFilename);
-    InputStream is = getInputStream(materialFilename);
-    try {
-      String strLine = "";
-      DataInputStream in = new DataInputStream(is);
-      BufferedReader br = new BufferedReader(new InputStreamReader(in));
-      while ((strLine = br.readLine()) != null) {
-        parseMaterialLine(strLine);
+  /**
+   * Add the content of a chunk to the meshes, the vertices and texture
+   * coordinates of the previous chunks are used to resolve relative indices.
+   */
+  private void addChunk(ObjChunk chunk, int vertexBase, int texCoordBase) {
+    int vertices = 0;
+    int textureCoordinates = 0;
+    int triangles = 0;
+    for (ObjChunk.Statement statement : chunk.statements) {
+      addChunkRange(chunk, vertexBase, texCoordBase, vertices, statement.vertices,
+              textureCoordinates, statement.textureCoordinates,
+              triangles, statement.triangles);
+      vertices = statement.vertices;
+      textureCoordinates = statement.textureCoordinates;
+      triangles = statement.triangles;
+      switch (statement.type) {
+        case MAT_LIB:
+          // Lesen der Materialdatei (Texturname)
+          parseMaterialFile(directory + statement.name);
+          break;
+        case NEW_OBJECT:
+          // Neues (Teil-)Objekt
+          vertexIndexOffset += currentMesh.getNumberOfVertices();
+          texCoordOffset += currentMesh.getNumberOfTextureCoordinates();
+          currentMesh = new TriangleMesh();
+          meshes.add(currentMesh);
+          break;
+        case USE_MTL:
+          useMaterial(statement.name);
+          break;
       }
-      in.close();
-    } catch (Exception e) {
-      System.out.println(
-              "Error reading from the material file " + materialFilename + ".");
-      return;
     }
-
-    // System.out.println("Materials:");
-    // for (Material mat : materials.values()) {
-    // System.out.println(" - " + mat);
-    // }
+    addChunkRange(chunk, vertexBase, texCoordBase, vertices, chunk.numberOfVertices,
+            textureCoordinates, chunk.numberOfTextureCoordinates,
+            triangles, chunk.numberOfTriangles);
   }
 
-  private void parseMaterialLine(String strLine) {
-    String line = trim(strLine);
-    String operator = getOperator(line);
-    if (operator.equals(OP_MAT_NEW_MAT)) {
-      String[] components = strLine.split("\\s+");
-      if (components.length >= 2) {
-        String materialId = components[1];
-        currentMaterial = new ObjMaterial(materialId);
-        materials.put(materialId, currentMaterial);
-        // System.out.println("Found material " + materialId);
-      }
-    } else if (operator.equals(OP_MAT_KD)) {
-      String[] components = strLine.split("\\s+");
-      if (components.length >= 4) {
-        ColorRGBA color = new ColorRGBA(Float.parseFloat(components[1]),
-                Float.parseFloat(components[2]), Float.parseFloat(components[3]),
-                1);
-        currentMaterial.setColor(color);
-      }
-    } else if (operator.equals(OP_MAT_TEXTURE)) {
-      String[] components = strLine.split("\\s+");
-      if (components.length >= 2) {
-        String textureFilename = components[1];
-        if (textureFilename != null) {
-          textureFilename = textureFilename.trim();
-          if (textureFilename.length() != 0) {
-
-            currentMaterial.setTextureFilename(textureFilename);
-          }
-        }
+  private void useMaterial(String name) {
+    currentMaterial = null;
+    ObjMaterial mat = name != null ? materials.get(name) : null;
+    if (mat != null) {
+      // Testing: add new mesh for each material
+      // sharing the vertices and texture coordinates (copy-on-write)
+      currentMesh = new TriangleMesh(currentMesh);
+      currentMesh.clearTriangles();
+      meshes.add(currentMesh);
+
+      currentMaterial = mat;
+      currentMesh.setTextureName(null);
+      if (mat.getTextureFilename() != null
+              && mat.getTextureFilename().length() > 0) {
+        currentMesh.setTextureName(mat.getTextureFilename());
       }
     }
   }
 
   /**
-   * Entfernen doppelter Leerzeichen aus einer Zeile.
+   * Add the vertices, texture coordinates and triangles in the given ranges
+   * of the chunk to the current mesh.
    */
-  private static String trim(String strLine) {
-    String line = strLine.trim();
-    line = line.replaceAll("  ", " ");
-    int l = line.length();
-    while (l < line.length()) {
-      l = line.length();
-      line = line.replaceAll("  ", " ");
+  private void addChunkRange(ObjChunk chunk, int vertexBase, int texCoordBase,
+                             int vertexFrom, int vertexTo,
+                             int texCoordFrom, int texCoordTo,
+                             int triangleFrom, int triangleTo) {
+    currentMesh.addVertices(chunk.positions, vertexFrom, vertexTo - vertexFrom);
+    currentMesh.addTextureCoordinates(chunk.textureCoordinates, texCoordFrom,
+            texCoordTo - texCoordFrom);
+    ColorRGBA color = currentMaterial != null ? currentMaterial.getColor() : DEFAULT_COLOR;
+    int[] corners = chunk.corners;
+    for (int i = triangleFrom; i < triangleTo; i++) {
+      int relative = chunk.relative[i];
+      int i6 = i * 6;
+      currentMesh.addTriangle(
+              resolveIndex(corners[i6], relative, ObjChunk.RELATIVE_VERTEX,
+                      vertexBase, vertexIndexOffset),
+              resolveIndex(corners[i6 + 1], relative, ObjChunk.RELATIVE_VERTEX << 1,
+                      vertexBase, vertexIndexOffset),
+              resolveIndex(corners[i6 + 2], relative, ObjChunk.RELATIVE_VERTEX << 2,
+                      vertexBase, vertexIndexOffset),
+              resolveIndex(corners[i6 + 3], relative, ObjChunk.RELATIVE_TEXTURE_COORDINATE,
+                      texCoordBase, texCoordOffset),
+              resolveIndex(corners[i6 + 4], relative, ObjChunk.RELATIVE_TEXTURE_COORDINATE << 1,
+                      texCoordBase, texCoordOffset),
+              resolveIndex(corners[i6 + 5], relative, ObjChunk.RELATIVE_TEXTURE_COORDINATE << 2,
+                      texCoordBase, texCoordOffset),
+              color);
     }
-    return line;
   }
 
   /**
-   * Auslesen einer Zeile, die eine Texturkoordinate beinhaltet.
+   * Index in the current mesh for an index of a chunk (-1 if missing).
    */
-  private Vector2f parseTextureCoordinate(String strLine) {
-    String line = trim(strLine);
-    String[] allCoords = line.split("\\s+");
-    float u = 0;
-    float v = 0;
-    if (allCoords.length >= 3) {
-      u = getFloatValue(allCoords[1]);
-      v = getFloatValue(allCoords[2]);
-      while (u > 1) {
-        u -= 1;
-      }
-      while (v > 1) {
-        v -= 1;
-      }
-      // Andrdoid?
-      //return new Vector(u, 1 - v, 0);
-      return new Vector2f(u, v);
+  private static int resolveIndex(int index, int relative, int flag, int base,
+                                  int offset) {
+    if (index == ObjChunk.MISSING) {
+      return -1;
     }
-
-    return null;
+    return ((relative & flag) != 0 ? base + index : index) - offset;
   }
 
   /**
-   * String -> float.
+   * Progress of an asynchronous import.
    */
-  private float getFloatValue(String string) {
-    if (string.length() == 0) {
-      return 0;
-    }
-    return Float.valueOf(string);
+  public interface ProgressListener {
+    /**
+     * Called with the number of bytes and lines parsed so far (from the
+     * loading threads).
+     */
+    void progress(long bytes, long totalBytes, long lines);
   }
 
   /**
-   * Lesen einer Zeile, die ein Dreieck repräsentiert (Indices der Eckpunkte,
-   * Indices der Texturkoordinaten).
+   * Progress and cancellation state of an import.
    */
-  private void parseFacet(String strLine) {
-    String[] allCoords = strLine.split("\\s+");
-    if (allCoords.length == 4) {
-      createTriangle(allCoords[1], allCoords[2], allCoords[3]);
-    } else if (allCoords.length == 5) {
-      createTriangle(allCoords[1], allCoords[2], allCoords[3]);
-      createTriangle(allCoords[1], allCoords[3], allCoords[4]);
+  private static class Progress {
+    private final ProgressListener listener;
+    private final Future<?> future;
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong lines = new AtomicLong();
+    private volatile long totalBytes = 0;
+
+    Progress(ProgressListener listener, Future<?> future) {
+      this.listener = listener;
+      this.future = future;
     }
-  }
 
-  private void createTriangle(String token1, String token2, String token3) {
-    Triangle t = new Triangle(getVertexIndexFromToken(token1),
-            getVertexIndexFromToken(token2), getVertexIndexFromToken(token3));
-    t.setTextureCoordinates(getTexCoordIndexFromToken(token1),
-            getTexCoordIndexFromToken(token2),
-            getTexCoordIndexFromToken(token3));
-    t.setColor(DEFAULT_COLOR);
-    if (currentMaterial != null) {
-      t.setColor(currentMaterial.getColor());
+    void add(long parsedBytes, long parsedLines) {
+      long bytesSoFar = bytes.addAndGet(parsedBytes);
+      long linesSoFar = lines.addAndGet(parsedLines);
+      if (listener != null) {
+        listener.progress(bytesSoFar, totalBytes, linesSoFar);
+      }
     }
-    currentMesh.addTriangle(t);
-  }
 
-  private int getVertexIndexFromToken(String token) {
-    String[] tokens = token.split("/");
-    if (tokens.length > 0 && tokens[0].length() > 0) {
-      return Integer.parseInt(tokens[0]) - 1 - vertexIndexOffset;
-    } else {
-      return -1;
+    /**
+     * Abort the import if the future has been cancelled.
+     */
+    void checkCancelled() {
+      if (future != null && future.isCancelled()) {
+        throw new CancellationException();
+      }
     }
   }
 
-  private int getTexCoordIndexFromToken(String token) {
-    String[] tokens = token.split("/");
-    if (tokens.length > 1 && tokens[1].length() > 0) {
-      return Integer.parseInt(tokens[1]) - 1 - texCoordOffset;
-    } else {
-      return -1;
+  /**
+   * Line handler for forEachLine(): the line is buffer[from, to).
+   */
+  private interface LineHandler {
+    void handle(byte[] buffer, int from, int to);
+  }
+
+  /**
+   * Read the stream in blocks and call the handler for each line (separated
+   * by \n, \r or \r\n), no strings are created.
+   */
+  private static void forEachLine(InputStream in, LineHandler handler) throws IOException {
+    byte[] buffer = new byte[1 << 16];
+    int length = 0;
+    int scanned = 0;
+    int read;
+    while ((read = in.read(buffer, length, buffer.length - length)) >= 0) {
+      length += read;
+      int lineStart = 0;
+      for (int i = scanned; i < length; i++) {
+        if (buffer[i] == '\n' || buffer[i] == '\r') {
+          handler.handle(buffer, lineStart, i);
+          lineStart = i + 1;
+        }
+      }
+      // Keep the incomplete last line
+      length -= lineStart;
+      System.arraycopy(buffer, lineStart, buffer, 0, length);
+      scanned = length;
+      if (length == buffer.length) {
+        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+      }
+    }
+    if (length > 0) {
+      handler.handle(buffer, 0, length);
     }
   }
 
   /**
-   * Lesen einer Zeile, die einen Vertex repräsentiert.
+   * Einlesen einer Materialdatei mit Texturinformtion.
    */
-  private Vector3f parseVertex(String strLine) {
-    String[] components = strLine.split("\\s+");
-    if (components.length >= 4) {
-      float x = Float.parseFloat(components[1]);
-      float y = Float.parseFloat(components[2]);
-      float z = Float.parseFloat(components[3]);
-      return new Vector3f(x, y, z);
+  private void parseMaterialFile(String materialFilename) {
+    materialLibraries.add(materialFilename);
+    currentMaterial = null;
+    List<ObjMaterial> library;
+    try {
+      library = MeshCache.getInstance().getMaterials(getFile(materialFilename),
+              () -> readMaterialFile(materialFilename));
+    } catch (IOException e) {
+      library = Collections.emptyList();
+    }
+    // The last material defined in the file stays the current one
+    for (ObjMaterial material : library) {
+      materials.put(material.getName(), material);
+      currentMaterial = material;
     }
-    return null;
   }
 
   /**
-   * Extract the operator char from a line.
-   *
-   * @param strLine
-   * @return String representing the operator
+   * Read the materials of the file in the order of their definition (up to
+   * an error).
    */
-  private String getOperator(String strLine) {
-    String[] components = strLine.split("\\s+");
-    if (components.length > 0) {
-      return components[0];
-    } else {
-      return "";
+  private List<ObjMaterial> readMaterialFile(String materialFilename) {
+    //System.out.println("Trying to read material file " + materialFilename);
+    List<ObjMaterial> library = new ArrayList<>();
+    InputStream is = getInputStream(materialFilename);
+    try (InputStream in = is) {
+      forEachLine(in, (buffer, from, to) -> parseMaterialLine(buffer, from, to, library));
+    } catch (Exception e) {
+      System.out.println(
+              "Error reading from the material file " + materialFilename + ".");
+    }
+    return library;
+  }
+
+  private void parseMaterialLine(byte[] buffer, int from, int to,
+                                 List<ObjMaterial> library) {
+    ObjMaterial material = library.isEmpty() ? null : library.get(library.size() - 1);
+    materialTokenizer.reset(ByteBuffer.wrap(buffer), from, to);
+    if (!materialTokenizer.nextToken()) {
+      return;
+    }
+    if (materialTokenizer.tokenEquals(OP_MAT_NEW_MAT)) {
+      if (materialTokenizer.nextToken()) {
+        library.add(new ObjMaterial(materialTokenizer.tokenAsString()));
+      }
+    } else if (materialTokenizer.tokenEquals(OP_MAT_KD)) {
+      if (materialTokenizer.countRemainingTokens() >= 3) {
+        materialTokenizer.nextToken();
+        float r = materialTokenizer.parseFloat();
+        materialTokenizer.nextToken();
+        float g = materialTokenizer.parseFloat();
+        materialTokenizer.nextToken();
+        float b = materialTokenizer.parseFloat();
+        material.setColor(new ColorRGBA(r, g, b, 1));
+      }
+    } else if (materialTokenizer.tokenEquals(OP_MAT_TEXTURE)) {
+      if (materialTokenizer.nextToken()) {
+        material.setTextureFilename(materialTokenizer.tokenAsString());
+      }
     }
   }
 }
@@ -0,0 +1,243 @@
+/**
+ * Diese Datei ist Teil des Vorgabeframeworks für die Veranstaltung "Mixed Reality"
+ * <p>
+ * Prof. Dr. Philipp Jenke, Hochschule für Angewandte Wissenschaften Hamburg.
+ */
+
+package mixedreality.base.mesh;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits a line of an OBJ or MTL file (bytes in a buffer, e.g. a memory-mapped
+ * region of the file) into whitespace separated tokens and parses numbers
+ * directly from the bytes, without creating strings. Numbers in unusual
+ * notation (hex, NaN, ...) fall back to the JDK parsers, so the results are
+ * the same as for Float.parseFloat() and Integer.parseInt().
+ */
+final class ObjTokenizer {
+
+  /**
+   * Powers of ten which are exactly representable as float (5^10 < 2^24).
+   */
+  private static final float[] POWERS_OF_TEN = new float[11];
+
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+  }
+
+  private ByteBuffer buffer;
+  private int position;
+  private int end;
+
+  /**
+   * Current token: [tokenStart, tokenEnd)
+   */
+  private int tokenStart;
+  private int tokenEnd;
+
+  /**
+   * Start tokenizing the line in buffer[from, to).
+   */
+  void reset(ByteBuffer buffer, int from, int to) {
+    this.buffer = buffer;
+    this.position = from;
+    this.end = to;
+    tokenStart = tokenEnd = from;
+  }
+
+  /**
+   * Advance to the next token, returns false at the end of the line.
+   */
+  boolean nextToken() {
+    while (position < end && isWhitespace(buffer.get(position))) {
+      position++;
+    }
+    if (position >= end) {
+      tokenStart = tokenEnd = end;
+      return false;
+    }
+    tokenStart = position;
+    while (position < end && !isWhitespace(buffer.get(position))) {
+      position++;
+    }
+    tokenEnd = position;
+    return true;
+  }
+
+  /**
+   * Number of tokens after the current one (does not move the cursor).
+   */
+  int countRemainingTokens() {
+    int count = 0;
+    boolean inToken = false;
+    for (int i = position; i < end; i++) {
+      boolean whitespace = isWhitespace(buffer.get(i));
+      if (!whitespace && !inToken) {
+        count++;
+      }
+      inToken = !whitespace;
+    }
+    return count;
+  }
+
+  /**
+   * Check if the current token equals the ASCII string.
+   */
+  boolean tokenEquals(String s) {
+    if (tokenEnd - tokenStart != s.length()) {
+      return false;
+    }
+    for (int i = 0; i < s.length(); i++) {
+      if (buffer.get(tokenStart + i) != s.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  String tokenAsString() {
+    return toString(tokenStart, tokenEnd, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Parse the current token as float.
+   */
+  float parseFloat() {
+    return parseFloat(tokenStart, tokenEnd);
+  }
+
+  /**
+   * Parse the current token as int.
+   */
+  int parseInt() {
+    return parseInt(tokenStart, tokenEnd);
+  }
+
+  int getTokenStart() {
+    return tokenStart;
+  }
+
+  int getTokenEnd() {
+    return tokenEnd;
+  }
+
+  ByteBuffer getBuffer() {
+    return buffer;
+  }
+
+  /**
+   * Parse buffer[from, to) as float. Plain decimal numbers whose digits form
+   * an integer below 2^24 and whose exponent is at most 10 in magnitude are
+   * computed with a single float multiplication or division of exact
+   * operands, so they are rounded once (as by Float.parseFloat()).
+   */
+  float parseFloat(int from, int to) {
+    int i = from;
+    boolean negative = false;
+    if (i < to && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+      negative = buffer.get(i) == '-';
+      i++;
+    }
+    long mantissa = 0;
+    int significantDigits = 0;
+    int exponent = 0;
+    boolean anyDigit = false;
+    for (; i < to && isDigit(buffer.get(i)); i++) {
+      anyDigit = true;
+      if (mantissa != 0 || buffer.get(i) != '0') {
+        mantissa = mantissa * 10 + (buffer.get(i) - '0');
+        significantDigits++;
+      }
+    }
+    if (i < to && buffer.get(i) == '.') {
+      for (i++; i < to && isDigit(buffer.get(i)); i++) {
+        anyDigit = true;
+        if (mantissa != 0 || buffer.get(i) != '0') {
+          mantissa = mantissa * 10 + (buffer.get(i) - '0');
+          significantDigits++;
+        }
+        exponent--;
+      }
+    }
+    if (anyDigit && i < to && (buffer.get(i) == 'e' || buffer.get(i) == 'E')) {
+      int j = i + 1;
+      boolean negativeExponent = false;
+      if (j < to && (buffer.get(j) == '-' || buffer.get(j) == '+')) {
+        negativeExponent = buffer.get(j) == '-';
+        j++;
+      }
+      int e = 0;
+      int exponentDigits = 0;
+      for (; j < to && isDigit(buffer.get(j)) && exponentDigits < 8; j++, exponentDigits++) {
+        e = e * 10 + (buffer.get(j) - '0');
+      }
+      if (exponentDigits > 0) {
+        exponent += negativeExponent ? -e : e;
+        i = j;
+      }
+    }
+    if (!anyDigit || i != to || significantDigits > 18) {
+      return fallbackParseFloat(from, to);
+    }
+    if (mantissa == 0) {
+      return negative ? -0.0f : 0.0f;
+    }
+    if (mantissa >= (1L << 24) || Math.abs(exponent) >= POWERS_OF_TEN.length) {
+      return fallbackParseFloat(from, to);
+    }
+    float result = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent]
+            : mantissa / POWERS_OF_TEN[-exponent];
+    return negative ? -result : result;
+  }
+
+  /**
+   * Parse buffer[from, to) as int.
+   */
+  int parseInt(int from, int to) {
+    int i = from;
+    boolean negative = false;
+    if (i < to && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+      negative = buffer.get(i) == '-';
+      i++;
+    }
+    if (i == to || to - i > 9) {
+      // Empty or possibly out of range
+      return Integer.parseInt(toString(from, to, StandardCharsets.ISO_8859_1));
+    }
+    int value = 0;
+    for (; i < to; i++) {
+      if (!isDigit(buffer.get(i))) {
+        return Integer.parseInt(toString(from, to, StandardCharsets.ISO_8859_1));
+      }
+      value = value * 10 + (buffer.get(i) - '0');
+    }
+    return negative ? -value : value;
+  }
+
+  private float fallbackParseFloat(int from, int to) {
+    return Float.parseFloat(toString(from, to, StandardCharsets.ISO_8859_1));
+  }
+
+  private String toString(int from, int to, Charset charset) {
+    byte[] bytes = new byte[to - from];
+    buffer.get(from, bytes);
+    return new String(bytes, charset);
+  }
+
+  private static boolean isDigit(byte c) {
+    return c >= '0' && c <= '9';
+  }
+
+  /**
+   * Whitespace as matched by the regular expression \s.
+   */
+  static boolean isWhitespace(byte c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+  }
+}
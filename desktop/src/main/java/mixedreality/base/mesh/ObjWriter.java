@@ -0,0 +1,455 @@
+/**
+ * Diese Datei ist Teil des Vorgabeframeworks für die Veranstaltung "Mixed Reality"
+ * <p>
+ * Prof. Dr. Philipp Jenke, Hochschule für Angewandte Wissenschaften Hamburg.
+ */
+
+package mixedreality.base.mesh;
+
+import com.jme3.math.ColorRGBA;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Write a triangle mesh to an OBJ file and its materials to an MTL file next
+ * to it (same name, extension .mtl).
+ * <p>
+ * Each distinct triangle color becomes a material (Kd), the texture name of
+ * the mesh is used as map_Kd. Numbers are formatted directly into bytes with
+ * up to 6 decimals (as most exporters do); numbers with an absolute value of
+ * 1e9 or more are written in Java notation. Blocks of lines are formatted in
+ * parallel and written in order through a large buffer.
+ */
+public class ObjWriter {
+
+  /**
+   * Number of decimals written for floating point numbers.
+   */
+  private static final int DECIMALS = 6;
+  private static final long DECIMALS_SCALE = 1_000_000;
+
+  /**
+   * Size of the output buffer, written to the channel when full.
+   */
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  /**
+   * Number of lines formatted in one block.
+   */
+  private static final int BLOCK_SIZE = 1 << 14;
+
+  /**
+   * Write a vertex only once if several vertices have the same position and
+   * normal.
+   */
+  private boolean deduplicateVertices = false;
+
+  /**
+   * Write the vertex normals (vn).
+   */
+  private boolean writeNormals = true;
+
+  /**
+   * Formats the lines of the records [from, to) into the output.
+   */
+  private interface LineFormatter {
+    void format(int from, int to, ByteOutput out);
+  }
+
+  /**
+   * Write the mesh to the OBJ file and the materials to the MTL file.
+   */
+  public void write(TriangleMesh mesh, File file) throws IOException {
+    int numberOfVertices = mesh.getNumberOfVertices();
+    int numberOfTriangles = mesh.getNumberOfTriangles();
+    float[] positions = mesh.getPositions();
+    float[] normals = mesh.getNormals();
+    float[] textureCoordinates = mesh.getTextureCoordinates();
+    int[] vertexIndices = mesh.getVertexIndices();
+    int[] texCoordIndices = mesh.getTexCoordIndices();
+
+    // Written vertices: index in the file for each vertex, vertex for each
+    // written index
+    int[] vertexToRecord = new int[numberOfVertices];
+    int[] recordToVertex = new int[numberOfVertices];
+    int numberOfRecords = deduplicateVertices
+            ? deduplicate(positions, writeNormals ? normals : null, numberOfVertices,
+            vertexToRecord, recordToVertex)
+            : identity(numberOfVertices, vertexToRecord, recordToVertex);
+
+    // One material per triangle color
+    float[] triangleColors = mesh.getTriangleColors();
+    Map<ColorRGBA, Integer> colorToMaterial = new HashMap<>();
+    int[] materials = new int[numberOfTriangles];
+    float[] materialColors = new float[16 * 3];
+    for (int i = 0; i < numberOfTriangles; i++) {
+      if (i > 0 && sameColor(triangleColors, i - 1, i)) {
+        materials[i] = materials[i - 1];
+        continue;
+      }
+      ColorRGBA color = new ColorRGBA(triangleColors[i * 4], triangleColors[i * 4 + 1],
+              triangleColors[i * 4 + 2], 1);
+      Integer material = colorToMaterial.get(color);
+      if (material == null) {
+        material = colorToMaterial.size();
+        colorToMaterial.put(color, material);
+        if ((material + 1) * 3 > materialColors.length) {
+          materialColors = Arrays.copyOf(materialColors, materialColors.length * 2);
+        }
+        System.arraycopy(triangleColors, i * 4, materialColors, material * 3, 3);
+      }
+      materials[i] = material;
+    }
+
+    String materialFilename = file.getName().replaceFirst("(?i)\\.obj$", "") + ".mtl";
+    writeMaterials(new File(file.getParentFile(), materialFilename), materialColors,
+            colorToMaterial.size(), mesh.getTextureName());
+
+    try (Output out = new Output(file)) {
+      out.write(sink -> {
+        sink.putAscii("# ").putInt(numberOfRecords).putAscii(" vertices, ")
+                .putInt(numberOfTriangles).putAscii(" triangles\n");
+        sink.putAscii("mtllib ").putAscii(materialFilename).putByte('\n');
+      });
+      out.writeLines(numberOfRecords, (from, to, sink) -> {
+        for (int record = from; record < to; record++) {
+          int v3 = recordToVertex[record] * 3;
+          sink.putAscii("v ").putFloat(positions[v3]).putByte(' ')
+                  .putFloat(positions[v3 + 1]).putByte(' ')
+                  .putFloat(positions[v3 + 2]).putByte('\n');
+        }
+      });
+      out.writeLines(mesh.getNumberOfTextureCoordinates(), (from, to, sink) -> {
+        for (int i = from; i < to; i++) {
+          sink.putAscii("vt ").putFloat(textureCoordinates[i * 2]).putByte(' ')
+                  .putFloat(textureCoordinates[i * 2 + 1]).putByte('\n');
+        }
+      });
+      if (writeNormals) {
+        out.writeLines(numberOfRecords, (from, to, sink) -> {
+          for (int record = from; record < to; record++) {
+            int v3 = recordToVertex[record] * 3;
+            sink.putAscii("vn ").putFloat(normals[v3]).putByte(' ')
+                    .putFloat(normals[v3 + 1]).putByte(' ')
+                    .putFloat(normals[v3 + 2]).putByte('\n');
+          }
+        });
+      }
+      out.writeLines(numberOfTriangles, (from, to, sink) -> {
+        for (int i = from; i < to; i++) {
+          if (i == 0 || materials[i] != materials[i - 1]) {
+            sink.putAscii("usemtl material").putInt(materials[i]).putByte('\n');
+          }
+          sink.putByte('f');
+          for (int j = i * 3; j < i * 3 + 3; j++) {
+            int record = vertexToRecord[vertexIndices[j]] + 1;
+            sink.putByte(' ').putInt(record);
+            if (texCoordIndices[j] >= 0 || writeNormals) {
+              sink.putByte('/');
+            }
+            if (texCoordIndices[j] >= 0) {
+              sink.putInt(texCoordIndices[j] + 1);
+            }
+            if (writeNormals) {
+              sink.putByte('/').putInt(record);
+            }
+          }
+          sink.putByte('\n');
+        }
+      });
+    }
+  }
+
+  /**
+   * Write one material per color (r, g, b) for the first numberOfMaterials
+   * colors, all using the texture (if not null).
+   */
+  private void writeMaterials(File file, float[] colors, int numberOfMaterials,
+                              String textureName) throws IOException {
+    try (Output out = new Output(file)) {
+      out.write(sink -> {
+        for (int i = 0; i < numberOfMaterials; i++) {
+          sink.putAscii("newmtl material").putInt(i).putByte('\n');
+          sink.putAscii("Kd ").putFloat(colors[i * 3]).putByte(' ')
+                  .putFloat(colors[i * 3 + 1]).putByte(' ')
+                  .putFloat(colors[i * 3 + 2]).putByte('\n');
+          if (textureName != null) {
+            sink.putAscii("map_Kd ").putAscii(textureName).putByte('\n');
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Checks if two triangles have the same RGB color (alpha is not stored in
+   * MTL files).
+   */
+  private static boolean sameColor(float[] colors, int a, int b) {
+    for (int i = 0; i < 3; i++) {
+      if (Float.floatToIntBits(colors[a * 4 + i]) != Float.floatToIntBits(colors[b * 4 + i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int identity(int count, int[] toRecord, int[] toVertex) {
+    for (int i = 0; i < count; i++) {
+      toRecord[i] = i;
+      toVertex[i] = i;
+    }
+    return count;
+  }
+
+  /**
+   * Find the vertices with the same position (and normal, if not null) bits.
+   * Fills the index of the written record for each vertex and the first
+   * vertex of each record, returns the number of records.
+   */
+  private static int deduplicate(float[] positions, float[] normals, int count,
+                                 int[] toRecord, int[] toVertex) {
+    int tableSize = Integer.highestOneBit(Math.max(count, 1)) * 4;
+    int[] table = new int[tableSize];
+    Arrays.fill(table, -1);
+    int numberOfRecords = 0;
+    for (int v = 0; v < count; v++) {
+      int slot = hashVertex(positions, normals, v) & (tableSize - 1);
+      while (table[slot] >= 0 && !equalVertices(positions, normals, toVertex[table[slot]], v)) {
+        slot = (slot + 1) & (tableSize - 1);
+      }
+      if (table[slot] < 0) {
+        table[slot] = numberOfRecords;
+        toVertex[numberOfRecords++] = v;
+      }
+      toRecord[v] = table[slot];
+    }
+    return numberOfRecords;
+  }
+
+  private static int hashVertex(float[] positions, float[] normals, int v) {
+    int hash = 0;
+    for (int i = v * 3; i < v * 3 + 3; i++) {
+      hash = hash * 31 + Float.floatToIntBits(positions[i]);
+      if (normals != null) {
+        hash = hash * 31 + Float.floatToIntBits(normals[i]);
+      }
+    }
+    // Spread the bits, the table size is a power of two
+    hash = (hash ^ (hash >>> 16)) * 0x45d9f3b;
+    return hash ^ (hash >>> 16);
+  }
+
+  private static boolean equalVertices(float[] positions, float[] normals, int a, int b) {
+    for (int i = 0; i < 3; i++) {
+      if (Float.floatToIntBits(positions[a * 3 + i]) != Float.floatToIntBits(positions[b * 3 + i])
+              || (normals != null && Float.floatToIntBits(normals[a * 3 + i])
+              != Float.floatToIntBits(normals[b * 3 + i]))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Output file: formatted blocks are collected in a buffer which is written
+   * to the channel when full.
+   */
+  private static class Output implements AutoCloseable {
+    private final FileChannel channel;
+    private final ByteOutput buffer = new ByteOutput(BUFFER_SIZE);
+
+    Output(File file) throws IOException {
+      channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    interface Content {
+      void format(ByteOutput out);
+    }
+
+    void write(Content content) throws IOException {
+      content.format(buffer);
+      flushIfFull();
+    }
+
+    /**
+     * Format the lines of count records in blocks, the blocks of a batch are
+     * formatted in parallel and appended in order.
+     */
+    void writeLines(int count, LineFormatter formatter) throws IOException {
+      int numberOfBlocks = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+      int batchSize = ForkJoinPool.getCommonPoolParallelism() * 4;
+      ByteOutput[] blocks = new ByteOutput[batchSize];
+      for (int batch = 0; batch < numberOfBlocks; batch += batchSize) {
+        int firstBlock = batch;
+        int blocksInBatch = Math.min(batchSize, numberOfBlocks - batch);
+        Parallel.forChunks(blocksInBatch, blocksInBatch, (block, from, to) -> {
+          if (blocks[block] == null) {
+            blocks[block] = new ByteOutput(BLOCK_SIZE * 32);
+          }
+          blocks[block].clear();
+          int first = (firstBlock + block) * BLOCK_SIZE;
+          formatter.format(first, Math.min(count, first + BLOCK_SIZE), blocks[block]);
+        });
+        for (int block = 0; block < blocksInBatch; block++) {
+          buffer.putBytes(blocks[block]);
+          flushIfFull();
+        }
+      }
+    }
+
+    private void flushIfFull() throws IOException {
+      if (buffer.size() >= BUFFER_SIZE) {
+        flush();
+      }
+    }
+
+    private void flush() throws IOException {
+      ByteBuffer bytes = ByteBuffer.wrap(buffer.bytes, 0, buffer.size());
+      while (bytes.hasRemaining()) {
+        channel.write(bytes);
+      }
+      buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        flush();
+      } finally {
+        channel.close();
+      }
+    }
+  }
+
+  /**
+   * Growing byte array with number formatting.
+   */
+  private static class ByteOutput {
+    private byte[] bytes;
+    private int size = 0;
+
+    ByteOutput(int capacity) {
+      bytes = new byte[capacity];
+    }
+
+    int size() {
+      return size;
+    }
+
+    void clear() {
+      size = 0;
+    }
+
+    private void ensureCapacity(int additional) {
+      if (size + additional > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(size + additional, bytes.length * 2));
+      }
+    }
+
+    ByteOutput putByte(char c) {
+      ensureCapacity(1);
+      bytes[size++] = (byte) c;
+      return this;
+    }
+
+    ByteOutput putAscii(String s) {
+      byte[] b = s.getBytes(StandardCharsets.UTF_8);
+      ensureCapacity(b.length);
+      System.arraycopy(b, 0, bytes, size, b.length);
+      size += b.length;
+      return this;
+    }
+
+    void putBytes(ByteOutput other) {
+      ensureCapacity(other.size);
+      System.arraycopy(other.bytes, 0, bytes, size, other.size);
+      size += other.size;
+    }
+
+    ByteOutput putInt(int value) {
+      return putLong(value);
+    }
+
+    ByteOutput putLong(long value) {
+      ensureCapacity(20);
+      if (value < 0) {
+        bytes[size++] = '-';
+        value = -value;
+      }
+      int start = size;
+      do {
+        bytes[size++] = (byte) ('0' + value % 10);
+        value /= 10;
+      } while (value > 0);
+      reverse(start, size - 1);
+      return this;
+    }
+
+    /**
+     * Write the value with up to DECIMALS decimals, trailing zeros are
+     * omitted.
+     */
+    ByteOutput putFloat(float value) {
+      if (!(Math.abs(value) < 1e9f)) {
+        // NaN, infinite or too large for the fixed point format
+        return putAscii(Float.toString(value));
+      }
+      long scaled = Math.round(Math.abs((double) value) * DECIMALS_SCALE);
+      if (value < 0 && scaled != 0) {
+        putByte('-');
+      }
+      putLong(scaled / DECIMALS_SCALE);
+      long fraction = scaled % DECIMALS_SCALE;
+      if (fraction != 0) {
+        int digits = DECIMALS;
+        while (fraction % 10 == 0) {
+          fraction /= 10;
+          digits--;
+        }
+        ensureCapacity(digits + 1);
+        bytes[size++] = '.';
+        for (int i = size + digits - 1; i >= size; i--) {
+          bytes[i] = (byte) ('0' + fraction % 10);
+          fraction /= 10;
+        }
+        size += digits;
+      }
+      return this;
+    }
+
+    private void reverse(int from, int to) {
+      while (from < to) {
+        byte b = bytes[from];
+        bytes[from++] = bytes[to];
+        bytes[to--] = b;
+      }
+    }
+  }
+
+  public boolean isDeduplicateVertices() {
+    return deduplicateVertices;
+  }
+
+  public void setDeduplicateVertices(boolean deduplicateVertices) {
+    this.deduplicateVertices = deduplicateVertices;
+  }
+
+  public boolean isWriteNormals() {
+    return writeNormals;
+  }
+
+  public void setWriteNormals(boolean writeNormals) {
+    this.writeNormals = writeNormals;
+  }
+}
@@ -0,0 +1,82 @@
+/**
+ * Diese Datei ist Teil des Vorgabeframeworks für die Veranstaltung "Mixed Reality"
+ * <p>
+ * Prof. Dr. Philipp Jenke, Hochschule für Angewandte Wissenschaften Hamburg.
+ */
+
+package mixedreality.base.mesh;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Chunked parallel loops over index ranges on the common fork/join pool.
+ */
+final class Parallel {
+
+    /**
+     * Loops over less elements run on the calling thread.
+     */
+    static final int SEQUENTIAL_THRESHOLD = 1 << 15;
+
+    /**
+     * Minimum number of elements per chunk.
+     */
+    private static final int MIN_CHUNK_SIZE = 1 << 12;
+
+    /**
+     * Loop body for a half-open index range [from, to).
+     */
+    interface RangeBody {
+        void run(int from, int to);
+    }
+
+    /**
+     * Loop body for the half-open index range [from, to) of a chunk.
+     */
+    interface ChunkBody {
+        void run(int chunk, int from, int to);
+    }
+
+    private Parallel() {
+    }
+
+    /**
+     * Run the body for all elements in [0, n), split into chunks which are
+     * processed in parallel if n is large enough.
+     */
+    static void forRange(int n, RangeBody body) {
+        forChunks(n, numberOfChunks(n), (chunk, from, to) -> body.run(from, to));
+    }
+
+    /**
+     * Run the body for each of the given number of chunks of [0, n) in
+     * parallel. Use numberOfChunks(n) to size per-chunk results.
+     */
+    static void forChunks(int n, int chunks, ChunkBody body) {
+        if (chunks <= 1) {
+            body.run(0, 0, n);
+            return;
+        }
+        IntStream.range(0, chunks).parallel().forEach(chunk ->
+                body.run(chunk, chunkStart(n, chunks, chunk), chunkStart(n, chunks, chunk + 1)));
+    }
+
+    /**
+     * Number of chunks used for n elements.
+     */
+    static int numberOfChunks(int n) {
+        if (n < SEQUENTIAL_THRESHOLD) {
+            return 1;
+        }
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        return Math.max(1, Math.min(parallelism * 4, n / MIN_CHUNK_SIZE));
+    }
+
+    /**
+     * First element of the given chunk if n elements are split into chunks.
+     */
+    static int chunkStart(int n, int chunks, int chunk) {
+        return (int) ((long) n * chunk / chunks);
+    }
+}
@@ -77,11 +77,18 @@ public class Triangle {
 
 
     public Triangle(Triangle triangle) {
-        this(triangle.vertexIndices[0], triangle.vertexIndices[1],
-                triangle.vertexIndices[2],
-                triangle.texCoordIndices[0], triangle.texCoordIndices[1],
-                triangle.texCoordIndices[2],
-                triangle.normal, triangle.color);
+        this(triangle.getVertexIndex(0), triangle.getVertexIndex(1),
+                triangle.getVertexIndex(2),
+                triangle.getTextureCoordinate(0), triangle.getTextureCoordinate(1),
+                triangle.getTextureCoordinate(2),
+                triangle.getNormal(), triangle.getColor());
+    }
+
+    /**
+     * Used by the views handed out by {@link TriangleMesh}, which keep their
+     * data in the packed arrays of the mesh and override all accessors.
+     */
+    Triangle(TriangleMesh.ViewMarker marker) {
     }
 
     /**
@@ -96,7 +103,7 @@ public class Triangle {
      */
     public void addTexCoordOffset(int offset) {
         for (int i = 0; i < 3; i++) {
-            texCoordIndices[i] += offset;
+            setTextureCoordinate(i, getTextureCoordinate(i) + offset);
         }
     }
 
@@ -105,7 +112,7 @@ public class Triangle {
      */
     public void addVertexIndexOffset(int offset) {
         for (int i = 0; i < 3; i++) {
-            vertexIndices[i] += offset;
+            setVertexIndex(i, getVertexIndex(i) + offset);
         }
     }
 
@@ -113,9 +120,9 @@ public class Triangle {
      * Checks if the triangle has a duplicated vertex index.
      */
     public boolean isDegenerated() {
-        return vertexIndices[0] == vertexIndices[1] ||
-                vertexIndices[1] == vertexIndices[2] ||
-                vertexIndices[2] == vertexIndices[0];
+        return getVertexIndex(0) == getVertexIndex(1) ||
+                getVertexIndex(1) == getVertexIndex(2) ||
+                getVertexIndex(2) == getVertexIndex(0);
     }
 
     /**
@@ -123,8 +130,8 @@ public class Triangle {
      */
     public void replaceVertexIndex(int iKeep, int iReplace) {
         for (int i = 0; i < 3; i++) {
-            if (vertexIndices[i] == iReplace) {
-                vertexIndices[i] = iKeep;
+            if (getVertexIndex(i) == iReplace) {
+                setVertexIndex(i, iKeep);
             }
         }
     }
@@ -136,6 +143,10 @@ public class Triangle {
 
     // +++ GETTER/SETTER +++++++++++++++++++++++++
 
+    /**
+     * The triangles of a {@link TriangleMesh} return a copy, use setColor() to
+     * change the color.
+     */
     public ColorRGBA getColor() {
         return color;
     }
@@ -151,6 +162,10 @@ public class Triangle {
         this.normal = new Vector3f(normal);
     }
 
+    /**
+     * The triangles of a {@link TriangleMesh} return a copy, use setNormal() to
+     * change the normal.
+     */
     public Vector3f getNormal() {
         return normal;
     }
@@ -160,38 +175,46 @@ public class Triangle {
      */
     public void setTextureCoordinates(int texCoordIndex1, int texCoordIndex2,
                                       int texCoordIndex3) {
-        this.texCoordIndices[0] = texCoordIndex1;
-        this.texCoordIndices[1] = texCoordIndex2;
-        this.texCoordIndices[2] = texCoordIndex3;
+        setTextureCoordinate(0, texCoordIndex1);
+        setTextureCoordinate(1, texCoordIndex2);
+        setTextureCoordinate(2, texCoordIndex3);
+    }
+
+    public void setTextureCoordinate(int vertexInTriangleIndex, int texCoordIndex) {
+        texCoordIndices[vertexInTriangleIndex] = texCoordIndex;
     }
 
     public int getVertexIndex(int index) {
         return vertexIndices[index];
     }
 
+    public void setVertexIndex(int index, int vertexIndex) {
+        vertexIndices[index] = vertexIndex;
+    }
+
     public int getTextureCoordinate(int vertexInTriangleIndex) {
         return texCoordIndices[vertexInTriangleIndex];
     }
 
     public int getA() {
-        return vertexIndices[0];
+        return getVertexIndex(0);
     }
 
     public int getB() {
-        return vertexIndices[1];
+        return getVertexIndex(1);
     }
 
     public int getC() {
-        return vertexIndices[2];
+        return getVertexIndex(2);
     }
 
     public void flipOrientation() {
-        int tmp = vertexIndices[0];
-        vertexIndices[0] = vertexIndices[1];
-        vertexIndices[1] = tmp;
+        int tmp = getVertexIndex(0);
+        setVertexIndex(0, getVertexIndex(1));
+        setVertexIndex(1, tmp);
 
-        tmp = texCoordIndices[0];
-        texCoordIndices[0] = texCoordIndices[1];
-        texCoordIndices[1] = tmp;
+        tmp = getTextureCoordinate(0);
+        setTextureCoordinate(0, getTextureCoordinate(1));
+        setTextureCoordinate(1, tmp);
     }
 }
@@ -7,128 +7,475 @@
 package mixedreality.base.mesh;
 
 import com.google.common.base.Preconditions;
-import com.jme3.bounding.BoundingBox;
 import com.jme3.math.ColorRGBA;
 import com.jme3.math.Vector2f;
 import com.jme3.math.Vector3f;
 import misc.AxisAlignedBoundingBox;
 import misc.Logger;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
 
 /**
  * Implementation of a indexed vertex list triangle mesh.
+ * <p>
+ * The mesh data is kept in packed primitive arrays (structure of arrays)
+ * which grow geometrically. A vertex requires 40 bytes (position, normal,
+ * color), a triangle 52 bytes (vertex indices, texture coordinate indices,
+ * normal, color). {@link #getVertex(int)} and {@link #getTriangle(int)}
+ * return lightweight views into these arrays: setters write through to the
+ * mesh, getters return copies of the stored vectors. Copies and snapshots
+ * share the arrays until one side modifies them (copy-on-write).
  */
 public class TriangleMesh {
 
     /**
-     * Vertices.
+     * Initial number of elements allocated for each array.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Vertex positions, 3 floats per vertex.
      */
-    private List<Vertex> vertices;
+    private float[] positions;
 
     /**
-     * Triangles.
+     * Vertex normals, 3 floats per vertex.
      */
-    private List<Triangle> triangles;
+    private float[] normals;
 
     /**
-     * Texture coordinates.
+     * Vertex colors in RGBA format, 4 floats per vertex.
      */
-    private List<Vector2f> textureCoordinates;
+    private float[] colors;
+
+    /**
+     * Number of vertices in the arrays.
+     */
+    private int numberOfVertices;
+
+    /**
+     * Vertex indices, 3 per triangle.
+     */
+    private int[] vertexIndices;
+
+    /**
+     * Texture coordinate indices, 3 per triangle (-1 if not used).
+     */
+    private int[] texCoordIndices;
+
+    /**
+     * Facet normals, 3 floats per triangle.
+     */
+    private float[] triangleNormals;
+
+    /**
+     * Triangle colors in RGBA format, 4 floats per triangle.
+     */
+    private float[] triangleColors;
+
+    /**
+     * Number of triangles in the arrays.
+     */
+    private int numberOfTriangles;
+
+    /**
+     * Texture coordinates, 2 floats per coordinate.
+     */
+    private float[] textureCoordinates;
+
+    /**
+     * Number of texture coordinates in the array.
+     */
+    private int numberOfTextureCoordinates;
 
     /**
      * Texture object, leave null if no texture is used.
      */
     private String textureName;
 
+    /**
+     * Cached connectivity, null if not built or outdated. Volatile, so
+     * snapshots can build it on first use from several threads.
+     */
+    private volatile MeshConnectivity connectivity;
+
+    /**
+     * Cached bounding volume hierarchy, null if not built or outdated. Refitted
+     * lazily if only vertex positions changed.
+     */
+    private BoundingVolumeHierarchy boundingVolumeHierarchy;
+    private boolean boundingVolumeHierarchyNeedsRefit;
+
+    /**
+     * Cached bounding box (minX, minY, minZ, maxX, maxY, maxZ), only valid if
+     * boundsValid is set. Kept up to date incrementally where possible.
+     */
+    private final float[] bounds = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+            Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY,
+            Float.NEGATIVE_INFINITY};
+    private boolean boundsValid = true;
+
+    /**
+     * Copy-on-write: set if the vertex, triangle or texture coordinate arrays
+     * are shared with a copy of the mesh. Shared arrays are copied before the
+     * next modification.
+     */
+    private boolean verticesShared;
+    private boolean trianglesShared;
+    private boolean textureCoordinatesShared;
+
+    /**
+     * Snapshots cannot be modified.
+     */
+    private boolean readOnly;
+
     public TriangleMesh() {
-        textureCoordinates = new ArrayList<>();
-        triangles = new ArrayList<>();
-        this.vertices = new ArrayList<>();
-        this.textureName = textureName;
+        positions = new float[INITIAL_CAPACITY * 3];
+        normals = new float[INITIAL_CAPACITY * 3];
+        colors = new float[INITIAL_CAPACITY * 4];
+        vertexIndices = new int[INITIAL_CAPACITY * 3];
+        texCoordIndices = new int[INITIAL_CAPACITY * 3];
+        triangleNormals = new float[INITIAL_CAPACITY * 3];
+        triangleColors = new float[INITIAL_CAPACITY * 4];
+        textureCoordinates = new float[INITIAL_CAPACITY * 2];
+        textureName = null;
     }
 
     /**
-     * Copy constructor
+     * Copy constructor. The copy shares the arrays with the mesh (O(1)), each
+     * side copies them before its first modification.
      */
     public TriangleMesh(TriangleMesh mesh) {
-        this();
-        // Vertices
-        for (int i = 0; i < mesh.getNumberOfVertices(); i++) {
-            addVertex(new Vertex(mesh.getVertex(i)));
+        positions = mesh.positions;
+        normals = mesh.normals;
+        colors = mesh.colors;
+        numberOfVertices = mesh.numberOfVertices;
+        vertexIndices = mesh.vertexIndices;
+        texCoordIndices = mesh.texCoordIndices;
+        triangleNormals = mesh.triangleNormals;
+        triangleColors = mesh.triangleColors;
+        numberOfTriangles = mesh.numberOfTriangles;
+        textureCoordinates = mesh.textureCoordinates;
+        numberOfTextureCoordinates = mesh.numberOfTextureCoordinates;
+        verticesShared = trianglesShared = textureCoordinatesShared = true;
+        mesh.verticesShared = mesh.trianglesShared = mesh.textureCoordinatesShared = true;
+        textureName = mesh.textureName;
+        System.arraycopy(mesh.bounds, 0, bounds, 0, 6);
+        boundsValid = mesh.boundsValid;
+    }
+
+    /**
+     * Create a mesh which takes ownership of the given arrays (used by the
+     * binary mesh reader), the array lengths are the initial capacities.
+     */
+    TriangleMesh(float[] positions, float[] normals, float[] colors, int numberOfVertices,
+                 int[] vertexIndices, int[] texCoordIndices, float[] triangleNormals,
+                 float[] triangleColors, int numberOfTriangles,
+                 float[] textureCoordinates, int numberOfTextureCoordinates,
+                 String textureName) {
+        this.positions = positions;
+        this.normals = normals;
+        this.colors = colors;
+        this.numberOfVertices = numberOfVertices;
+        this.vertexIndices = vertexIndices;
+        this.texCoordIndices = texCoordIndices;
+        this.triangleNormals = triangleNormals;
+        this.triangleColors = triangleColors;
+        this.numberOfTriangles = numberOfTriangles;
+        this.textureCoordinates = textureCoordinates;
+        this.numberOfTextureCoordinates = numberOfTextureCoordinates;
+        this.textureName = textureName;
+        boundsValid = false;
+    }
+
+    /**
+     * Return an immutable snapshot of the mesh in O(1). The snapshot shares the
+     * arrays with this mesh, modifications of this mesh copy the affected
+     * arrays first. A snapshot can be read by other threads while this mesh is
+     * edited (its bounding box and BVH caches are built lazily and should be
+     * requested once before, the connectivity can be requested by several
+     * threads). Use the copy constructor to get
+     * an editable mesh from a snapshot.
+     */
+    public TriangleMesh snapshot() {
+        TriangleMesh snapshot = new TriangleMesh(this);
+        snapshot.readOnly = true;
+        return snapshot;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Must be called before writing to the vertex arrays: copies shared
+     * arrays.
+     */
+    void modifyVertices() {
+        checkWritable();
+        if (verticesShared) {
+            positions = positions.clone();
+            normals = normals.clone();
+            colors = colors.clone();
+            verticesShared = false;
         }
-        // Texture coordinates
-        for (int i = 0; i < mesh.getNumberOfTextureCoordinates(); i++) {
-            addTextureCoordinate(new Vector2f(mesh.getTextureCoordinate(i)));
+    }
+
+    /**
+     * Must be called before writing to the triangle arrays: copies shared
+     * arrays.
+     */
+    void modifyTriangles() {
+        checkWritable();
+        if (trianglesShared) {
+            vertexIndices = vertexIndices.clone();
+            texCoordIndices = texCoordIndices.clone();
+            triangleNormals = triangleNormals.clone();
+            triangleColors = triangleColors.clone();
+            trianglesShared = false;
         }
-        // Triangles
-        for (int i = 0; i < mesh.getNumberOfTriangles(); i++) {
-            addTriangle(new Triangle(mesh.getTriangle(i)));
+    }
+
+    private void modifyTextureCoordinates() {
+        checkWritable();
+        if (textureCoordinatesShared) {
+            textureCoordinates = textureCoordinates.clone();
+            textureCoordinatesShared = false;
         }
-        textureName = mesh.textureName;
+    }
+
+    private void checkWritable() {
+        Preconditions.checkState(!readOnly, "Mesh snapshot is read-only.");
     }
 
     /**
      * Add triangles connecting the three incides. Returns index of the triangle.
      */
     public int addTriangle(int vertexIndex1, int vertexIndex2, int vertexIndex3) {
-        triangles.add(new Triangle(vertexIndex1, vertexIndex2, vertexIndex3));
-        return triangles.size() - 1;
+        if (vertexIndex1 == vertexIndex2 || vertexIndex2 == vertexIndex3 ||
+                vertexIndex1 == vertexIndex3) {
+            Logger.getInstance().error("Invalid triangle generated.");
+        }
+        return addTriangle(vertexIndex1, vertexIndex2, vertexIndex3, -1, -1, -1,
+                1, 0, 0, 0.5f, 0.5f, 0.5f, 1);
     }
 
     /**
      * Add triangle object, return index of the triangle in the triangle list.
      */
     public void addTriangle(Triangle t) {
-        triangles.add(t);
+        Vector3f normal = t.getNormal();
+        ColorRGBA color = t.getColor();
+        addTriangle(t.getVertexIndex(0), t.getVertexIndex(1), t.getVertexIndex(2),
+                t.getTextureCoordinate(0), t.getTextureCoordinate(1),
+                t.getTextureCoordinate(2),
+                normal.x, normal.y, normal.z, color.r, color.g, color.b, color.a);
+    }
+
+    /**
+     * Add a triangle with texture coordinate indices and color (used by the
+     * OBJ reader), return index of the triangle.
+     */
+    int addTriangle(int a, int b, int c, int tA, int tB, int tC, ColorRGBA color) {
+        if (a == b || b == c || a == c) {
+            Logger.getInstance().error("Invalid triangle generated.");
+        }
+        return addTriangle(a, b, c, tA, tB, tC, 1, 0, 0, color.r, color.g, color.b, color.a);
+    }
+
+    /**
+     * Append a triangle to the arrays, return index of the triangle.
+     */
+    private int addTriangle(int a, int b, int c, int tA, int tB, int tC,
+                            float nx, float ny, float nz,
+                            float red, float green, float blue, float alpha) {
+        modifyTriangles();
+        ensureTriangleCapacity(numberOfTriangles + 1);
+        topologyChanged();
+        int i3 = numberOfTriangles * 3;
+        vertexIndices[i3] = a;
+        vertexIndices[i3 + 1] = b;
+        vertexIndices[i3 + 2] = c;
+        texCoordIndices[i3] = tA;
+        texCoordIndices[i3 + 1] = tB;
+        texCoordIndices[i3 + 2] = tC;
+        triangleNormals[i3] = nx;
+        triangleNormals[i3 + 1] = ny;
+        triangleNormals[i3 + 2] = nz;
+        int i4 = numberOfTriangles * 4;
+        triangleColors[i4] = red;
+        triangleColors[i4 + 1] = green;
+        triangleColors[i4 + 2] = blue;
+        triangleColors[i4 + 3] = alpha;
+        return numberOfTriangles++;
     }
 
     /**
      * Create and add vertex for the given position, return index in vertex list.
      */
     public int addVertex(Vector3f position) {
-        vertices.add(new Vertex(position));
-        return vertices.size() - 1;
+        return addVertex(position.x, position.y, position.z);
+    }
+
+    /**
+     * Create and add vertex for the given coordinates, return index in vertex
+     * list.
+     */
+    public int addVertex(float x, float y, float z) {
+        return addVertex(x, y, z, 0, 1, 0, 0.5f, 0.5f, 0.5f, 1);
     }
 
     /**
      * Add vertex, return index in vertex list.
      */
     public int addVertex(Vertex vertex) {
-        vertices.add(vertex);
-        return vertices.size() - 1;
+        Vector3f position = vertex.getPosition();
+        Vector3f normal = vertex.getNormal();
+        ColorRGBA color = vertex.getColor();
+        return addVertex(position.x, position.y, position.z,
+                normal.x, normal.y, normal.z, color.r, color.g, color.b, color.a);
     }
 
     /**
-     * Compute the normals for all triangles.
+     * Append a vertex to the arrays, return index of the vertex.
      */
-    public void computeTriangleNormals() {
-        for (int tIndex = 0; tIndex < getNumberOfTriangles(); tIndex++) {
-            Triangle t = triangles.get(tIndex);
-            Vector3f a = vertices.get(t.getVertexIndex(0)).getPosition();
-            Vector3f b = vertices.get(t.getVertexIndex(1)).getPosition();
-            Vector3f c = vertices.get(t.getVertexIndex(2)).getPosition();
-            Vector3f u = b.subtract(a);
-            Vector3f v = c.subtract(a);
-            Vector3f normal = u.cross(v);
-            float norm = normal.length();
-            if (norm > 1e-8) {
-                normal = normal.mult(1.0f / norm);
-            } else {
-                Logger.getInstance().error("Invalid triangle - cannot compute " +
-                        "normal.");
+    private int addVertex(float x, float y, float z, float nx, float ny, float nz,
+                          float red, float green, float blue, float alpha) {
+        modifyVertices();
+        ensureVertexCapacity(numberOfVertices + 1);
+        topologyChanged();
+        int i3 = numberOfVertices * 3;
+        positions[i3] = x;
+        positions[i3 + 1] = y;
+        positions[i3 + 2] = z;
+        if (boundsValid) {
+            bounds[0] = Math.min(bounds[0], x);
+            bounds[1] = Math.min(bounds[1], y);
+            bounds[2] = Math.min(bounds[2], z);
+            bounds[3] = Math.max(bounds[3], x);
+            bounds[4] = Math.max(bounds[4], y);
+            bounds[5] = Math.max(bounds[5], z);
+        }
+        normals[i3] = nx;
+        normals[i3 + 1] = ny;
+        normals[i3 + 2] = nz;
+        int i4 = numberOfVertices * 4;
+        colors[i4] = red;
+        colors[i4 + 1] = green;
+        colors[i4 + 2] = blue;
+        colors[i4 + 3] = alpha;
+        return numberOfVertices++;
+    }
+
+    /**
+     * Append count vertices with the positions xyz[3 * from, 3 * (from + count))
+     * and default normal and color (used by the OBJ reader).
+     */
+    void addVertices(float[] xyz, int from, int count) {
+        modifyVertices();
+        ensureVertexCapacity(numberOfVertices + count);
+        topologyChanged();
+        System.arraycopy(xyz, from * 3, positions, numberOfVertices * 3, count * 3);
+        for (int i = numberOfVertices; i < numberOfVertices + count; i++) {
+            int i3 = i * 3;
+            if (boundsValid) {
+                bounds[0] = Math.min(bounds[0], positions[i3]);
+                bounds[1] = Math.min(bounds[1], positions[i3 + 1]);
+                bounds[2] = Math.min(bounds[2], positions[i3 + 2]);
+                bounds[3] = Math.max(bounds[3], positions[i3]);
+                bounds[4] = Math.max(bounds[4], positions[i3 + 1]);
+                bounds[5] = Math.max(bounds[5], positions[i3 + 2]);
             }
-            t.setNormal(normal);
+            normals[i3] = 0;
+            normals[i3 + 1] = 1;
+            normals[i3 + 2] = 0;
+            int i4 = i * 4;
+            colors[i4] = 0.5f;
+            colors[i4 + 1] = 0.5f;
+            colors[i4 + 2] = 0.5f;
+            colors[i4 + 3] = 1;
         }
+        numberOfVertices += count;
+    }
+
+    /**
+     * Make sure the vertex arrays can hold the given number of vertices.
+     */
+    private void ensureVertexCapacity(int capacity) {
+        if (capacity * 3 > positions.length) {
+            int newCapacity = grow(positions.length / 3, capacity);
+            positions = Arrays.copyOf(positions, newCapacity * 3);
+            normals = Arrays.copyOf(normals, newCapacity * 3);
+            colors = Arrays.copyOf(colors, newCapacity * 4);
+        }
+    }
+
+    /**
+     * Make sure the triangle arrays can hold the given number of triangles.
+     */
+    private void ensureTriangleCapacity(int capacity) {
+        if (capacity * 3 > vertexIndices.length) {
+            int newCapacity = grow(vertexIndices.length / 3, capacity);
+            vertexIndices = Arrays.copyOf(vertexIndices, newCapacity * 3);
+            texCoordIndices = Arrays.copyOf(texCoordIndices, newCapacity * 3);
+            triangleNormals = Arrays.copyOf(triangleNormals, newCapacity * 3);
+            triangleColors = Arrays.copyOf(triangleColors, newCapacity * 4);
+        }
+    }
+
+    /**
+     * Make sure the texture coordinate array can hold the given number of
+     * texture coordinates.
+     */
+    private void ensureTextureCoordinateCapacity(int capacity) {
+        if (capacity * 2 > textureCoordinates.length) {
+            int newCapacity = grow(textureCoordinates.length / 2, capacity);
+            textureCoordinates = Arrays.copyOf(textureCoordinates, newCapacity * 2);
+        }
+    }
+
+    /**
+     * Geometric growth: at least double the current capacity.
+     */
+    private static int grow(int currentCapacity, int requiredCapacity) {
+        return Math.max(requiredCapacity,
+                Math.max(INITIAL_CAPACITY, currentCapacity * 2));
+    }
+
+    /**
+     * Compute the normals for all triangles.
+     */
+    public void computeTriangleNormals() {
+        MeshNormals.computeTriangleNormals(this);
+    }
+
+    /**
+     * Compute the vertex normals as area-weighted average of the normals of the
+     * incident triangles.
+     */
+    public void computeVertexNormals() {
+        MeshNormals.computeVertexNormals(this);
+    }
+
+    /**
+     * Compute triangle and vertex normals in a single pass.
+     */
+    public void computeNormals() {
+        MeshNormals.computeNormals(this, true, true);
     }
 
     public boolean testComputeTriangleNormals() {
         for (int tIndex = 0; tIndex < getNumberOfTriangles(); tIndex++) {
-            Triangle t = triangles.get(tIndex);
-            Vector3f a = vertices.get(t.getVertexIndex(0)).getPosition();
-            Vector3f b = vertices.get(t.getVertexIndex(1)).getPosition();
-            Vector3f c = vertices.get(t.getVertexIndex(2)).getPosition();
+            Triangle t = getTriangle(tIndex);
+            Vector3f a = getVertex(t.getVertexIndex(0)).getPosition();
+            Vector3f b = getVertex(t.getVertexIndex(1)).getPosition();
+            Vector3f c = getVertex(t.getVertexIndex(2)).getPosition();
             Vector3f u = b.subtract(a);
             Vector3f v = c.subtract(a);
             Vector3f normal = u.cross(v);
@@ -150,74 +497,475 @@ public class TriangleMesh {
      * Add the given texture coordinate, return index in tex coord list.
      */
     public int addTextureCoordinate(Vector2f t) {
-        textureCoordinates.add(t);
-        return textureCoordinates.size() - 1;
+        return addTextureCoordinate(t.x, t.y);
+    }
+
+    /**
+     * Add the texture coordinate (u, v), return index in tex coord list.
+     */
+    int addTextureCoordinate(float u, float v) {
+        modifyTextureCoordinates();
+        ensureTextureCoordinateCapacity(numberOfTextureCoordinates + 1);
+        textureCoordinates[numberOfTextureCoordinates * 2] = u;
+        textureCoordinates[numberOfTextureCoordinates * 2 + 1] = v;
+        return numberOfTextureCoordinates++;
+    }
+
+    /**
+     * Append the texture coordinates uv[2 * from, 2 * (from + count)).
+     */
+    void addTextureCoordinates(float[] uv, int from, int count) {
+        modifyTextureCoordinates();
+        ensureTextureCoordinateCapacity(numberOfTextureCoordinates + count);
+        System.arraycopy(uv, from * 2, textureCoordinates,
+                numberOfTextureCoordinates * 2, count * 2);
+        numberOfTextureCoordinates += count;
     }
 
     /**
      * Remove all triangles.
      */
     public void clearTriangles() {
-        triangles.clear();
+        checkWritable();
+        topologyChanged();
+        if (trianglesShared) {
+            // Nothing to keep: start with fresh arrays instead of a copy
+            vertexIndices = new int[INITIAL_CAPACITY * 3];
+            texCoordIndices = new int[INITIAL_CAPACITY * 3];
+            triangleNormals = new float[INITIAL_CAPACITY * 3];
+            triangleColors = new float[INITIAL_CAPACITY * 4];
+            trianglesShared = false;
+        }
+        numberOfTriangles = 0;
     }
 
     /**
      * Remove the triangle a the given index.
      */
     public void removeTriangle(int index) {
-        triangles.remove(index);
+        Preconditions.checkElementIndex(index, numberOfTriangles);
+        modifyTriangles();
+        topologyChanged();
+        int remaining = numberOfTriangles - index - 1;
+        System.arraycopy(vertexIndices, (index + 1) * 3, vertexIndices, index * 3, remaining * 3);
+        System.arraycopy(texCoordIndices, (index + 1) * 3, texCoordIndices, index * 3, remaining * 3);
+        System.arraycopy(triangleNormals, (index + 1) * 3, triangleNormals, index * 3, remaining * 3);
+        System.arraycopy(triangleColors, (index + 1) * 4, triangleColors, index * 4, remaining * 4);
+        numberOfTriangles--;
+    }
+
+    /**
+     * Remove all triangles for which the predicate (called with the triangle
+     * index) is true. Returns the number of removed triangles.
+     */
+    public int removeTriangles(IntPredicate predicate) {
+        BitSet remove = new BitSet(numberOfTriangles);
+        for (int i = 0; i < numberOfTriangles; i++) {
+            if (predicate.test(i)) {
+                remove.set(i);
+            }
+        }
+        return removeTriangles(remove);
+    }
+
+    /**
+     * Remove all triangles whose bit is set in a single linear compaction pass.
+     * Returns the number of removed triangles, the mesh is not modified if
+     * there are none.
+     */
+    public int removeTriangles(BitSet remove) {
+        int first = remove.nextSetBit(0);
+        if (first < 0 || first >= numberOfTriangles) {
+            return 0;
+        }
+        modifyTriangles();
+        topologyChanged();
+        int write = first;
+        for (int read = first; read < numberOfTriangles; read++) {
+            if (remove.get(read)) {
+                continue;
+            }
+            if (write != read) {
+                System.arraycopy(vertexIndices, read * 3, vertexIndices, write * 3, 3);
+                System.arraycopy(texCoordIndices, read * 3, texCoordIndices, write * 3, 3);
+                System.arraycopy(triangleNormals, read * 3, triangleNormals, write * 3, 3);
+                System.arraycopy(triangleColors, read * 4, triangleColors, write * 4, 4);
+            }
+            write++;
+        }
+        int removed = numberOfTriangles - write;
+        numberOfTriangles = write;
+        return removed;
+    }
+
+    /**
+     * Remove all vertices which are not referenced by any triangle, remap the
+     * triangle indices. Returns the number of removed vertices.
+     */
+    public int removeUnreferencedVertices() {
+        checkWritable();
+        int[] newIndex = new int[numberOfVertices];
+        Arrays.fill(newIndex, -1);
+        for (int i = 0; i < numberOfTriangles * 3; i++) {
+            newIndex[vertexIndices[i]] = 0;
+        }
+        int remaining = 0;
+        for (int v = 0; v < numberOfVertices; v++) {
+            if (newIndex[v] >= 0) {
+                newIndex[v] = remaining++;
+            }
+        }
+        if (remaining == numberOfVertices) {
+            // Keep the cached bounds and connectivity
+            return 0;
+        }
+        modifyTriangles();
+        topologyChanged();
+        positionsChanged();
+        // Shared arrays are not copied but compacted into new arrays
+        float[] newPositions = verticesShared ? new float[Math.max(remaining, INITIAL_CAPACITY) * 3] : positions;
+        float[] newNormals = verticesShared ? new float[newPositions.length] : normals;
+        float[] newColors = verticesShared ? new float[newPositions.length / 3 * 4] : colors;
+        for (int read = 0; read < numberOfVertices; read++) {
+            int write = newIndex[read];
+            if (write < 0 || (write == read && !verticesShared)) {
+                continue;
+            }
+            System.arraycopy(positions, read * 3, newPositions, write * 3, 3);
+            System.arraycopy(normals, read * 3, newNormals, write * 3, 3);
+            System.arraycopy(colors, read * 4, newColors, write * 4, 4);
+        }
+        positions = newPositions;
+        normals = newNormals;
+        colors = newColors;
+        verticesShared = false;
+        for (int i = 0; i < numberOfTriangles * 3; i++) {
+            vertexIndices[i] = newIndex[vertexIndices[i]];
+        }
+        int removed = numberOfVertices - remaining;
+        numberOfVertices = remaining;
+        return removed;
+    }
+
+    /**
+     * Merge all vertices which lie within epsilon of each other (epsilon 0:
+     * equal positions). Merged vertices keep the attributes of the vertex with
+     * the smallest index; triangles which become degenerate are removed.
+     * Returns the number of removed vertices.
+     */
+    public int weldVertices(float epsilon) {
+        return MeshWelding.weld(this, epsilon);
+    }
+
+    /**
+     * Replace each vertex v by target[v] (target[v] <= v, target[target[v]] ==
+     * target[v]), compact the vertex arrays and remove degenerate triangles.
+     * Returns the number of removed vertices.
+     */
+    int mergeVertices(int[] target) {
+        modifyVertices();
+        modifyTriangles();
+        topologyChanged();
+        positionsChanged();
+        int[] newIndex = new int[numberOfVertices];
+        int write = 0;
+        for (int read = 0; read < numberOfVertices; read++) {
+            if (target[read] != read) {
+                newIndex[read] = newIndex[target[read]];
+                continue;
+            }
+            if (write != read) {
+                System.arraycopy(positions, read * 3, positions, write * 3, 3);
+                System.arraycopy(normals, read * 3, normals, write * 3, 3);
+                System.arraycopy(colors, read * 4, colors, write * 4, 4);
+            }
+            newIndex[read] = write++;
+        }
+        BitSet degenerate = new BitSet(numberOfTriangles);
+        for (int t = 0; t < numberOfTriangles; t++) {
+            int a = vertexIndices[t * 3] = newIndex[vertexIndices[t * 3]];
+            int b = vertexIndices[t * 3 + 1] = newIndex[vertexIndices[t * 3 + 1]];
+            int c = vertexIndices[t * 3 + 2] = newIndex[vertexIndices[t * 3 + 2]];
+            if (a == b || b == c || a == c) {
+                degenerate.set(t);
+            }
+        }
+        int removed = numberOfVertices - write;
+        numberOfVertices = write;
+        removeTriangles(degenerate);
+        return removed;
+    }
+
+    /**
+     * Reorder the triangles: triangle i of the result is the previous triangle
+     * order[i].
+     */
+    void reorderTriangles(int[] order) {
+        checkWritable();
+        topologyChanged();
+        int[] newVertexIndices = new int[vertexIndices.length];
+        int[] newTexCoordIndices = new int[texCoordIndices.length];
+        float[] newTriangleNormals = new float[triangleNormals.length];
+        float[] newTriangleColors = new float[triangleColors.length];
+        for (int i = 0; i < numberOfTriangles; i++) {
+            int t = order[i];
+            System.arraycopy(vertexIndices, t * 3, newVertexIndices, i * 3, 3);
+            System.arraycopy(texCoordIndices, t * 3, newTexCoordIndices, i * 3, 3);
+            System.arraycopy(triangleNormals, t * 3, newTriangleNormals, i * 3, 3);
+            System.arraycopy(triangleColors, t * 4, newTriangleColors, i * 4, 4);
+        }
+        vertexIndices = newVertexIndices;
+        texCoordIndices = newTexCoordIndices;
+        triangleNormals = newTriangleNormals;
+        triangleColors = newTriangleColors;
+        trianglesShared = false;
     }
 
     /**
-     * Compute and return the AABB bounding box of the vertices.
+     * Reorder the vertices: vertex v moves to newIndex[v] (a permutation), the
+     * triangle indices are remapped.
+     */
+    void reorderVertices(int[] newIndex) {
+        modifyTriangles();
+        topologyChanged();
+        float[] newPositions = new float[positions.length];
+        float[] newNormals = new float[normals.length];
+        float[] newColors = new float[colors.length];
+        for (int v = 0; v < numberOfVertices; v++) {
+            int w = newIndex[v];
+            System.arraycopy(positions, v * 3, newPositions, w * 3, 3);
+            System.arraycopy(normals, v * 3, newNormals, w * 3, 3);
+            System.arraycopy(colors, v * 4, newColors, w * 4, 4);
+        }
+        positions = newPositions;
+        normals = newNormals;
+        colors = newColors;
+        verticesShared = false;
+        for (int i = 0; i < numberOfTriangles * 3; i++) {
+            vertexIndices[i] = newIndex[vertexIndices[i]];
+        }
+    }
+
+    /**
+     * Return the AABB bounding box of the vertices. The box is cached and
+     * maintained incrementally on addVertex, translation and scaling; other
+     * position changes cause a (parallel) recomputation on the next call.
      */
     public AxisAlignedBoundingBox getBoundingBox() {
-        if (vertices.size() == 0) {
+        if (numberOfVertices == 0) {
             return null;
         }
-        AxisAlignedBoundingBox bb = new AxisAlignedBoundingBox();
-        for (Vertex v : vertices) {
-            bb.add(v.getPosition());
+        if (!boundsValid) {
+            computeBounds();
         }
+        AxisAlignedBoundingBox bb = new AxisAlignedBoundingBox();
+        bb.add(new Vector3f(bounds[0], bounds[1], bounds[2]));
+        bb.add(new Vector3f(bounds[3], bounds[4], bounds[5]));
         return bb;
     }
 
+    /**
+     * Recompute the cached bounding box from all vertices, per-chunk boxes are
+     * computed in parallel.
+     */
+    private void computeBounds() {
+        int chunks = Parallel.numberOfChunks(numberOfVertices);
+        float[] chunkBounds = new float[chunks * 6];
+        Parallel.forChunks(numberOfVertices, chunks, (chunk, from, to) -> {
+            float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+            float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+            for (int i = from * 3; i < to * 3; i += 3) {
+                minX = Math.min(minX, positions[i]);
+                minY = Math.min(minY, positions[i + 1]);
+                minZ = Math.min(minZ, positions[i + 2]);
+                maxX = Math.max(maxX, positions[i]);
+                maxY = Math.max(maxY, positions[i + 1]);
+                maxZ = Math.max(maxZ, positions[i + 2]);
+            }
+            int c = chunk * 6;
+            chunkBounds[c] = minX;
+            chunkBounds[c + 1] = minY;
+            chunkBounds[c + 2] = minZ;
+            chunkBounds[c + 3] = maxX;
+            chunkBounds[c + 4] = maxY;
+            chunkBounds[c + 5] = maxZ;
+        });
+        System.arraycopy(chunkBounds, 0, bounds, 0, 6);
+        for (int c = 6; c < chunks * 6; c += 6) {
+            for (int i = 0; i < 3; i++) {
+                bounds[i] = Math.min(bounds[i], chunkBounds[c + i]);
+                bounds[i + 3] = Math.max(bounds[i + 3], chunkBounds[c + i + 3]);
+            }
+        }
+        boundsValid = true;
+    }
+
+    /**
+     * Must be called on each change of vertex positions which is not tracked
+     * by the incremental bounding box updates.
+     */
+    void positionsChanged() {
+        boundsValid = false;
+        boundingVolumeHierarchyNeedsRefit = true;
+    }
+
+    /**
+     * All vertices have been moved by (x, y, z): update the cached bounds.
+     */
+    void boundsTranslated(float x, float y, float z) {
+        boundingVolumeHierarchyNeedsRefit = true;
+        bounds[0] += x;
+        bounds[1] += y;
+        bounds[2] += z;
+        bounds[3] += x;
+        bounds[4] += y;
+        bounds[5] += z;
+    }
+
+    /**
+     * All vertices have been scaled by the factor: update the cached bounds.
+     */
+    void boundsScaled(float scale) {
+        boundingVolumeHierarchyNeedsRefit = true;
+        if (numberOfVertices == 0) {
+            return;
+        }
+        for (int i = 0; i < 6; i++) {
+            bounds[i] *= scale;
+        }
+        if (scale < 0) {
+            for (int i = 0; i < 3; i++) {
+                float tmp = bounds[i];
+                bounds[i] = bounds[i + 3];
+                bounds[i + 3] = tmp;
+            }
+        }
+    }
+
+    /**
+     * Return the connectivity of the mesh. It is built on demand in linear time
+     * and cached until the triangles or the number of vertices change.
+     */
+    public MeshConnectivity getConnectivity() {
+        MeshConnectivity result = connectivity;
+        if (result == null) {
+            result = new MeshConnectivity(this);
+            connectivity = result;
+        }
+        return result;
+    }
+
+    /**
+     * Return the bounding volume hierarchy of the triangles for picking and
+     * proximity queries. It is built on demand, refitted after changes of the
+     * vertex positions and rebuilt after changes of the triangles.
+     */
+    public BoundingVolumeHierarchy getBoundingVolumeHierarchy() {
+        if (boundingVolumeHierarchy == null) {
+            boundingVolumeHierarchy = new BoundingVolumeHierarchy(this);
+        } else if (boundingVolumeHierarchyNeedsRefit) {
+            boundingVolumeHierarchy.refit();
+        }
+        boundingVolumeHierarchyNeedsRefit = false;
+        return boundingVolumeHierarchy;
+    }
+
+    /**
+     * Must be called on each change of the triangle indices or the number of
+     * vertices.
+     */
+    private void topologyChanged() {
+        connectivity = null;
+        boundingVolumeHierarchy = null;
+    }
+
     // +++ GETTER/SETTER +++++++++++++++++++++++
 
+    /**
+     * Return a view on the vertex: setters write through to the mesh, getters
+     * return copies.
+     */
     public Vertex getVertex(int index) {
-        return vertices.get(index);
+        Preconditions.checkElementIndex(index, numberOfVertices);
+        return new VertexView(index);
+    }
+
+    /**
+     * Write the position of the vertex into store (no allocation), return store.
+     */
+    public Vector3f getVertexPosition(int index, Vector3f store) {
+        return store.set(positions[index * 3], positions[index * 3 + 1],
+                positions[index * 3 + 2]);
+    }
+
+    public void setVertexPosition(int index, float x, float y, float z) {
+        modifyVertices();
+        positionsChanged();
+        positions[index * 3] = x;
+        positions[index * 3 + 1] = y;
+        positions[index * 3 + 2] = z;
     }
 
     public int getNumberOfTriangles() {
-        return triangles.size();
+        return numberOfTriangles;
     }
 
     public int getNumberOfVertices() {
-        return vertices.size();
+        return numberOfVertices;
     }
 
+    /**
+     * Return a view on the triangle: setters write through to the mesh,
+     * getters return copies.
+     */
     public Triangle getTriangle(int triangleIndex) {
-        return triangles.get(triangleIndex);
+        Preconditions.checkElementIndex(triangleIndex, numberOfTriangles);
+        return new TriangleView(triangleIndex);
     }
 
     public Vector2f getTextureCoordinate(int texCoordIndex) {
-        return textureCoordinates.get(texCoordIndex);
+        Preconditions.checkElementIndex(texCoordIndex, numberOfTextureCoordinates);
+        return new Vector2f(textureCoordinates[texCoordIndex * 2],
+                textureCoordinates[texCoordIndex * 2 + 1]);
     }
 
     public int getNumberOfTextureCoordinates() {
-        return textureCoordinates.size();
+        return numberOfTextureCoordinates;
+    }
+
+    /**
+     * Approximate memory used by the mesh arrays in bytes (allocated capacity,
+     * shared arrays are counted for each mesh).
+     */
+    public long getMemoryUsage() {
+        return (positions.length + normals.length + colors.length
+                + vertexIndices.length + texCoordIndices.length + triangleNormals.length
+                + triangleColors.length + textureCoordinates.length) * 4L;
     }
 
     public void setColor(ColorRGBA color) {
-        for (Triangle triangle : triangles) {
-            triangle.setColor(color);
+        modifyVertices();
+        modifyTriangles();
+        for (int i = 0; i < numberOfTriangles; i++) {
+            setColor(triangleColors, i, color);
         }
-        for (Vertex vertex : vertices) {
-            vertex.setColor(color);
+        for (int i = 0; i < numberOfVertices; i++) {
+            setColor(colors, i, color);
         }
     }
 
+    /**
+     * Write the color into the RGBA entry at the given index of the array.
+     */
+    private static void setColor(float[] colorArray, int index, ColorRGBA color) {
+        colorArray[index * 4] = color.r;
+        colorArray[index * 4 + 1] = color.g;
+        colorArray[index * 4 + 2] = color.b;
+        colorArray[index * 4 + 3] = color.a;
+    }
+
     public void setTextureName(String textureFilename) {
+        checkWritable();
         this.textureName = textureFilename;
     }
 
@@ -226,40 +974,266 @@ public class TriangleMesh {
     }
 
     /**
-     * Adds all content of the other mesh to the mesh.
+     * Adds all content of the other mesh to the mesh. The normals of the other
+     * mesh are copied, no recomputation is done.
      */
     public void unite(TriangleMesh mesh) {
         Preconditions.checkNotNull(mesh);
-        int vertexOffset = getNumberOfVertices();
-        int texCoordOffset = getNumberOfTextureCoordinates();
+        unite(Collections.singletonList(mesh), false);
+    }
 
-        // Vertices
-        for (int i = 0; i < mesh.getNumberOfVertices(); i++) {
-            addVertex(new Vertex(mesh.getVertex(i)));
-        }
-        // Texture coordinates
-        for (int i = 0; i < mesh.getNumberOfTextureCoordinates(); i++) {
-            addTextureCoordinate(new Vector2f(mesh.getTextureCoordinate(i)));
+    /**
+     * Adds all content of the other meshes to the mesh. The target arrays are
+     * sized once, the data is copied in bulk and the indices are offset in a
+     * single pass. If parallel is set, the meshes are copied concurrently
+     * (each into its own range of the arrays).
+     */
+    void unite(List<TriangleMesh> meshes, boolean parallel) {
+        int n = meshes.size();
+        int[] vertexOffsets = new int[n + 1];
+        int[] triangleOffsets = new int[n + 1];
+        int[] texCoordOffsets = new int[n + 1];
+        vertexOffsets[0] = numberOfVertices;
+        triangleOffsets[0] = numberOfTriangles;
+        texCoordOffsets[0] = numberOfTextureCoordinates;
+        for (int i = 0; i < n; i++) {
+            TriangleMesh mesh = meshes.get(i);
+            vertexOffsets[i + 1] = vertexOffsets[i] + mesh.numberOfVertices;
+            triangleOffsets[i + 1] = triangleOffsets[i] + mesh.numberOfTriangles;
+            texCoordOffsets[i + 1] = texCoordOffsets[i] + mesh.numberOfTextureCoordinates;
         }
+        modifyVertices();
+        modifyTriangles();
+        modifyTextureCoordinates();
+        ensureVertexCapacity(vertexOffsets[n]);
+        ensureTriangleCapacity(triangleOffsets[n]);
+        ensureTextureCoordinateCapacity(texCoordOffsets[n]);
+        topologyChanged();
 
-        // Add triangles, adjust offsets
-        for (int i = 0; i < mesh.getNumberOfTriangles(); i++) {
-            Triangle t = new Triangle(mesh.getTriangle(i));
-            t.addVertexIndexOffset(vertexOffset);
-            t.addTexCoordOffset(texCoordOffset);
-            addTriangle(t);
+        IntConsumer copy = i -> {
+            TriangleMesh mesh = meshes.get(i);
+            int v = vertexOffsets[i];
+            int t = triangleOffsets[i];
+            int tc = texCoordOffsets[i];
+            int numberOfVerticesToCopy = vertexOffsets[i + 1] - v;
+            int numberOfTrianglesToCopy = triangleOffsets[i + 1] - t;
+            System.arraycopy(mesh.positions, 0, positions, v * 3, numberOfVerticesToCopy * 3);
+            System.arraycopy(mesh.normals, 0, normals, v * 3, numberOfVerticesToCopy * 3);
+            System.arraycopy(mesh.colors, 0, colors, v * 4, numberOfVerticesToCopy * 4);
+            System.arraycopy(mesh.textureCoordinates, 0, textureCoordinates, tc * 2,
+                    (texCoordOffsets[i + 1] - tc) * 2);
+            System.arraycopy(mesh.triangleNormals, 0, triangleNormals, t * 3, numberOfTrianglesToCopy * 3);
+            System.arraycopy(mesh.triangleColors, 0, triangleColors, t * 4, numberOfTrianglesToCopy * 4);
+            for (int k = 0; k < numberOfTrianglesToCopy * 3; k++) {
+                vertexIndices[t * 3 + k] = mesh.vertexIndices[k] + v;
+                int texCoordIndex = mesh.texCoordIndices[k];
+                texCoordIndices[t * 3 + k] = texCoordIndex >= 0 ? texCoordIndex + tc : -1;
+            }
+        };
+        if (parallel) {
+            IntStream.range(0, n).parallel().forEach(copy);
+        } else {
+            for (int i = 0; i < n; i++) {
+                copy.accept(i);
+            }
         }
 
-        vertexOffset += mesh.getNumberOfVertices();
-        texCoordOffset += mesh.getNumberOfTextureCoordinates();
-
-        computeTriangleNormals();
+        for (TriangleMesh mesh : meshes) {
+            if (mesh.numberOfVertices == 0) {
+                continue;
+            }
+            if (boundsValid && mesh.boundsValid) {
+                for (int k = 0; k < 3; k++) {
+                    bounds[k] = Math.min(bounds[k], mesh.bounds[k]);
+                    bounds[k + 3] = Math.max(bounds[k + 3], mesh.bounds[k + 3]);
+                }
+            } else {
+                boundsValid = false;
+            }
+        }
+        numberOfVertices = vertexOffsets[n];
+        numberOfTriangles = triangleOffsets[n];
+        numberOfTextureCoordinates = texCoordOffsets[n];
     }
 
+    /**
+     * Flip the orientation of all triangles and recompute the triangle
+     * normals. Vertex normals are not changed.
+     */
     public void flipTriangleOrientation() {
-        for (Triangle triangle : triangles) {
-            triangle.flipOrientation();
+        modifyTriangles();
+        topologyChanged();
+        for (int i = 0; i < numberOfTriangles * 3; i += 3) {
+            int tmp = vertexIndices[i];
+            vertexIndices[i] = vertexIndices[i + 1];
+            vertexIndices[i + 1] = tmp;
+            tmp = texCoordIndices[i];
+            texCoordIndices[i] = texCoordIndices[i + 1];
+            texCoordIndices[i + 1] = tmp;
         }
         computeTriangleNormals();
     }
+
+    // +++ PACKED ARRAYS (package internal, valid up to the element counts) +++
+
+    float[] getPositions() {
+        return positions;
+    }
+
+    float[] getNormals() {
+        return normals;
+    }
+
+    float[] getColors() {
+        return colors;
+    }
+
+    int[] getVertexIndices() {
+        return vertexIndices;
+    }
+
+    int[] getTexCoordIndices() {
+        return texCoordIndices;
+    }
+
+    float[] getTriangleNormals() {
+        return triangleNormals;
+    }
+
+    float[] getTriangleColors() {
+        return triangleColors;
+    }
+
+    float[] getTextureCoordinates() {
+        return textureCoordinates;
+    }
+
+    /**
+     * Selects the constructors of Vertex and Triangle used by the views, which
+     * allocate no data of their own. Only the mesh can create it.
+     */
+    static final class ViewMarker {
+
+        private static final ViewMarker INSTANCE = new ViewMarker();
+
+        private ViewMarker() {
+        }
+    }
+
+    /**
+     * View on a vertex in the packed arrays of the mesh.
+     */
+    private class VertexView extends Vertex {
+
+        /**
+         * Index of the vertex in the mesh.
+         */
+        private final int index;
+
+        VertexView(int index) {
+            super(ViewMarker.INSTANCE);
+            this.index = index;
+        }
+
+        @Override
+        public Vector3f getPosition() {
+            return getVertexPosition(index, new Vector3f());
+        }
+
+        @Override
+        public void setPosition(Vector3f position) {
+            setVertexPosition(index, position.x, position.y, position.z);
+        }
+
+        @Override
+        public Vector3f getNormal() {
+            return new Vector3f(normals[index * 3], normals[index * 3 + 1],
+                    normals[index * 3 + 2]);
+        }
+
+        @Override
+        public void setNormal(Vector3f normal) {
+            modifyVertices();
+            normals[index * 3] = normal.x;
+            normals[index * 3 + 1] = normal.y;
+            normals[index * 3 + 2] = normal.z;
+        }
+
+        @Override
+        public ColorRGBA getColor() {
+            return new ColorRGBA(colors[index * 4], colors[index * 4 + 1],
+                    colors[index * 4 + 2], colors[index * 4 + 3]);
+        }
+
+        @Override
+        public void setColor(ColorRGBA color) {
+            modifyVertices();
+            TriangleMesh.setColor(colors, index, color);
+        }
+    }
+
+    /**
+     * View on a triangle in the packed arrays of the mesh.
+     */
+    private class TriangleView extends Triangle {
+
+        /**
+         * Index of the triangle in the mesh.
+         */
+        private final int index;
+
+        TriangleView(int index) {
+            super(ViewMarker.INSTANCE);
+            this.index = index;
+        }
+
+        @Override
+        public int getVertexIndex(int index) {
+            return vertexIndices[this.index * 3 + index];
+        }
+
+        @Override
+        public void setVertexIndex(int index, int vertexIndex) {
+            modifyTriangles();
+            topologyChanged();
+            vertexIndices[this.index * 3 + index] = vertexIndex;
+        }
+
+        @Override
+        public int getTextureCoordinate(int vertexInTriangleIndex) {
+            return TriangleMesh.this.texCoordIndices[index * 3 + vertexInTriangleIndex];
+        }
+
+        @Override
+        public void setTextureCoordinate(int vertexInTriangleIndex, int texCoordIndex) {
+            modifyTriangles();
+            TriangleMesh.this.texCoordIndices[index * 3 + vertexInTriangleIndex] = texCoordIndex;
+        }
+
+        @Override
+        public Vector3f getNormal() {
+            return new Vector3f(triangleNormals[index * 3],
+                    triangleNormals[index * 3 + 1], triangleNormals[index * 3 + 2]);
+        }
+
+        @Override
+        public void setNormal(Vector3f normal) {
+            modifyTriangles();
+            triangleNormals[index * 3] = normal.x;
+            triangleNormals[index * 3 + 1] = normal.y;
+            triangleNormals[index * 3 + 2] = normal.z;
+        }
+
+        @Override
+        public ColorRGBA getColor() {
+            return new ColorRGBA(triangleColors[index * 4], triangleColors[index * 4 + 1],
+                    triangleColors[index * 4 + 2], triangleColors[index * 4 + 3]);
+        }
+
+        @Override
+        public void setColor(ColorRGBA color) {
+            modifyTriangles();
+            TriangleMesh.setColor(triangleColors, index, color);
+        }
+    }
 }
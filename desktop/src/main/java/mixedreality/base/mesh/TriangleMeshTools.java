@@ -11,6 +11,7 @@ import com.jme3.material.Material;
 import com.jme3.material.RenderState;
 import com.jme3.math.ColorRGBA;
 import com.jme3.math.Matrix3f;
+import com.jme3.math.Matrix4f;
 import com.jme3.math.Vector2f;
 import com.jme3.math.Vector3f;
 import com.jme3.scene.Geometry;
@@ -21,6 +22,7 @@ import com.jme3.util.TangentBinormalGenerator;
 import math.MathF;
 import math.Matrices;
 
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -31,71 +33,64 @@ public class TriangleMeshTools {
    * Adds all content of the otherMesh to the meshBase.
    */
   public static void unite(TriangleMesh baseMesh, TriangleMesh otherMesh) {
-    int vertexOffset = baseMesh.getNumberOfVertices();
-    int texCoordOffset = baseMesh.getNumberOfTextureCoordinates();
-
-    // Vertices
-    for (int i = 0; i < otherMesh.getNumberOfVertices(); i++) {
-      baseMesh.addVertex(new Vertex(otherMesh.getVertex(i)));
-    }
-    for (int i = 0; i < otherMesh.getNumberOfTextureCoordinates(); i++) {
-      baseMesh.addTextureCoordinate(
-          new Vector2f(otherMesh.getTextureCoordinate(i)));
-    }
-    for (int i = 0; i < otherMesh.getNumberOfTriangles(); i++) {
-      Triangle t = new Triangle(otherMesh.getTriangle(i));
-      t.addVertexIndexOffset(vertexOffset);
-      t.addTexCoordOffset(texCoordOffset);
-      baseMesh.addTriangle(t);
-    }
+    baseMesh.unite(otherMesh);
   }
 
   /**
-   * Create a unified mesh from all meshes in the list. Not tested for meshes
-   * using textures.
+   * Create a unified mesh from all meshes in the list: the other meshes are
+   * added to the first one in a single bulk copy. Not tested for meshes using
+   * textures.
    */
   public static TriangleMesh unite(List<TriangleMesh> meshes) {
+    return unite(meshes, false);
+  }
 
+  /**
+   * Same as unite(), but copies the meshes concurrently. Pays off for many
+   * input meshes.
+   */
+  public static TriangleMesh uniteParallel(List<TriangleMesh> meshes) {
+    return unite(meshes, true);
+  }
+
+  private static TriangleMesh unite(List<TriangleMesh> meshes, boolean parallel) {
     if (meshes.size() == 0) {
       return null;
     }
-
     TriangleMesh mesh = meshes.get(0);
+    mesh.unite(meshes.subList(1, meshes.size()), parallel);
+    return mesh;
+  }
 
-    int vertexOffset = mesh.getNumberOfVertices();
-    int texCoordOffset = mesh.getNumberOfTextureCoordinates();
-    for (int meshIndex = 1; meshIndex < meshes.size(); meshIndex++) {
-      TriangleMesh m = meshes.get(meshIndex);
-      // Vertices
-      for (int i = 0; i < m.getNumberOfVertices(); i++) {
-        mesh.addVertex(new Vertex(m.getVertex(i)));
-      }
-      for (int i = 0; i < m.getNumberOfTextureCoordinates(); i++) {
-        mesh.addTextureCoordinate(new Vector2f(m.getTextureCoordinate(i)));
-      }
-      for (int i = 0; i < m.getNumberOfTriangles(); i++) {
-        Triangle t = new Triangle(m.getTriangle(i));
-        t.addVertexIndexOffset(vertexOffset);
-        t.addTexCoordOffset(texCoordOffset);
-        mesh.addTriangle(t);
-      }
-
-      vertexOffset += m.getNumberOfVertices();
-      texCoordOffset += m.getNumberOfTextureCoordinates();
-    }
+  /**
+   * Reorder the triangles of the mesh for the post-transform vertex cache of
+   * the GPU and the vertices in order of first use. Call before
+   * createJMonkeyMesh() for meshes which are rendered often.
+   */
+  public static void optimizeVertexCache(TriangleMesh mesh) {
+    VertexCacheOptimizer.optimize(mesh);
+  }
 
-    return mesh;
+  /**
+   * Average cache miss ratio (transformed vertices per triangle) of the mesh
+   * for a FIFO vertex cache of the given size.
+   */
+  public static float computeAcmr(TriangleMesh mesh, int cacheSize) {
+    return VertexCacheOptimizer.computeAcmr(mesh, cacheSize);
   }
 
   /**
    * Move all vertices with the offset vector (x, y, z)
    */
   public static void translate(TriangleMesh mesh, float x, float y, float z) {
-    for (int i = 0; i < mesh.getNumberOfVertices(); i++) {
-      Vertex v = mesh.getVertex(i);
-      v.getPosition().set(v.getPosition().x + x, v.getPosition().y + y,
-          v.getPosition().z + z);
+    mesh.modifyVertices();
+    float[] positions = mesh.getPositions();
+    for (int i = 0; i < mesh.getNumberOfVertices() * 3; i += 3) {
+      positions[i] += x;
+      positions[i + 1] += y;
+      positions[i + 2] += z;
     }
+    mesh.boundsTranslated(x, y, z);
   }
 
   /**
@@ -116,6 +111,22 @@ public class TriangleMeshTools {
     return mat;
   }
 
+  /**
+   * Shading used when uploading a triangle mesh to JMonkey.
+   */
+  public enum Shading {
+    /**
+     * Facet normals and triangle colors; vertices are shared between triangles
+     * only where all attributes agree (e.g. within planar regions).
+     */
+    FLAT,
+    /**
+     * Vertex normals and triangle colors; vertices are shared between all
+     * triangles using the same vertex, texture coordinate and color.
+     */
+    SMOOTH
+  }
+
   /**
    * Create a geometry object for a triangle mesh.
    */
@@ -123,67 +134,157 @@ public class TriangleMeshTools {
     return createJMonkeyMesh(assetManager, triangleMesh, triangleMesh.getTextureName(), null);
   }
 
+  /**
+   * Create a geometry object for a triangle mesh using the given shading.
+   */
+  public static Geometry createJMonkeyMesh(AssetManager assetManager, TriangleMesh triangleMesh,
+      Shading shading) {
+    return createJMonkeyMesh(assetManager, triangleMesh, triangleMesh.getTextureName(), null, shading);
+  }
+
   /**
    * Create a geometry object for a triangle mesh.
    */
   public static Geometry createJMonkeyMesh(AssetManager assetManager, TriangleMesh triangleMesh,
       String textureFilename, String normalMapFilename) {
-    Mesh mesh = new Mesh();
-    mesh.setMode(Mesh.Mode.Triangles);
+    return createJMonkeyMesh(assetManager, triangleMesh, textureFilename, normalMapFilename, Shading.FLAT);
+  }
 
-    int size = triangleMesh.getNumberOfTriangles() * 3;
-
-    float[] positionBuffer = new float[size * 3];
-    float[] colorBuffer = new float[size * 4];
-    float[] normalBuffer = new float[size * 3];
-    float[] texCoordsBuffer = new float[size * 2];
-    int[] indexBuffer = new int[size];
-
-    // Fill vertex and color buffer
-    for (int triangleIndex = 0; triangleIndex < triangleMesh.getNumberOfTriangles(); triangleIndex++) {
-
-      Triangle t = triangleMesh.getTriangle(triangleIndex);
-
-      for (int vertexInTriangleIndex = 0; vertexInTriangleIndex < 3; vertexInTriangleIndex++) {
-        int vertexIndex = t.getVertexIndex(vertexInTriangleIndex);
-        int texCoordIndex = t.getTextureCoordinate(vertexInTriangleIndex);
-        Vertex vertex = triangleMesh.getVertex(vertexIndex);
-        Vector3f pos = vertex.getPosition();
-        Vector3f normal = t.getNormal();
-        ColorRGBA color = t.getColor();
-        Vector2f texCoord = texCoordIndex >= 0 ? triangleMesh.getTextureCoordinate(texCoordIndex) : new Vector2f(0, 0);
-
-        // Position
-        positionBuffer[triangleIndex * 9 + vertexInTriangleIndex * 3] = pos.get(0);
-        positionBuffer[triangleIndex * 9 + vertexInTriangleIndex * 3 + 1] = pos.get(1);
-        positionBuffer[triangleIndex * 9 + vertexInTriangleIndex * 3 + 2] = pos.get(2);
-
-        // Normal
-        normalBuffer[triangleIndex * 9 + vertexInTriangleIndex * 3] = normal.get(0);
-        normalBuffer[triangleIndex * 9 + vertexInTriangleIndex * 3 + 1] = normal.get(1);
-        normalBuffer[triangleIndex * 9 + vertexInTriangleIndex * 3 + 2] = normal.get(2);
-
-        // Color
-        colorBuffer[triangleIndex * 12 + vertexInTriangleIndex * 4] = color.r;
-        colorBuffer[triangleIndex * 12 + vertexInTriangleIndex * 4 + 1] = color.g;
-        colorBuffer[triangleIndex * 12 + vertexInTriangleIndex * 4 + 2] = color.b;
-        colorBuffer[triangleIndex * 12 + vertexInTriangleIndex * 4 + 3] = color.a;
-
-        // Texture coords
-        texCoordsBuffer[triangleIndex * 6 + vertexInTriangleIndex * 2] = texCoord.x;
-        texCoordsBuffer[triangleIndex * 6 + vertexInTriangleIndex * 2 + 1] = texCoord.y;
+  /**
+   * Create an indexed JMonkey mesh from a triangle mesh. One render vertex is
+   * created per unique combination of vertex, texture coordinate, color and (in
+   * flat shading) facet normal. The index buffer uses 16 bit indices if
+   * possible. Smooth shading uses the vertex normals of the mesh, see
+   * TriangleMesh.computeVertexNormals().
+   */
+  public static Mesh createMesh(TriangleMesh triangleMesh, Shading shading) {
+    Preconditions.checkNotNull(shading);
+    int numberOfCorners = triangleMesh.getNumberOfTriangles() * 3;
+    int[] vertexIndices = triangleMesh.getVertexIndices();
+    int[] texCoordIndices = triangleMesh.getTexCoordIndices();
+    float[] triangleNormals = triangleMesh.getTriangleNormals();
+    float[] triangleColors = triangleMesh.getTriangleColors();
+    boolean flat = shading == Shading.FLAT;
+
+    // Find the unique corners (open addressing, table stores corner indices)
+    int tableSize = Integer.highestOneBit(Math.max(numberOfCorners, 1)) * 4;
+    int[] tableCorner = new int[tableSize];
+    int[] tableVertex = new int[tableSize];
+    Arrays.fill(tableCorner, -1);
+    int[] cornerToVertex = new int[numberOfCorners];
+    int[] vertexToCorner = new int[numberOfCorners];
+    int numberOfRenderVertices = 0;
+    for (int corner = 0; corner < numberOfCorners; corner++) {
+      int slot = hashCorner(corner, vertexIndices, texCoordIndices, triangleNormals,
+          triangleColors, flat) & (tableSize - 1);
+      while (tableCorner[slot] >= 0 && !equalCorners(tableCorner[slot], corner,
+          vertexIndices, texCoordIndices, triangleNormals, triangleColors, flat)) {
+        slot = (slot + 1) & (tableSize - 1);
       }
+      if (tableCorner[slot] < 0) {
+        tableCorner[slot] = corner;
+        tableVertex[slot] = numberOfRenderVertices;
+        vertexToCorner[numberOfRenderVertices++] = corner;
+      }
+      cornerToVertex[corner] = tableVertex[slot];
     }
-    for (int i = 0; i < size; i++) {
-      indexBuffer[i] = i;
+
+    // Fill the vertex buffers
+    float[] positions = triangleMesh.getPositions();
+    float[] normals = flat ? triangleNormals : triangleMesh.getNormals();
+    float[] textureCoordinates = triangleMesh.getTextureCoordinates();
+    float[] positionBuffer = new float[numberOfRenderVertices * 3];
+    float[] colorBuffer = new float[numberOfRenderVertices * 4];
+    float[] normalBuffer = new float[numberOfRenderVertices * 3];
+    float[] texCoordsBuffer = new float[numberOfRenderVertices * 2];
+    for (int i = 0; i < numberOfRenderVertices; i++) {
+      int corner = vertexToCorner[i];
+      int triangleIndex = corner / 3;
+      int vertexIndex = vertexIndices[corner];
+      int texCoordIndex = texCoordIndices[corner];
+      int normalIndex = flat ? triangleIndex : vertexIndex;
+      System.arraycopy(positions, vertexIndex * 3, positionBuffer, i * 3, 3);
+      System.arraycopy(normals, normalIndex * 3, normalBuffer, i * 3, 3);
+      System.arraycopy(triangleColors, triangleIndex * 4, colorBuffer, i * 4, 4);
+      if (texCoordIndex >= 0) {
+        System.arraycopy(textureCoordinates, texCoordIndex * 2, texCoordsBuffer, i * 2, 2);
+      }
     }
 
+    Mesh mesh = new Mesh();
+    mesh.setMode(Mesh.Mode.Triangles);
     mesh.setBuffer(VertexBuffer.Type.Position, 3, positionBuffer);
-    mesh.setBuffer(VertexBuffer.Type.Index, 1, indexBuffer);
+    if (numberOfRenderVertices <= 0xFFFF + 1) {
+      short[] indexBuffer = new short[numberOfCorners];
+      for (int i = 0; i < numberOfCorners; i++) {
+        indexBuffer[i] = (short) cornerToVertex[i];
+      }
+      mesh.setBuffer(VertexBuffer.Type.Index, 1, indexBuffer);
+    } else {
+      mesh.setBuffer(VertexBuffer.Type.Index, 1, cornerToVertex);
+    }
     mesh.setBuffer(VertexBuffer.Type.Color, 4, colorBuffer);
     mesh.setBuffer(VertexBuffer.Type.Normal, 3, normalBuffer);
     mesh.setBuffer(VertexBuffer.Type.TexCoord, 2, texCoordsBuffer);
     mesh.updateBound();
+    return mesh;
+  }
+
+  /**
+   * Hash of the attributes of a triangle corner which are uploaded to the GPU.
+   */
+  private static int hashCorner(int corner, int[] vertexIndices, int[] texCoordIndices,
+      float[] triangleNormals, float[] triangleColors, boolean flat) {
+    int triangleIndex = corner / 3;
+    int hash = vertexIndices[corner] * 31 + texCoordIndices[corner];
+    for (int i = 0; i < 4; i++) {
+      hash = hash * 31 + Float.floatToIntBits(triangleColors[triangleIndex * 4 + i]);
+    }
+    if (flat) {
+      for (int i = 0; i < 3; i++) {
+        hash = hash * 31 + Float.floatToIntBits(triangleNormals[triangleIndex * 3 + i]);
+      }
+    }
+    // Spread the bits, the table size is a power of two
+    hash = (hash ^ (hash >>> 16)) * 0x45d9f3b;
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * Checks if two triangle corners share all attributes which are uploaded to
+   * the GPU.
+   */
+  private static boolean equalCorners(int cornerA, int cornerB, int[] vertexIndices,
+      int[] texCoordIndices, float[] triangleNormals, float[] triangleColors, boolean flat) {
+    if (vertexIndices[cornerA] != vertexIndices[cornerB]
+        || texCoordIndices[cornerA] != texCoordIndices[cornerB]) {
+      return false;
+    }
+    int a = cornerA / 3;
+    int b = cornerB / 3;
+    for (int i = 0; i < 4; i++) {
+      if (Float.floatToIntBits(triangleColors[a * 4 + i])
+          != Float.floatToIntBits(triangleColors[b * 4 + i])) {
+        return false;
+      }
+    }
+    if (flat) {
+      for (int i = 0; i < 3; i++) {
+        if (Float.floatToIntBits(triangleNormals[a * 3 + i])
+            != Float.floatToIntBits(triangleNormals[b * 3 + i])) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Create a geometry object for a triangle mesh.
+   */
+  public static Geometry createJMonkeyMesh(AssetManager assetManager, TriangleMesh triangleMesh,
+      String textureFilename, String normalMapFilename, Shading shading) {
+    Mesh mesh = createMesh(triangleMesh, shading);
 
     Geometry geom = new Geometry("triangle mesh", mesh);
 
@@ -223,10 +324,11 @@ public class TriangleMeshTools {
   public static TriangleMesh makeArrow(Vector3f from, Vector3f to, ColorRGBA color) {
     float length = from.distance(to);
     TriangleMesh cylinderMesh = createArrow(1.0f);
-    TriangleMeshTools.scale(cylinderMesh, length);
     Matrix3f T = Matrices.makeCoordinateSystemWhereXIs(to.subtract(from).normalize());
-    TriangleMeshTools.transform(cylinderMesh, T);
-    TriangleMeshTools.translate(cylinderMesh, from);
+    // Scale, rotate and translate in a single pass
+    Matrix4f M = new Matrix4f();
+    M.setTransform(from, new Vector3f(length, length, length), T);
+    TriangleMeshTools.transform(cylinderMesh, M);
     cylinderMesh.setColor(color);
     return cylinderMesh;
   }
@@ -296,21 +398,104 @@ public class TriangleMeshTools {
    * Scale the mesh vertices using the given factor.
    */
   public static void scale(TriangleMesh mesh, float scale) {
-    for (int i = 0; i < mesh.getNumberOfVertices(); i++) {
-      Vertex v = mesh.getVertex(i);
-      Vector3f newPos = v.getPosition().mult(scale);
-      v.getPosition().set(newPos);
+    mesh.modifyVertices();
+    float[] positions = mesh.getPositions();
+    for (int i = 0; i < mesh.getNumberOfVertices() * 3; i++) {
+      positions[i] *= scale;
     }
+    mesh.boundsScaled(scale);
   }
 
   /**
    * Transform the mesh vertices using the given transformation matrix.
    */
   public static void transform(TriangleMesh mesh, Matrix3f t) {
-    for (int i = 0; i < mesh.getNumberOfVertices(); i++) {
-      Vertex v = mesh.getVertex(i);
-      Vector3f newPos = t.mult(v.getPosition());
-      v.getPosition().set(newPos);
+    Matrix4f M = new Matrix4f();
+    M.setTransform(Vector3f.ZERO, Vector3f.UNIT_XYZ, t);
+    transform(mesh, M);
+  }
+
+  /**
+   * Transform the mesh with the affine transformation matrix in a single pass
+   * over the vertices (in parallel for large meshes). Vertex and triangle
+   * normals are transformed with the inverse transpose of the linear part and
+   * renormalized.
+   */
+  public static void transform(TriangleMesh mesh, Matrix4f M) {
+    float m00 = M.m00, m01 = M.m01, m02 = M.m02, m03 = M.m03;
+    float m10 = M.m10, m11 = M.m11, m12 = M.m12, m13 = M.m13;
+    float m20 = M.m20, m21 = M.m21, m22 = M.m22, m23 = M.m23;
+    mesh.modifyVertices();
+    mesh.modifyTriangles();
+    float[] positions = mesh.getPositions();
+    Parallel.forRange(mesh.getNumberOfVertices(), (from, to) -> {
+      for (int i = from * 3; i < to * 3; i += 3) {
+        float x = positions[i];
+        float y = positions[i + 1];
+        float z = positions[i + 2];
+        positions[i] = m00 * x + m01 * y + m02 * z + m03;
+        positions[i + 1] = m10 * x + m11 * y + m12 * z + m13;
+        positions[i + 2] = m20 * x + m21 * y + m22 * z + m23;
+      }
+    });
+    mesh.positionsChanged();
+
+    Matrix3f N = normalMatrix(m00, m01, m02, m10, m11, m12, m20, m21, m22);
+    transformNormals(mesh.getNormals(), mesh.getNumberOfVertices(), N);
+    transformNormals(mesh.getTriangleNormals(), mesh.getNumberOfTriangles(), N);
+  }
+
+  /**
+   * Matrix for the normals: the inverse transpose of the linear part up to a
+   * positive factor, i.e. its cofactor matrix (negated if the determinant is
+   * negative). Unlike the inverse this needs no division by the determinant,
+   * so small scales and singular matrices keep usable normals. The cofactors
+   * are computed in double and scaled to a largest entry of 1 to avoid
+   * underflow.
+   */
+  private static Matrix3f normalMatrix(double m00, double m01, double m02,
+                                       double m10, double m11, double m12,
+                                       double m20, double m21, double m22) {
+    double[] c = {
+        m11 * m22 - m12 * m21, m12 * m20 - m10 * m22, m10 * m21 - m11 * m20,
+        m02 * m21 - m01 * m22, m00 * m22 - m02 * m20, m01 * m20 - m00 * m21,
+        m01 * m12 - m02 * m11, m02 * m10 - m00 * m12, m00 * m11 - m01 * m10
+    };
+    double determinant = m00 * c[0] + m01 * c[1] + m02 * c[2];
+    double max = 0;
+    for (double value : c) {
+      max = Math.max(max, Math.abs(value));
     }
+    double scale = (determinant < 0 ? -1 : 1) / (max > 0 ? max : 1);
+    return new Matrix3f((float) (c[0] * scale), (float) (c[1] * scale), (float) (c[2] * scale),
+        (float) (c[3] * scale), (float) (c[4] * scale), (float) (c[5] * scale),
+        (float) (c[6] * scale), (float) (c[7] * scale), (float) (c[8] * scale));
+  }
+
+  /**
+   * Multiply the first n normals in the packed array with the normal matrix
+   * and renormalize. Normals which the matrix maps to zero (singular linear
+   * part) are left unchanged.
+   */
+  private static void transformNormals(float[] normals, int n, Matrix3f N) {
+    float n00 = N.get(0, 0), n01 = N.get(0, 1), n02 = N.get(0, 2);
+    float n10 = N.get(1, 0), n11 = N.get(1, 1), n12 = N.get(1, 2);
+    float n20 = N.get(2, 0), n21 = N.get(2, 1), n22 = N.get(2, 2);
+    Parallel.forRange(n, (from, to) -> {
+      for (int i = from * 3; i < to * 3; i += 3) {
+        float x = normals[i];
+        float y = normals[i + 1];
+        float z = normals[i + 2];
+        float nx = n00 * x + n01 * y + n02 * z;
+        float ny = n10 * x + n11 * y + n12 * z;
+        float nz = n20 * x + n21 * y + n22 * z;
+        float norm = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (norm > 0) {
+          normals[i] = nx / norm;
+          normals[i + 1] = ny / norm;
+          normals[i + 2] = nz / norm;
+        }
+      }
+    });
   }
 }
@@ -45,20 +45,39 @@ public class Vertex {
   }
 
   public Vertex(Vertex vertex) {
-    this(vertex.position, vertex.normal, new ColorRGBA(vertex.color));
+    this(vertex.getPosition(), vertex.getNormal(), vertex.getColor());
+  }
+
+  /**
+   * Used by the views handed out by {@link TriangleMesh}, which keep their
+   * data in the packed arrays of the mesh and override all accessors.
+   */
+  Vertex(TriangleMesh.ViewMarker marker) {
   }
 
   @Override
   public String toString() {
-    return position.toString();
+    return getPosition().toString();
   }
 
   // +++ GETTER/SETTER ++++++++++++++++++++++++++
 
+  /**
+   * The vertices of a {@link TriangleMesh} return a copy, use setPosition() to
+   * change the position.
+   */
   public Vector3f getPosition() {
     return position;
   }
 
+  public void setPosition(Vector3f position) {
+    this.position.set(position);
+  }
+
+  /**
+   * The vertices of a {@link TriangleMesh} return a copy, use setNormal() to
+   * change the normal.
+   */
   public Vector3f getNormal() {
     return normal;
   }
@@ -67,6 +86,10 @@ public class Vertex {
     this.normal = normal;
   }
 
+  /**
+   * The vertices of a {@link TriangleMesh} return a copy, use setColor() to
+   * change the color.
+   */
   public ColorRGBA getColor() {
     return color;
   }
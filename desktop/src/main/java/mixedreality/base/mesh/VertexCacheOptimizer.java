@@ -0,0 +1,203 @@
+/**
+ * Diese Datei ist Teil des Vorgabeframeworks für die Veranstaltung "Mixed Reality"
+ * <p>
+ * Prof. Dr. Philipp Jenke, Hochschule für Angewandte Wissenschaften Hamburg.
+ */
+
+package mixedreality.base.mesh;
+
+import java.util.Arrays;
+
+/**
+ * Reorders the triangles of a mesh for the post-transform vertex cache of the
+ * GPU (Tom Forsyth, "Linear-Speed Vertex Cache Optimisation") and afterwards
+ * the vertices in order of their first use for better fetch locality.
+ */
+final class VertexCacheOptimizer {
+
+    /**
+     * Size of the simulated LRU cache used for scoring.
+     */
+    private static final int CACHE_SIZE = 32;
+
+    private static final float CACHE_DECAY_POWER = 1.5f;
+    private static final float LAST_TRIANGLE_SCORE = 0.75f;
+    private static final float VALENCE_BOOST_SCALE = 2.0f;
+    private static final float VALENCE_BOOST_POWER = 0.5f;
+
+    /**
+     * Precomputed score parts for each cache position and small numbers of
+     * remaining triangles.
+     */
+    private static final float[] CACHE_POSITION_SCORE = new float[CACHE_SIZE];
+    private static final float[] VALENCE_SCORE = new float[64];
+
+    static {
+        for (int i = 0; i < CACHE_SIZE; i++) {
+            // The vertices of the last triangle get a fixed score
+            CACHE_POSITION_SCORE[i] = i < 3 ? LAST_TRIANGLE_SCORE
+                    : (float) Math.pow(1.0f - (i - 3) / (float) (CACHE_SIZE - 3), CACHE_DECAY_POWER);
+        }
+        for (int i = 1; i < VALENCE_SCORE.length; i++) {
+            VALENCE_SCORE[i] = VALENCE_BOOST_SCALE * (float) Math.pow(i, -VALENCE_BOOST_POWER);
+        }
+    }
+
+    private VertexCacheOptimizer() {
+    }
+
+    /**
+     * Reorder triangles and vertices of the mesh.
+     */
+    static void optimize(TriangleMesh mesh) {
+        mesh.reorderTriangles(computeTriangleOrder(mesh));
+        mesh.reorderVertices(computeFirstUseOrder(mesh));
+    }
+
+    /**
+     * Greedy triangle order: always emit the triangle with the highest score,
+     * where the score of a vertex rewards recent cache use and few remaining
+     * triangles.
+     */
+    private static int[] computeTriangleOrder(TriangleMesh mesh) {
+        int numberOfTriangles = mesh.getNumberOfTriangles();
+        int numberOfVertices = mesh.getNumberOfVertices();
+        int[] vertexIndices = mesh.getVertexIndices();
+        MeshConnectivity connectivity = mesh.getConnectivity();
+        int[] offsets = connectivity.getTriangleOffsets();
+        int[] incidentTriangles = connectivity.getIncidentTriangles();
+
+        int[] remaining = new int[numberOfVertices];
+        float[] vertexScore = new float[numberOfVertices];
+        for (int v = 0; v < numberOfVertices; v++) {
+            remaining[v] = offsets[v + 1] - offsets[v];
+            vertexScore[v] = score(-1, remaining[v]);
+        }
+
+        boolean[] emitted = new boolean[numberOfTriangles];
+        int[] order = new int[numberOfTriangles];
+        // LRU cache, three extra slots for the vertices pushed out by a triangle
+        int[] cache = new int[CACHE_SIZE + 3];
+        int[] newCache = new int[CACHE_SIZE + 3];
+        int cacheSize = 0;
+        int nextUnemitted = 0;
+        int best = -1;
+        for (int i = 0; i < numberOfTriangles; i++) {
+            if (best < 0) {
+                // Dead end: continue with the first triangle not yet emitted
+                while (emitted[nextUnemitted]) {
+                    nextUnemitted++;
+                }
+                best = nextUnemitted;
+            }
+            order[i] = best;
+            emitted[best] = true;
+
+            // Move the vertices of the triangle to the front of the cache
+            int newCacheSize = 0;
+            for (int k = 0; k < 3; k++) {
+                int v = vertexIndices[best * 3 + k];
+                newCache[newCacheSize++] = v;
+                remaining[v]--;
+            }
+            for (int k = 0; k < cacheSize; k++) {
+                int v = cache[k];
+                if (v != newCache[0] && v != newCache[1] && v != newCache[2]) {
+                    newCache[newCacheSize++] = v;
+                }
+            }
+            int[] tmp = cache;
+            cache = newCache;
+            newCache = tmp;
+            cacheSize = Math.min(newCacheSize, CACHE_SIZE);
+            for (int k = CACHE_SIZE; k < newCacheSize; k++) {
+                // Pushed out of the cache
+                vertexScore[cache[k]] = score(-1, remaining[cache[k]]);
+            }
+
+            // Update the scores of all cached vertices and find the best next
+            // triangle among their remaining triangles
+            best = -1;
+            float bestScore = -1;
+            for (int k = 0; k < cacheSize; k++) {
+                vertexScore[cache[k]] = score(k, remaining[cache[k]]);
+            }
+            for (int k = 0; k < cacheSize; k++) {
+                int v = cache[k];
+                for (int j = offsets[v]; j < offsets[v + 1]; j++) {
+                    int t = incidentTriangles[j];
+                    if (emitted[t]) {
+                        continue;
+                    }
+                    float s = vertexScore[vertexIndices[t * 3]] + vertexScore[vertexIndices[t * 3 + 1]]
+                            + vertexScore[vertexIndices[t * 3 + 2]];
+                    if (s > bestScore) {
+                        bestScore = s;
+                        best = t;
+                    }
+                }
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Forsyth's vertex score for the given LRU cache position (-1: not cached)
+     * and number of remaining triangles.
+     */
+    private static float score(int cachePosition, int remainingTriangles) {
+        if (remainingTriangles == 0) {
+            return -1;
+        }
+        float score = cachePosition >= 0 ? CACHE_POSITION_SCORE[cachePosition] : 0;
+        return score + (remainingTriangles < VALENCE_SCORE.length ? VALENCE_SCORE[remainingTriangles]
+                : VALENCE_BOOST_SCALE * (float) Math.pow(remainingTriangles, -VALENCE_BOOST_POWER));
+    }
+
+    /**
+     * New vertex indices in order of the first reference by a triangle;
+     * unreferenced vertices are moved to the end.
+     */
+    private static int[] computeFirstUseOrder(TriangleMesh mesh) {
+        int numberOfVertices = mesh.getNumberOfVertices();
+        int[] vertexIndices = mesh.getVertexIndices();
+        int[] newIndex = new int[numberOfVertices];
+        Arrays.fill(newIndex, -1);
+        int next = 0;
+        for (int i = 0; i < mesh.getNumberOfTriangles() * 3; i++) {
+            if (newIndex[vertexIndices[i]] < 0) {
+                newIndex[vertexIndices[i]] = next++;
+            }
+        }
+        for (int v = 0; v < numberOfVertices; v++) {
+            if (newIndex[v] < 0) {
+                newIndex[v] = next++;
+            }
+        }
+        return newIndex;
+    }
+
+    /**
+     * Average cache miss ratio: vertex transforms per triangle for a FIFO
+     * cache of the given size (between 0.5 and 3, lower is better).
+     */
+    static float computeAcmr(TriangleMesh mesh, int cacheSize) {
+        int numberOfTriangles = mesh.getNumberOfTriangles();
+        if (numberOfTriangles == 0) {
+            return 0;
+        }
+        int[] vertexIndices = mesh.getVertexIndices();
+        // Time stamp of the insertion into the FIFO, a vertex is cached if it
+        // was inserted less than cacheSize insertions ago
+        int[] insertedAt = new int[mesh.getNumberOfVertices()];
+        Arrays.fill(insertedAt, Integer.MIN_VALUE / 2);
+        int insertions = 0;
+        for (int i = 0; i < numberOfTriangles * 3; i++) {
+            int v = vertexIndices[i];
+            if (insertions - insertedAt[v] > cacheSize) {
+                insertedAt[v] = insertions++;
+            }
+        }
+        return (float) insertions / numberOfTriangles;
+    }
+}
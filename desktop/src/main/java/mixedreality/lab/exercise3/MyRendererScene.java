@@ -14,6 +14,7 @@ import com.jme3.math.Vector4f;
 
 import mixedreality.base.mesh.ObjReader;
 import mixedreality.base.mesh.TriangleMesh;
+import misc.Logger;
 import ui.Scene2D;
 
 import javax.swing.*;
@@ -32,6 +33,16 @@ public class MyRendererScene extends Scene2D {
    */
   protected TriangleMesh mesh;
 
+  /**
+   * Fraction of the mesh file read so far, shown until the mesh is available.
+   */
+  protected volatile float loadingProgress;
+
+  /**
+   * Error message if the mesh could not be loaded, null otherwise.
+   */
+  protected String loadingError;
+
   /**
    * Virtual camera.
    */
@@ -50,9 +61,23 @@ public class MyRendererScene extends Scene2D {
     backfaceCulling = true;
     lastMousePosition = null;
 
+    // The mesh is loaded in the background, the scene shows the progress
+    // until it is available
     ObjReader reader = new ObjReader();
-    // mesh = reader.read("models/cube.obj");
-    mesh = reader.read("models/deer.obj");
+    // reader.readAsync("models/cube.obj")
+    reader.readAsync("models/deer.obj", (bytes, totalBytes, lines) -> {
+      loadingProgress = totalBytes > 0 ? (float) bytes / totalBytes : 0;
+      repaint();
+    }).whenComplete((loadedMesh, error) -> SwingUtilities.invokeLater(() -> {
+      if (loadedMesh != null) {
+        mesh = loadedMesh;
+      } else {
+        loadingError = "Failed to load mesh models/deer.obj"
+            + (error != null ? ": " + error : "");
+        Logger.getInstance().error(loadingError);
+      }
+      repaint();
+    }));
 
     setupListeners();
   }
@@ -64,6 +89,13 @@ public class MyRendererScene extends Scene2D {
 
     if (mesh != null) {
       handlePaint(g2);
+    } else if (loadingError != null) {
+      g2.setColor(Color.RED);
+      g2.drawString(loadingError, 10, 20);
+    } else {
+      g2.setColor(Color.BLACK);
+      g2.drawString(String.format("Loading mesh ... %d%%",
+          (int) (loadingProgress * 100)), 10, 20);
     }
 
   }
@@ -7,13 +7,16 @@
 package mixedreality.lab.exercise7;
 
 import com.jme3.math.Vector3f;
+import mixedreality.base.mesh.MeshBuilder;
+import mixedreality.base.mesh.Triangle;
 import mixedreality.base.mesh.TriangleMesh;
-import mixedreality.base.mesh.TriangleMeshTools;
 import mixedreality.lab.exercise7.functions.ImplicitFunction;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.IntStream;
 
 /**
  * This class creates a triangle mesh for a given implicit function using the
@@ -84,54 +87,17 @@ public class MarchingCubes {
         return list;
     }
 
-    private boolean testIfLookupValid(Index8Bit index) {
-        int[] list = lookup(index);
-        for (int i = 0; i < list.length; i += 3) {
-            if (list[i] == -1 && list[i + 1] == -1 && list[i + 2] == -1) {
-                continue;
-            }
-            if (list[i] == -1 || list[i + 1] == -1 || list[i + 2] == -1) {
-                return false;
-            }
-        }
-        return true;
-    }
-
     /**
      * Return the required point on the edge provided by the edgeIndex.
      */
     protected Vector3f getEdgePoint(int edgeIndex, float[] values, float isoValue) {
-        if (edgeIndex == 0) {
-            return interpolate(0, 1, values, isoValue);
-        } else if (edgeIndex == 1) {
-            return interpolate(1, 2, values, isoValue);
-        } else if (edgeIndex == 2) {
-            return interpolate(2, 3, values, isoValue);
-        } else if (edgeIndex == 3) {
-            return interpolate(3, 0, values, isoValue);
-        } else if (edgeIndex == 4) {
-            return interpolate(4, 5, values, isoValue);
-        } else if (edgeIndex == 5) {
-            return interpolate(5, 6, values, isoValue);
-        } else if (edgeIndex == 6) {
-            return interpolate(6, 7, values, isoValue);
-        } else if (edgeIndex == 7) {
-            return interpolate(7, 4, values, isoValue);
-        } else if (edgeIndex == 8) {
-            return interpolate(0, 4, values, isoValue);
-        } else if (edgeIndex == 9) {
-            return interpolate(1, 5, values, isoValue);
-        } else if (edgeIndex == 10) {
-            return interpolate(3, 7, values, isoValue);
-        } else {
-            return interpolate(2, 6, values, isoValue);
-        }
+        return interpolate(EDGE_ENDPOINTS[edgeIndex * 2], EDGE_ENDPOINTS[edgeIndex * 2 + 1], values, isoValue);
     }
 
     /**
      * Generate a mesh for the complete domain: split domain into a structured
      * grid, tesselate all grid cells and unit all created triangles to a single
-     * mesh.
+     * mesh. The function is sampled once at each grid point (see ScalarGrid).
      */
 
     public TriangleMesh makeMesh(ImplicitFunction f, float isovalue, Vector3f ll, Vector3f ur, int resX, int resY,
@@ -142,81 +108,412 @@ public class MarchingCubes {
         float sizeY = (ur.y - ll.y) / resY;
         float sizeZ = (ur.z - ll.z) / resZ;
 
+        // Evaluate the function once per grid point
+        ScalarGrid grid = new ScalarGrid(ll, ur, resX, resY, resZ);
+        grid.sample(f);
+        float[] gridValues = grid.getValues();
+
+        // Offsets of the eight corners in the grid values
+        int[] cornerIndices = new int[8];
+        for (int c = 0; c < 8; c++) {
+            cornerIndices[c] = grid.getIndex(CORNER_OFFSETS[c * 3], CORNER_OFFSETS[c * 3 + 1],
+                    CORNER_OFFSETS[c * 3 + 2]);
+        }
+
+        // The cells are tesselated directly into the mesh, without temporary
+        // objects: the vertex positions are computed as by getMesh(), scaled
+        // with the cell size and moved to the lower left corner of the cell
+        float[] values = new float[8];
         for (int i = 0; i < resX; i++) {
             for (int j = 0; j < resY; j++) {
                 for (int k = 0; k < resZ; k++) {
-                    // Calculate the lower left point of the current subcube
-                    Vector3f subcubeLowerLeft = new Vector3f(
-                            ll.x + (i * sizeX),
-                            ll.y + (j * sizeY),
-                            ll.z + (k * sizeZ));
-
-                    // Calculate the 8 corner points of the current subcube
-                    Vector3f[] corner_points = new Vector3f[] {
-                            new Vector3f(subcubeLowerLeft.x, subcubeLowerLeft.y, subcubeLowerLeft.z), // x y z
-                            new Vector3f(subcubeLowerLeft.x + sizeX, subcubeLowerLeft.y, subcubeLowerLeft.z), // x+,y,z
-                            new Vector3f(subcubeLowerLeft.x + sizeX, subcubeLowerLeft.y, subcubeLowerLeft.z + sizeZ), // x+,y,z+
-                            new Vector3f(subcubeLowerLeft.x, subcubeLowerLeft.y, subcubeLowerLeft.z + sizeZ), // x,y,z+
-                            new Vector3f(subcubeLowerLeft.x, subcubeLowerLeft.y + sizeY, subcubeLowerLeft.z), // x,y+,z
-                            new Vector3f(subcubeLowerLeft.x + sizeX, subcubeLowerLeft.y + sizeY, subcubeLowerLeft.z), // x+,y+,z
-                            new Vector3f(subcubeLowerLeft.x + sizeX, subcubeLowerLeft.y + sizeY,
-                                    subcubeLowerLeft.z + sizeZ), // x+,y+,z+
-                            new Vector3f(subcubeLowerLeft.x, subcubeLowerLeft.y + sizeY, subcubeLowerLeft.z + sizeZ) // x,y+,z+
-                    };
-
-                    // Compute function values for the eight corners
-                    float[] values = new float[8];
-                    for (int i_v = 0; i_v < 8; i_v++) {
-                        values[i_v] = f.eval(corner_points[i_v]);
+                    int base = grid.getIndex(i, j, k);
+                    for (int c = 0; c < 8; c++) {
+                        values[c] = gridValues[base + cornerIndices[c]];
                     }
+                    int indexValue = getIndexValue(values, isovalue);
+                    if (EDGE_MASKS[indexValue] == 0) {
+                        continue;
+                    }
+
+                    float llX = ll.x + (i * sizeX);
+                    float llY = ll.y + (j * sizeY);
+                    float llZ = ll.z + (k * sizeZ);
+                    for (int t = indexValue * 15; t < indexValue * 15 + 15 && faces[t] >= 0; t += 3) {
+                        int vertexIndex1 = addEdgePoint(mesh, faces[t], values, isovalue, sizeX, llX, llY, llZ);
+                        int vertexIndex2 = addEdgePoint(mesh, faces[t + 1], values, isovalue, sizeX, llX, llY, llZ);
+                        int vertexIndex3 = addEdgePoint(mesh, faces[t + 2], values, isovalue, sizeX, llX, llY, llZ);
+                        mesh.addTriangle(vertexIndex1, vertexIndex2, vertexIndex3);
+                    }
+                }
+            }
+        }
+        mesh.computeTriangleNormals();
+        System.out.println("Number of triangles: " + mesh.getNumberOfTriangles());
+        assert (mesh.testComputeTriangleNormals());
+        return mesh;
+    }
+
+    /**
+     * Add the point on the edge of a cell (see getEdgePoint()), scaled and
+     * moved to the cell corner, return the index of the vertex.
+     */
+    private int addEdgePoint(TriangleMesh mesh, int edgeIndex, float[] values, float isoValue,
+                             float scale, float llX, float llY, float llZ) {
+        int a = EDGE_ENDPOINTS[edgeIndex * 2];
+        int b = EDGE_ENDPOINTS[edgeIndex * 2 + 1];
+        float lambda = (isoValue - values[a]) / (values[b] - values[a]);
+        Vector3f p = corners[a];
+        Vector3f q = corners[b];
+        return mesh.addVertex(
+                (p.x * (1.0f - lambda) + q.x * lambda) * scale + llX,
+                (p.y * (1.0f - lambda) + q.y * lambda) * scale + llY,
+                (p.z * (1.0f - lambda) + q.z * lambda) * scale + llZ);
+    }
 
-                    // Create the index and convert it to an Index8Bit object
-                    int indexValue = getIndexValue(values,
-                            isovalue);
-                    Index8Bit index = new Index8Bit();
-                    index.fromInt(indexValue);
+    /**
+     * Corner offsets (x, y, z) of the unit cube corners in grid cells.
+     */
+    private static final int[] CORNER_OFFSETS = {
+            0, 0, 0, 1, 0, 0, 1, 0, 1, 0, 0, 1, 0, 1, 0, 1, 1, 0, 1, 1, 1, 0, 1, 1
+    };
 
-                    assert (testIfLookupValid(index));
+    /**
+     * Corners of the 12 edges, in the order used by getEdgePoint().
+     */
+    private static final int[] EDGE_ENDPOINTS = {
+            0, 1, 1, 2, 2, 3, 3, 0, 4, 5, 5, 6, 6, 7, 7, 4, 0, 4, 1, 5, 3, 7, 2, 6
+    };
 
-                    // Generate the mesh for the current cube and add it to the main mesh
-                    Optional<TriangleMesh> cubeMesh = getMesh(index,
-                            values, isovalue);
+    /**
+     * Corners of the 12 edges, ordered along the grid axis (the first corner
+     * has the smaller grid coordinate).
+     */
+    private static final int[] EDGE_CORNERS = {
+            0, 1, 1, 2, 3, 2, 0, 3, 4, 5, 5, 6, 7, 6, 4, 7, 0, 4, 1, 5, 3, 7, 2, 6
+    };
 
-                    if (cubeMesh.isPresent()) {
-                        TriangleMesh current = cubeMesh.get();
+    /**
+     * Maximum number of grid points sampled at once by makeIndexedMesh(),
+     * larger grids are sampled into a rolling buffer of two z-slices per slab.
+     */
+    private static final long MAX_GRID_POINTS = 1 << 24;
 
-                        TriangleMeshTools.scale(current, sizeX);
-                        TriangleMeshTools.translate(current, subcubeLowerLeft);
+    /**
+     * Number of cell layers of a slab, the slabs are extracted in parallel.
+     * The number is fixed, so the mesh does not depend on the number of
+     * threads.
+     */
+    private static final int SLAB_LAYERS = 8;
 
-                        TriangleMeshTools.unite(mesh, current);
-                    }
+    /**
+     * Generate an indexed mesh for the complete domain. Works like makeMesh(),
+     * but neighboring cells share the vertices on their common edges: the
+     * vertex indices of the edges are cached for two z-slices of the grid
+     * (x- and y-edges in the lower and upper slice, z-edges in between), so
+     * each edge intersection is interpolated once and the triangles are added
+     * directly to a single mesh. Vertices are placed at the grid positions
+     * where the function is evaluated.
+     * <p>
+     * The grid is split into slabs of SLAB_LAYERS layers (in z-direction)
+     * which are extracted in parallel on the common fork/join pool and merged
+     * in order, the function must be thread-safe.
+     */
+    public TriangleMesh makeIndexedMesh(ImplicitFunction f, float isovalue, Vector3f ll, Vector3f ur,
+                                        int resX, int resY, int resZ) {
+        ScalarGrid grid = new ScalarGrid(ll, ur, resX, resY, resZ);
+        if ((long) grid.getSliceSize() * (resZ + 1) <= MAX_GRID_POINTS) {
+            grid.sample(f);
+            return makeIndexedMesh(grid, isovalue);
+        }
+        return extractSlabs(grid, isovalue, f);
+    }
+
+    /**
+     * Generate an indexed mesh for the isosurface of a sampled grid, see
+     * makeIndexedMesh(ImplicitFunction, ...).
+     */
+    public TriangleMesh makeIndexedMesh(ScalarGrid grid, float isovalue) {
+        return extractSlabs(grid, isovalue, null);
+    }
+
+    /**
+     * Extract the slabs in parallel and merge them. The values are taken from
+     * the grid if f is null, otherwise each slab samples its slices into a
+     * rolling buffer.
+     */
+    private TriangleMesh extractSlabs(ScalarGrid grid, float isovalue, ImplicitFunction f) {
+        int resZ = grid.getResZ();
+        int numberOfSlabs = (resZ + SLAB_LAYERS - 1) / SLAB_LAYERS;
+        LayerExtractor[] slabs = new LayerExtractor[numberOfSlabs];
+        MeshBuilder builder = new MeshBuilder();
+        IntStream.range(0, numberOfSlabs).parallel().forEach(slab -> {
+            int from = slab * SLAB_LAYERS;
+            int to = Math.min(from + SLAB_LAYERS, resZ);
+            LayerExtractor extractor = new LayerExtractor(grid, isovalue, builder.getBuffer(slab), from, to);
+            int sliceSize = grid.getSliceSize();
+            if (f == null) {
+                float[] values = grid.getValues();
+                for (int k = from; k < to; k++) {
+                    extractor.addLayer(values, k * sliceSize, (k + 1) * sliceSize, k);
+                }
+            } else {
+                // Only keep the values of the two slices of the current layer
+                float[] slices = new float[2 * sliceSize];
+                grid.sampleSlice(f, from, slices, 0);
+                for (int k = from; k < to; k++) {
+                    int lower = ((k - from) % 2) * sliceSize;
+                    int upper = sliceSize - lower;
+                    grid.sampleSlice(f, k + 1, slices, upper);
+                    extractor.addLayer(slices, lower, upper, k);
                 }
             }
-        }
+            slabs[slab] = extractor;
+        });
+
+        // Stitch: connect the triangles at the upper border of each slab to
+        // the vertices of the next slab, which follows in the merged mesh
+        IntStream.range(0, numberOfSlabs - 1).parallel().forEach(slab ->
+                slabs[slab].resolveUpperBorder(slabs[slab + 1]));
+        TriangleMesh mesh = builder.build();
         mesh.computeTriangleNormals();
-        System.out.println("Number of triangles: " + mesh.getNumberOfTriangles());
-        assert (mesh.testComputeTriangleNormals());
         return mesh;
     }
 
-    private int getIndexValue(float[] values, float isovalue) {
+    /**
+     * Creates the triangles of a slab of the grid layer by layer (in
+     * z-direction) and caches the vertex indices of the edges of the current
+     * layer.
+     * <p>
+     * The vertices on the slice between two slabs belong to the upper slab.
+     * The lower slab references them by a placeholder (-2 - (2 * slot + axis),
+     * axis 0: x-edge, 1: y-edge) until resolveUpperBorder() is called.
+     */
+    private class LayerExtractor {
+
+        private final ScalarGrid grid;
+        private final float isovalue;
+        private final TriangleMesh mesh;
+
+        /**
+         * Layers of the slab [from, to). If there is a next slab, the vertices
+         * on the upper slice of the last layer belong to it.
+         */
+        private final int from, to;
+
+        /**
+         * Vertex indices of the edges (-1: not computed yet); x-edges and
+         * y-edges of the lower and upper slice, z-edges between them. Released
+         * after the last layer.
+         */
+        private int[] lowerEdgesX, upperEdgesX, lowerEdgesY, upperEdgesY, edgesZ;
+
+        /**
+         * Vertex indices of the edges on the lower slice of the slab, only
+         * kept if there is a previous slab (which references them).
+         */
+        private int[] borderEdgesX, borderEdgesY;
+
+        /**
+         * Triangle corners (3 * triangle + corner) with a placeholder.
+         */
+        private int[] placeholderCorners = new int[64];
+        private int numberOfPlaceholderCorners = 0;
+
+        // Current cell: function values of the corners, vertex indices and
+        // positions of the edge intersections
+        private final float[] values = new float[8];
+        private final int[] edgeVertices = new int[12];
+        private final float[] edgePositions = new float[36];
+
+        LayerExtractor(ScalarGrid grid, float isovalue, TriangleMesh mesh, int from, int to) {
+            this.grid = grid;
+            this.isovalue = isovalue;
+            this.mesh = mesh;
+            this.from = from;
+            this.to = to;
+            int resX = grid.getResX();
+            int resY = grid.getResY();
+            lowerEdgesX = new int[resX * (resY + 1)];
+            upperEdgesX = new int[resX * (resY + 1)];
+            lowerEdgesY = new int[(resX + 1) * resY];
+            upperEdgesY = new int[(resX + 1) * resY];
+            edgesZ = new int[(resX + 1) * (resY + 1)];
+            Arrays.fill(upperEdgesX, -1);
+            Arrays.fill(upperEdgesY, -1);
+        }
+
+        /**
+         * Add the triangles of the cells between the z-slices k and k + 1,
+         * the slices start at the offsets lower and upper in sliceValues
+         * (layout of the slices as in ScalarGrid). All layers of the slab
+         * must be added in order.
+         */
+        void addLayer(float[] sliceValues, int lower, int upper, int k) {
+            // The upper slice of the previous layer is the lower one now
+            int[] edges = lowerEdgesX;
+            lowerEdgesX = upperEdgesX;
+            upperEdgesX = edges;
+            edges = lowerEdgesY;
+            lowerEdgesY = upperEdgesY;
+            upperEdgesY = edges;
+            Arrays.fill(upperEdgesX, -1);
+            Arrays.fill(upperEdgesY, -1);
+            Arrays.fill(edgesZ, -1);
+            boolean lastLayer = k == to - 1 && to < grid.getResZ();
+
+            int resX = grid.getResX();
+            int pointsX = resX + 1;
+            for (int j = 0; j < grid.getResY(); j++) {
+                for (int i = 0; i < resX; i++) {
+                    // Function values of the eight corners
+                    int p = j * pointsX + i;
+                    values[0] = sliceValues[lower + p];
+                    values[1] = sliceValues[lower + p + 1];
+                    values[2] = sliceValues[upper + p + 1];
+                    values[3] = sliceValues[upper + p];
+                    values[4] = sliceValues[lower + p + pointsX];
+                    values[5] = sliceValues[lower + p + pointsX + 1];
+                    values[6] = sliceValues[upper + p + pointsX + 1];
+                    values[7] = sliceValues[upper + p + pointsX];
+                    int indexValue = getIndexValue(values, isovalue);
+                    int edgeMask = EDGE_MASKS[indexValue];
+                    if (edgeMask == 0) {
+                        continue;
+                    }
+
+                    // Vertices on the intersected edges, then the triangles
+                    for (int remaining = edgeMask; remaining != 0; remaining &= remaining - 1) {
+                        int edge = Integer.numberOfTrailingZeros(remaining);
+                        edgeVertices[edge] = getEdgeVertex(edge, i, j, k, lastLayer);
+                    }
+                    for (int t = indexValue * 15; t < indexValue * 15 + 15 && faces[t] >= 0; t += 3) {
+                        addTriangle(faces[t], faces[t + 1], faces[t + 2]);
+                    }
+                }
+            }
+
+            if (k == from && from > 0) {
+                // Complete now: each intersected edge is used by a cell of the layer
+                borderEdgesX = lowerEdgesX.clone();
+                borderEdgesY = lowerEdgesY.clone();
+            }
+            if (k == to - 1) {
+                // Only the border is needed for stitching, the extractors of
+                // all slabs are kept until then
+                lowerEdgesX = null;
+                upperEdgesX = null;
+                lowerEdgesY = null;
+                upperEdgesY = null;
+                edgesZ = null;
+            }
+        }
+
+        /**
+         * Vertex index (or placeholder) of the intersection on an edge of the
+         * cell (i, j, k), the vertex is created if the edge is not in the
+         * cache. The position is stored in edgePositions.
+         */
+        private int getEdgeVertex(int edge, int i, int j, int k, boolean lastLayer) {
+            int a = EDGE_CORNERS[edge * 2];
+            int b = EDGE_CORNERS[edge * 2 + 1];
+            int di = CORNER_OFFSETS[a * 3];
+            int dj = CORNER_OFFSETS[a * 3 + 1];
+            int dk = CORNER_OFFSETS[a * 3 + 2];
+            float lambda = (isovalue - values[a]) / (values[b] - values[a]);
+            Vector3f ll = grid.getLowerLeft();
+            float x = ll.x + (i + di + lambda * (CORNER_OFFSETS[b * 3] - di)) * grid.getSizeX();
+            float y = ll.y + (j + dj + lambda * (CORNER_OFFSETS[b * 3 + 1] - dj)) * grid.getSizeY();
+            float z = ll.z + (k + dk + lambda * (CORNER_OFFSETS[b * 3 + 2] - dk)) * grid.getSizeZ();
+            edgePositions[edge * 3] = x;
+            edgePositions[edge * 3 + 1] = y;
+            edgePositions[edge * 3 + 2] = z;
+
+            int resX = grid.getResX();
+            int[] edges;
+            int slot;
+            int axis;
+            if (CORNER_OFFSETS[b * 3] != di) {
+                edges = dk == 0 ? lowerEdgesX : upperEdgesX;
+                slot = (j + dj) * resX + i;
+                axis = 0;
+            } else if (CORNER_OFFSETS[b * 3 + 1] != dj) {
+                edges = dk == 0 ? lowerEdgesY : upperEdgesY;
+                slot = j * (resX + 1) + i + di;
+                axis = 1;
+            } else {
+                edges = edgesZ;
+                slot = (j + dj) * (resX + 1) + i + di;
+                axis = 2;
+            }
+            if (edges[slot] == -1) {
+                if (lastLayer && dk == 1 && axis < 2) {
+                    edges[slot] = -2 - (2 * slot + axis);
+                } else {
+                    edges[slot] = mesh.addVertex(x, y, z);
+                }
+            }
+            return edges[slot];
+        }
+
+        /**
+         * Add the triangle between the intersections on the three edges of
+         * the current cell, unless two of its corners are at the same position
+         * (function value equal to the isovalue at a grid point).
+         */
+        private void addTriangle(int edgeA, int edgeB, int edgeC) {
+            if (samePosition(edgeA, edgeB) || samePosition(edgeB, edgeC) || samePosition(edgeC, edgeA)) {
+                return;
+            }
+            int triangle = mesh.addTriangle(edgeVertices[edgeA], edgeVertices[edgeB], edgeVertices[edgeC]);
+            addPlaceholderCorner(triangle, 0, edgeA);
+            addPlaceholderCorner(triangle, 1, edgeB);
+            addPlaceholderCorner(triangle, 2, edgeC);
+        }
+
+        private void addPlaceholderCorner(int triangle, int corner, int edge) {
+            if (edgeVertices[edge] < -1) {
+                if (numberOfPlaceholderCorners == placeholderCorners.length) {
+                    placeholderCorners = Arrays.copyOf(placeholderCorners, placeholderCorners.length * 2);
+                }
+                placeholderCorners[numberOfPlaceholderCorners++] = triangle * 3 + corner;
+            }
+        }
+
+        private boolean samePosition(int edgeA, int edgeB) {
+            return edgePositions[edgeA * 3] == edgePositions[edgeB * 3]
+                    && edgePositions[edgeA * 3 + 1] == edgePositions[edgeB * 3 + 1]
+                    && edgePositions[edgeA * 3 + 2] == edgePositions[edgeB * 3 + 2];
+        }
+
+        /**
+         * Replace the placeholders by the vertices of the next slab, whose
+         * vertices follow the vertices of this slab in the merged mesh.
+         */
+        void resolveUpperBorder(LayerExtractor next) {
+            int offset = mesh.getNumberOfVertices();
+            for (int n = 0; n < numberOfPlaceholderCorners; n++) {
+                Triangle triangle = mesh.getTriangle(placeholderCorners[n] / 3);
+                int corner = placeholderCorners[n] % 3;
+                int code = -2 - triangle.getVertexIndex(corner);
+                int[] border = (code & 1) == 0 ? next.borderEdgesX : next.borderEdgesY;
+                triangle.setVertexIndex(corner, offset + border[code >> 1]);
+            }
+            numberOfPlaceholderCorners = 0;
+        }
+    }
+
+    /**
+     * Configuration of a cell: bit i is set if the value at corner i is larger
+     * than the isovalue.
+     */
+    private static int getIndexValue(float[] values, float isovalue) {
         int indexValue = 0;
-        if (values[0] > isovalue)
-            indexValue += 1;
-        if (values[1] > isovalue)
-            indexValue += 2;
-        if (values[2] > isovalue)
-            indexValue += 4;
-        if (values[3] > isovalue)
-            indexValue += 8;
-        if (values[4] > isovalue)
-            indexValue += 16;
-        if (values[5] > isovalue)
-            indexValue += 32;
-        if (values[6] > isovalue)
-            indexValue += 64;
-        if (values[7] > isovalue)
-            indexValue += 128;
+        for (int i = 0; i < 8; i++) {
+            if (values[i] > isovalue) {
+                indexValue |= 1 << i;
+            }
+        }
         return indexValue;
     }
 
@@ -471,4 +768,18 @@ public class MarchingCubes {
             -1,
             -1, -1, -1, -1, -1, -1, -1 };
 
+    /**
+     * Intersected edges (bit i: edge i) for each configuration, 0 for the
+     * configurations without triangles. Declared after the lookup-table, which
+     * must be initialized first.
+     */
+    private static final int[] EDGE_MASKS = new int[256];
+
+    static {
+        for (int index = 0; index < 256; index++) {
+            for (int i = index * 15; i < index * 15 + 15 && faces[i] >= 0; i++) {
+                EDGE_MASKS[index] |= 1 << faces[i];
+            }
+        }
+    }
 }
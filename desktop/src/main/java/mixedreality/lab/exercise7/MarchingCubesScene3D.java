@@ -97,12 +97,15 @@ public class MarchingCubesScene3D extends Scene3D {
         rootNode.detachAllChildren();
 
         int res = 25;
-        TriangleMesh mesh = mc.makeMesh(f, 0,
+        TriangleMesh mesh = mc.makeIndexedMesh(f, 0,
                 new Vector3f(-1, -1, -1), new Vector3f(1, 1, 1),
                 res, res, res);
+        mesh.computeNormals();
+        TriangleMeshTools.optimizeVertexCache(mesh);
         mesh.setColor(ColorRGBA.Orange);
 
-        Geometry node = TriangleMeshTools.createJMonkeyMesh(assetManager, mesh);
+        Geometry node = TriangleMeshTools.createJMonkeyMesh(assetManager, mesh,
+                TriangleMeshTools.Shading.SMOOTH);
         rootNode.attachChild(node);
 
         cameraController.adjustViewTo(mesh.getBoundingBox());
@@ -0,0 +1,167 @@
+/**
+ * Diese Datei ist Teil des Vorgabeframeworks für die Veranstaltung "Mixed Reality"
+ * <p>
+ * Prof. Dr. Philipp Jenke, Hochschule für Angewandte Wissenschaften Hamburg.
+ */
+
+package mixedreality.lab.exercise7;
+
+import com.jme3.math.Vector3f;
+import mixedreality.lab.exercise7.functions.ImplicitFunction;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Values of an implicit function sampled at the points of a regular grid
+ * with resX x resY x resZ cells, i.e. (resX + 1) x (resY + 1) x (resZ + 1)
+ * points. Each point is evaluated once, the values can be used by several
+ * passes (e.g. marching cubes with different isovalues, gradients).
+ * <p>
+ * The values are stored in z-slices: value(i, j, k) is at
+ * k * getSliceSize() + j * (resX + 1) + i. Huge grids do not need to be
+ * sampled completely, single slices can be sampled into a rolling buffer.
+ */
+public class ScalarGrid {
+
+    /**
+     * Lower left corner of the domain.
+     */
+    private final Vector3f ll;
+
+    /**
+     * Number of cells in each direction.
+     */
+    private final int resX, resY, resZ;
+
+    /**
+     * Cell size in each direction.
+     */
+    private final float sizeX, sizeY, sizeZ;
+
+    /**
+     * Sampled function values, null if not sampled yet.
+     */
+    private float[] values;
+
+    public ScalarGrid(Vector3f ll, Vector3f ur, int resX, int resY, int resZ) {
+        this.ll = new Vector3f(ll);
+        this.resX = resX;
+        this.resY = resY;
+        this.resZ = resZ;
+        this.sizeX = (ur.x - ll.x) / resX;
+        this.sizeY = (ur.y - ll.y) / resY;
+        this.sizeZ = (ur.z - ll.z) / resZ;
+    }
+
+    /**
+     * Evaluate the function at all grid points. The value array is reused if
+     * the grid has been sampled before. The slices are sampled in parallel,
+     * the function must be thread-safe.
+     */
+    public void sample(ImplicitFunction f) {
+        if (values == null) {
+            values = new float[Math.multiplyExact(getSliceSize(), resZ + 1)];
+        }
+        float[] store = values;
+        IntStream.rangeClosed(0, resZ).parallel().forEach(k ->
+                sampleSlice(f, k, store, k * getSliceSize()));
+    }
+
+    /**
+     * Evaluate the function at the points of the z-slice k, the values are
+     * written to store starting at offset. The points are passed row by row
+     * to the batch evaluation of the function.
+     */
+    public void sampleSlice(ImplicitFunction f, int k, float[] store, int offset) {
+        int pointsX = resX + 1;
+        float[] x = new float[pointsX];
+        float[] y = new float[pointsX];
+        float[] z = new float[pointsX];
+        for (int i = 0; i < pointsX; i++) {
+            x[i] = ll.x + i * sizeX;
+        }
+        Arrays.fill(z, ll.z + k * sizeZ);
+        for (int j = 0; j <= resY; j++) {
+            Arrays.fill(y, ll.y + j * sizeY);
+            f.eval(x, y, z, pointsX, store, offset + j * pointsX);
+        }
+    }
+
+    /**
+     * Sampled values, see the class comment for the layout.
+     */
+    public float[] getValues() {
+        if (values == null) {
+            throw new IllegalStateException("Grid has not been sampled");
+        }
+        return values;
+    }
+
+    public float getValue(int i, int j, int k) {
+        return getValues()[getIndex(i, j, k)];
+    }
+
+    /**
+     * Index of the grid point in the value array.
+     */
+    public int getIndex(int i, int j, int k) {
+        return (k * (resY + 1) + j) * (resX + 1) + i;
+    }
+
+    /**
+     * Number of grid points in a z-slice.
+     */
+    public int getSliceSize() {
+        return Math.multiplyExact(resX + 1, resY + 1);
+    }
+
+    /**
+     * Position of the grid point.
+     */
+    public Vector3f getPosition(int i, int j, int k, Vector3f store) {
+        return store.set(ll.x + i * sizeX, ll.y + j * sizeY, ll.z + k * sizeZ);
+    }
+
+    /**
+     * Gradient of the function at a grid point, approximated with central
+     * differences (one-sided at the boundary).
+     */
+    public Vector3f getGradient(int i, int j, int k, Vector3f store) {
+        int i0 = Math.max(i - 1, 0), i1 = Math.min(i + 1, resX);
+        int j0 = Math.max(j - 1, 0), j1 = Math.min(j + 1, resY);
+        int k0 = Math.max(k - 1, 0), k1 = Math.min(k + 1, resZ);
+        return store.set(
+                (getValue(i1, j, k) - getValue(i0, j, k)) / ((i1 - i0) * sizeX),
+                (getValue(i, j1, k) - getValue(i, j0, k)) / ((j1 - j0) * sizeY),
+                (getValue(i, j, k1) - getValue(i, j, k0)) / ((k1 - k0) * sizeZ));
+    }
+
+    public Vector3f getLowerLeft() {
+        return ll;
+    }
+
+    public int getResX() {
+        return resX;
+    }
+
+    public int getResY() {
+        return resY;
+    }
+
+    public int getResZ() {
+        return resZ;
+    }
+
+    public float getSizeX() {
+        return sizeX;
+    }
+
+    public float getSizeY() {
+        return sizeY;
+    }
+
+    public float getSizeZ() {
+        return sizeZ;
+    }
+}
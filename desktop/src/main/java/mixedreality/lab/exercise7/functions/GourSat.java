@@ -39,4 +39,22 @@ public class GourSat implements ImplicitFunction {
                 + a * MathF.pow((Math.pow(x, 2) + MathF.pow(y, 2) + MathF.pow(z, 2)), 2)
                 + b * (MathF.pow(x, 2) + MathF.pow(y, 2) + MathF.pow(z, 2)) + c);
     }
+
+    @Override
+    public void eval(float[] xs, float[] ys, float[] zs, int count, float[] values, int offset) {
+        // Powers as products, the operations are in the order of eval()
+        double scale = 3;
+        for (int i = 0; i < count; i++) {
+            double x = xs[i] * scale;
+            double y = ys[i] * scale;
+            double z = zs[i] * scale;
+            double x2 = x * x;
+            double y2 = y * y;
+            double z2 = z * z;
+            double sum = x2 + (float) y2 + (float) z2;
+            values[offset + i] = (float) (x2 * x2) + (float) (y2 * y2) + (float) (z2 * z2)
+                    + a * (float) (sum * sum)
+                    + b * ((float) x2 + (float) y2 + (float) z2) + c;
+        }
+    }
 }
@@ -24,4 +24,30 @@ public interface ImplicitFunction {
      * @return Function value.
      */
     float eval(Vector3f p);
+
+    /**
+     * Evaluates the implicit function at several spatial locations (e.g. a
+     * row of a grid). Implementations may override this method with a loop
+     * over the coordinate arrays; the values may differ from eval() by
+     * rounding.
+     * 
+     * @param x
+     *            x-coordinates of the points.
+     * @param y
+     *            y-coordinates of the points.
+     * @param z
+     *            z-coordinates of the points.
+     * @param count
+     *            Number of points.
+     * @param values
+     *            The value of point i is stored at values[offset + i].
+     * @param offset
+     *            Offset of the first value in values.
+     */
+    default void eval(float[] x, float[] y, float[] z, int count, float[] values, int offset) {
+        Vector3f p = new Vector3f();
+        for (int i = 0; i < count; i++) {
+            values[offset + i] = eval(p.set(x[i], y[i], z[i]));
+        }
+    }
 }
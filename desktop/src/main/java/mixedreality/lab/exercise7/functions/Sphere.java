@@ -45,4 +45,15 @@ public class Sphere implements ImplicitFunction {
     return p.distance(center) - radius;
   }
 
+  @Override
+  public void eval(float[] x, float[] y, float[] z, int count, float[] values, int offset) {
+    // Same operations as Vector3f.distance()
+    for (int i = 0; i < count; i++) {
+      double dx = x[i] - center.x;
+      double dy = y[i] - center.y;
+      double dz = z[i] - center.z;
+      values[offset + i] = (float) Math.sqrt(dx * dx + dy * dy + dz * dz) - radius;
+    }
+  }
+
 }
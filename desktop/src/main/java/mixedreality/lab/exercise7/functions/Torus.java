@@ -39,4 +39,17 @@ public class Torus implements ImplicitFunction {
                 * MathF.pow(radiusOuter, 2)
                 * (MathF.pow(p.x, 2) + MathF.pow(p.y, 2));
     }
+
+    @Override
+    public void eval(float[] x, float[] y, float[] z, int count, float[] values, int offset) {
+        // The squares are exact in float, the operations are in the order of eval()
+        float outer2 = radiusOuter * radiusOuter;
+        float inner2 = radiusInner * radiusInner;
+        float scale = 4.0f * outer2;
+        for (int i = 0; i < count; i++) {
+            float xy = x[i] * x[i] + y[i] * y[i];
+            float s = xy + z[i] * z[i] + outer2 - inner2;
+            values[offset + i] = s * s - scale * xy;
+        }
+    }
 }
@@ -0,0 +1,130 @@
+package Mesh;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.FloatBuffer;
+
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+
+import mixedreality.base.mesh.CompressedTriangleMesh;
+import mixedreality.base.mesh.TriangleMesh;
+import mixedreality.base.mesh.TriangleMeshTools;
+
+public class CompressedTriangleMeshTest {
+
+    /**
+     * UV sphere with the given number of segments.
+     */
+    private TriangleMesh makeSphere(int n) {
+        TriangleMesh mesh = new TriangleMesh();
+        for (int i = 0; i <= n; i++) {
+            for (int j = 0; j <= n; j++) {
+                double theta = Math.PI * i / n;
+                double phi = 2 * Math.PI * j / n;
+                mesh.addVertex((float) (3 * Math.sin(theta) * Math.cos(phi)),
+                        (float) (3 * Math.sin(theta) * Math.sin(phi)), (float) (3 * Math.cos(theta)));
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                int a = i * (n + 1) + j;
+                mesh.addTriangle(a, a + 1, a + n + 2);
+                mesh.addTriangle(a, a + n + 2, a + n + 1);
+            }
+        }
+        mesh.weldVertices(1e-5f);
+        mesh.computeNormals();
+        TriangleMeshTools.optimizeVertexCache(mesh);
+        return mesh;
+    }
+
+    @Test
+    void testMemoryAndError() {
+        TriangleMesh mesh = makeSphere(200);
+        CompressedTriangleMesh compressed = new CompressedTriangleMesh(mesh);
+
+        // 40 bytes per vertex and 52 bytes per triangle, see TriangleMesh
+        long uncompressed = 40L * mesh.getNumberOfVertices() + 52L * mesh.getNumberOfTriangles();
+        double ratio = (double) uncompressed / compressed.getMemoryUsage();
+        assertTrue(ratio > 3);
+
+        TriangleMesh decoded = compressed.decompress();
+        assertEquals(mesh.getNumberOfVertices(), decoded.getNumberOfVertices());
+        assertEquals(mesh.getNumberOfTriangles(), decoded.getNumberOfTriangles());
+        float maxPositionError = 0;
+        double maxNormalAngle = 0;
+        for (int v = 0; v < mesh.getNumberOfVertices(); v++) {
+            Vector3f p = mesh.getVertex(v).getPosition();
+            Vector3f q = decoded.getVertex(v).getPosition();
+            maxPositionError = Math.max(maxPositionError, Math.max(Math.abs(p.x - q.x),
+                    Math.max(Math.abs(p.y - q.y), Math.abs(p.z - q.z))));
+            maxNormalAngle = Math.max(maxNormalAngle,
+                    angle(mesh.getVertex(v).getNormal(), decoded.getVertex(v).getNormal()));
+        }
+        // Extent 6: half a quantization step is 6 / 65535 / 2
+        assertTrue(maxPositionError <= 6.0f / 65535 / 2 * 1.01f);
+        assertTrue(Math.toDegrees(maxNormalAngle) < 0.01);
+        for (int t = 0; t < mesh.getNumberOfTriangles(); t++) {
+            for (int k = 0; k < 3; k++) {
+                assertEquals(mesh.getTriangle(t).getVertexIndex(k), decoded.getTriangle(t).getVertexIndex(k));
+            }
+        }
+
+        Mesh jmeMesh = compressed.createMesh();
+        assertEquals(mesh.getNumberOfVertices(), jmeMesh.getVertexCount());
+        assertEquals(mesh.getNumberOfTriangles(), jmeMesh.getTriangleCount());
+    }
+
+    @Test
+    void testCreateMeshColors() {
+        TriangleMesh mesh = makeSphere(20);
+        for (int t = 0; t < mesh.getNumberOfTriangles(); t++) {
+            mesh.getTriangle(t).setColor(ColorRGBA.Red);
+        }
+        assertSameColors(TriangleMeshTools.createMesh(mesh, TriangleMeshTools.Shading.SMOOTH),
+                new CompressedTriangleMesh(mesh).createMesh());
+
+        // Vertices between triangles of different colors are split
+        Vector3f a = new Vector3f();
+        for (int t = 0; t < mesh.getNumberOfTriangles(); t++) {
+            mesh.getVertexPosition(mesh.getTriangle(t).getA(), a);
+            mesh.getTriangle(t).setColor(a.z > 0 ? ColorRGBA.Red : ColorRGBA.Blue);
+        }
+        assertSameColors(TriangleMeshTools.createMesh(mesh, TriangleMeshTools.Shading.SMOOTH),
+                new CompressedTriangleMesh(mesh).createMesh());
+    }
+
+    /**
+     * Compare the colors of the corners of all triangles, up to the RGBA8
+     * quantization.
+     */
+    private void assertSameColors(Mesh expected, Mesh actual) {
+        assertEquals(expected.getTriangleCount(), actual.getTriangleCount());
+        FloatBuffer expectedColors = expected.getFloatBuffer(VertexBuffer.Type.Color);
+        FloatBuffer actualColors = actual.getFloatBuffer(VertexBuffer.Type.Color);
+        for (int i = 0; i < expected.getTriangleCount() * 3; i++) {
+            int e = expected.getIndexBuffer().get(i);
+            int v = actual.getIndexBuffer().get(i);
+            for (int k = 0; k < 4; k++) {
+                assertEquals(expectedColors.get(e * 4 + k), actualColors.get(v * 4 + k), 0.5f / 255);
+            }
+        }
+    }
+
+    /**
+     * Angle between the vectors, accurate for small angles.
+     */
+    private double angle(Vector3f a, Vector3f b) {
+        double cx = (double) a.y * b.z - (double) a.z * b.y;
+        double cy = (double) a.z * b.x - (double) a.x * b.z;
+        double cz = (double) a.x * b.y - (double) a.y * b.x;
+        double dot = (double) a.x * b.x + (double) a.y * b.y + (double) a.z * b.z;
+        return Math.atan2(Math.sqrt(cx * cx + cy * cy + cz * cz), dot);
+    }
+}
@@ -0,0 +1,115 @@
+package Mesh;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.jme3.math.Vector3f;
+
+import mixedreality.base.mesh.Triangle;
+import mixedreality.base.mesh.TriangleMesh;
+import mixedreality.lab.exercise7.MarchingCubes;
+import mixedreality.lab.exercise7.ScalarGrid;
+import mixedreality.lab.exercise7.functions.GourSat;
+import mixedreality.lab.exercise7.functions.ImplicitFunction;
+import mixedreality.lab.exercise7.functions.Sphere;
+import mixedreality.lab.exercise7.functions.Torus;
+
+public class MarchingCubesTest {
+
+    /**
+     * Center off the grid points, so no function value equals the isovalue.
+     */
+    private final ImplicitFunction sphere = new Sphere(0.5f, new Vector3f(0.01f, 0.02f, 0.03f));
+
+    private final Vector3f ll = new Vector3f(-1, -1, -1);
+
+    private final Vector3f ur = new Vector3f(1, 1, 1);
+
+    /**
+     * Check that all vertex indices are valid and each edge is shared by
+     * exactly two triangles.
+     */
+    private void assertClosedManifold(TriangleMesh mesh) {
+        Map<Long, Integer> edges = new HashMap<>();
+        for (int t = 0; t < mesh.getNumberOfTriangles(); t++) {
+            Triangle triangle = mesh.getTriangle(t);
+            for (int c = 0; c < 3; c++) {
+                int a = triangle.getVertexIndex(c);
+                int b = triangle.getVertexIndex((c + 1) % 3);
+                assertTrue(a >= 0 && a < mesh.getNumberOfVertices());
+                long edge = ((long) Math.min(a, b) << 32) | Math.max(a, b);
+                edges.merge(edge, 1, Integer::sum);
+            }
+        }
+        for (int count : edges.values()) {
+            assertEquals(2, count);
+        }
+    }
+
+    private void assertSameMesh(TriangleMesh expected, TriangleMesh actual) {
+        assertEquals(expected.getNumberOfVertices(), actual.getNumberOfVertices());
+        assertEquals(expected.getNumberOfTriangles(), actual.getNumberOfTriangles());
+        for (int v = 0; v < expected.getNumberOfVertices(); v++) {
+            assertEquals(expected.getVertex(v).getPosition(), actual.getVertex(v).getPosition());
+        }
+        for (int t = 0; t < expected.getNumberOfTriangles(); t++) {
+            for (int c = 0; c < 3; c++) {
+                assertEquals(expected.getTriangle(t).getVertexIndex(c),
+                        actual.getTriangle(t).getVertexIndex(c));
+            }
+        }
+    }
+
+    @Test
+    void testIndexedMeshSlabs() {
+        // Several slabs of 8 layers, the last one incomplete
+        MarchingCubes marchingCubes = new MarchingCubes();
+        TriangleMesh mesh = marchingCubes.makeIndexedMesh(sphere, 0, ll, ur, 20, 24, 28);
+        assertTrue(mesh.getNumberOfTriangles() > 0);
+        assertClosedManifold(mesh);
+
+        ScalarGrid grid = new ScalarGrid(ll, ur, 20, 24, 28);
+        grid.sample(sphere);
+        assertSameMesh(mesh, marchingCubes.makeIndexedMesh(grid, 0));
+    }
+
+    @Test
+    void testIndexedMeshRollingBuffer() {
+        // More than 2^24 grid points are sampled slice by slice per slab
+        int res = 256;
+        MarchingCubes marchingCubes = new MarchingCubes();
+        TriangleMesh rolling = marchingCubes.makeIndexedMesh(sphere, 0, ll, ur, res, res, res);
+        assertClosedManifold(rolling);
+
+        ScalarGrid grid = new ScalarGrid(ll, ur, res, res, res);
+        assertTrue((long) grid.getSliceSize() * (res + 1) > 1 << 24);
+        grid.sample(sphere);
+        assertSameMesh(marchingCubes.makeIndexedMesh(grid, 0), rolling);
+    }
+
+    @Test
+    void testBatchEval() {
+        ImplicitFunction[] functions = {sphere, new Torus(0.5f, 0.25f), new GourSat()};
+        int count = 33;
+        float[] x = new float[count];
+        float[] y = new float[count];
+        float[] z = new float[count];
+        for (int i = 0; i < count; i++) {
+            x[i] = -1 + i * 2f / (count - 1);
+            y[i] = 0.3f;
+            z[i] = -0.7f;
+        }
+        for (ImplicitFunction f : functions) {
+            float[] values = new float[count + 2];
+            f.eval(x, y, z, count, values, 2);
+            for (int i = 0; i < count; i++) {
+                assertEquals(f.eval(new Vector3f(x[i], y[i], z[i])), values[i + 2]);
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package Mesh;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.Vector2f;
+import com.jme3.math.Vector3f;
+
+import mixedreality.base.mesh.ObjReader;
+import mixedreality.base.mesh.Triangle;
+import mixedreality.base.mesh.TriangleMesh;
+
+public class ObjReaderTest {
+
+    /**
+     * Files larger than this are split into several chunks, see ObjReader.
+     */
+    private static final int MIN_CHUNK_SIZE = 1 << 20;
+
+    private TriangleMesh read(String content) throws Exception {
+        File file = File.createTempFile("mesh", ".obj");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), content, StandardCharsets.US_ASCII);
+        return new ObjReader().read(file.getAbsolutePath());
+    }
+
+    /**
+     * OBJ file with n quads. Each quad is defined by its vertices and texture
+     * coordinates followed by two faces using them, all quads are then added
+     * a second time with faces referencing the first definition.
+     */
+    private String makeQuads(int n, boolean relative) {
+        StringBuilder obj = new StringBuilder();
+        for (int q = 0; q < n; q++) {
+            float x = q % 100;
+            float y = q / 100;
+            obj.append("v ").append(x).append(' ').append(y).append(" 0\n");
+            obj.append("v ").append(x + 1).append(' ').append(y).append(" 0\n");
+            obj.append("v ").append(x + 1).append(' ').append(y + 1).append(" 0\n");
+            obj.append("v ").append(x).append(' ').append(y + 1).append(" 0\n");
+            obj.append("vt 0 0\nvt 1 0\nvt 1 1\nvt 0 1\n");
+            int first = relative ? -4 : 4 * q + 1;
+            appendFace(obj, first, first + 1, first + 2);
+            appendFace(obj, first, first + 2, first + 3);
+        }
+        for (int q = 0; q < n; q++) {
+            int first = relative ? 4 * q - 4 * n : 4 * q + 1;
+            appendFace(obj, first, first + 1, first + 2);
+            appendFace(obj, first, first + 2, first + 3);
+        }
+        return obj.toString();
+    }
+
+    private void appendFace(StringBuilder obj, int a, int b, int c) {
+        obj.append("f ").append(a).append('/').append(a)
+                .append(' ').append(b).append('/').append(b)
+                .append(' ').append(c).append('/').append(c).append('\n');
+    }
+
+    @Test
+    void testRelativeIndices() throws Exception {
+        String relativeObj = makeQuads(20000, true);
+        // Several chunks, the faces at the end reference the first chunk
+        assertTrue(relativeObj.length() > 2 * MIN_CHUNK_SIZE);
+        TriangleMesh relative = read(relativeObj);
+        TriangleMesh absolute = read(makeQuads(20000, false));
+
+        assertEquals(80000, relative.getNumberOfVertices());
+        assertEquals(80000, relative.getNumberOfTriangles());
+        assertEquals(absolute.getNumberOfVertices(), relative.getNumberOfVertices());
+        assertEquals(absolute.getNumberOfTriangles(), relative.getNumberOfTriangles());
+        for (int i = 0; i < relative.getNumberOfTriangles(); i++) {
+            Triangle r = relative.getTriangle(i);
+            Triangle a = absolute.getTriangle(i);
+            for (int k = 0; k < 3; k++) {
+                assertEquals(a.getVertexIndex(k), r.getVertexIndex(k));
+                assertEquals(a.getTextureCoordinate(k), r.getTextureCoordinate(k));
+            }
+        }
+        // Both faces of the last quad, defined and referenced again at the end
+        Triangle t = relative.getTriangle(2 * 19999);
+        assertEquals(t.getVertexIndex(0), relative.getTriangle(80000 - 2).getVertexIndex(0));
+        assertEquals(new Vector3f(99, 199, 0), relative.getVertex(t.getVertexIndex(0)).getPosition());
+        assertEquals(new Vector3f(100, 200, 0), relative.getVertex(t.getVertexIndex(2)).getPosition());
+    }
+
+    @Test
+    void testLineEndings() throws Exception {
+        TriangleMesh mesh = read("v 0 0 0\r\nv 2 0 0\r\nv 0 2 0\r\n\r\nv 2 2 0\rf 1 2 3\r\nf 2 4 3");
+        assertEquals(4, mesh.getNumberOfVertices());
+        assertEquals(2, mesh.getNumberOfTriangles());
+        assertEquals(new Vector3f(2, 2, 0), mesh.getVertex(3).getPosition());
+        assertEquals(1, mesh.getTriangle(1).getA());
+        assertEquals(3, mesh.getTriangle(1).getB());
+        assertEquals(2, mesh.getTriangle(1).getC());
+    }
+
+    @Test
+    void testFaceVariants() throws Exception {
+        TriangleMesh mesh = read("v 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\n"
+                + "vt 0 0\nvt 1 0\nvt 1 1\nvt 0 1\nvn 0 0 1\n"
+                + "f 1/1/1 2/2/1 3/3/1\n"
+                + "f 1//1 3//1 4//1\n"
+                + "f 4/4 2/2 3/3\n"
+                + "f 3 1 2\n");
+        assertEquals(4, mesh.getNumberOfTriangles());
+        assertEquals(4, mesh.getNumberOfTextureCoordinates());
+        int[][] vertices = {{0, 1, 2}, {0, 2, 3}, {3, 1, 2}, {2, 0, 1}};
+        int[][] texCoords = {{0, 1, 2}, {-1, -1, -1}, {3, 1, 2}, {-1, -1, -1}};
+        for (int i = 0; i < 4; i++) {
+            for (int k = 0; k < 3; k++) {
+                assertEquals(vertices[i][k], mesh.getTriangle(i).getVertexIndex(k));
+                assertEquals(texCoords[i][k], mesh.getTriangle(i).getTextureCoordinate(k));
+            }
+        }
+        assertEquals(new Vector2f(0, 1), mesh.getTextureCoordinate(3));
+    }
+
+    @Test
+    void testNumbers() throws Exception {
+        String[] numbers = {"0.1", "-2.5", "+3", ".5", "5.", "1.e5", "-0.0", "0",
+                "16777216", "16777217", "123456789", "0.30000001192092896",
+                "1.00000003833145e-8", "123456789012345678901234567890", "3.4028235e38",
+                "3.4028236e38", "1e39", "1.17549435E-38", "1.4e-45", "1e-46",
+                "7e10", "1e-11", "NaN", "Infinity", "-Infinity", "0x1.8p1", "2.5f"};
+        StringBuilder obj = new StringBuilder();
+        for (String number : numbers) {
+            obj.append("v 0 0 ").append(number).append('\n');
+            obj.append("v 1 0 ").append(number).append('\n');
+            obj.append("v 0 1 ").append(number).append('\n');
+            obj.append("f -3 -2 -1\n");
+        }
+        TriangleMesh mesh = read(obj.toString());
+        assertEquals(3 * numbers.length, mesh.getNumberOfVertices());
+        for (int i = 0; i < numbers.length; i++) {
+            float z = mesh.getVertex(3 * i).getPosition().z;
+            assertEquals(Float.floatToIntBits(Float.parseFloat(numbers[i])),
+                    Float.floatToIntBits(z), numbers[i]);
+        }
+    }
+
+    @Test
+    void testSidecarMaterialLibrary() throws Exception {
+        File obj = File.createTempFile("sidecar", ".obj");
+        File mtl = new File(obj.getParentFile(), obj.getName().replace(".obj", ".mtl"));
+        File sidecar = new File(ObjReader.getSidecarFilename(obj.getAbsolutePath()));
+        obj.deleteOnExit();
+        mtl.deleteOnExit();
+        sidecar.deleteOnExit();
+        Files.writeString(obj.toPath(), "mtllib " + mtl.getName() + "\nusemtl red\n"
+                + "v 0 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 3\n", StandardCharsets.US_ASCII);
+        Files.writeString(mtl.toPath(), "newmtl red\nKd 1 0 0\n", StandardCharsets.US_ASCII);
+        new ObjReader().writeSidecar(obj.getAbsolutePath());
+
+        // The sidecar is used while it is newer than the OBJ and MTL file
+        Files.writeString(mtl.toPath(), "newmtl red\nKd 0 0 1\n", StandardCharsets.US_ASCII);
+        assertTrue(sidecar.setLastModified(2_000_000_000_000L));
+        assertTrue(obj.setLastModified(1_000_000_000_000L));
+        assertTrue(mtl.setLastModified(1_000_000_000_000L));
+        TriangleMesh mesh = new ObjReader().read(obj.getAbsolutePath());
+        assertEquals(ColorRGBA.Red, mesh.getTriangle(0).getColor());
+
+        // Modified material library
+        assertTrue(obj.setLastModified(1_001_000_000_000L));
+        assertTrue(mtl.setLastModified(3_000_000_000_000L));
+        mesh = new ObjReader().read(obj.getAbsolutePath());
+        assertEquals(ColorRGBA.Blue, mesh.getTriangle(0).getColor());
+    }
+
+    @Test
+    void testCachedMaterialLibrary() throws Exception {
+        File obj = File.createTempFile("cached", ".obj");
+        File mtl = new File(obj.getParentFile(), obj.getName().replace(".obj", ".mtl"));
+        obj.deleteOnExit();
+        mtl.deleteOnExit();
+        Files.writeString(obj.toPath(), "mtllib " + mtl.getName() + "\nusemtl red\n"
+                + "v 0 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 3\n", StandardCharsets.US_ASCII);
+        Files.writeString(mtl.toPath(), "newmtl red\nKd 1 0 0\n", StandardCharsets.US_ASCII);
+        assertTrue(obj.setLastModified(1_000_000_000_000L));
+        assertTrue(mtl.setLastModified(1_000_000_000_000L));
+        TriangleMesh mesh = new ObjReader().read(obj.getAbsolutePath());
+        assertEquals(ColorRGBA.Red, mesh.getTriangle(0).getColor());
+
+        // Only the material library is modified
+        Files.writeString(mtl.toPath(), "newmtl red\nKd 0 0 1\n", StandardCharsets.US_ASCII);
+        assertTrue(mtl.setLastModified(2_000_000_000_000L));
+        mesh = new ObjReader().read(obj.getAbsolutePath());
+        assertEquals(ColorRGBA.Blue, mesh.getTriangle(0).getColor());
+    }
+
+    @Test
+    void testCancel() throws Exception {
+        // Each loading thread parses at most one block of about 1MB once the
+        // import is cancelled, so the file has more blocks than threads
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        String obj = makeQuads((parallelism + 4) * MIN_CHUNK_SIZE / 100, true);
+        File file = File.createTempFile("large", ".obj");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), obj, StandardCharsets.US_ASCII);
+
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicReference<CompletableFuture<TriangleMesh>> future = new AtomicReference<>();
+        AtomicLong parsedBytes = new AtomicLong();
+        ObjReader.ProgressListener listener = (bytes, totalBytes, lines) -> {
+            parsedBytes.accumulateAndGet(bytes, Math::max);
+            try {
+                started.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            future.get().cancel(true);
+        };
+        future.set(new ObjReader().readAsync(file.getAbsolutePath(), listener));
+        started.countDown();
+
+        assertThrows(CancellationException.class, () -> future.get().join());
+        assertTrue(future.get().isCancelled());
+        assertTrue(parsedBytes.get() > 0);
+        assertTrue(parsedBytes.get() < file.length());
+
+        // The cancelled import is not cached
+        TriangleMesh mesh = new ObjReader().read(file.getAbsolutePath());
+        assertEquals(4 * ((parallelism + 4) * MIN_CHUNK_SIZE / 100), mesh.getNumberOfTriangles());
+    }
+}
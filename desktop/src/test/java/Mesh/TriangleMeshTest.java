@@ -0,0 +1,677 @@
+package Mesh;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.Matrix4f;
+import com.jme3.math.Vector2f;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.mesh.IndexBuffer;
+
+import misc.AxisAlignedBoundingBox;
+
+import mixedreality.base.mesh.BinaryMeshFile;
+import mixedreality.base.mesh.BoundingVolumeHierarchy;
+import mixedreality.base.mesh.MeshBuilder;
+import mixedreality.base.mesh.MeshCache;
+import mixedreality.base.mesh.MeshConnectivity;
+import mixedreality.base.mesh.ObjReader;
+import mixedreality.base.mesh.ObjWriter;
+import mixedreality.base.mesh.Triangle;
+import mixedreality.base.mesh.TriangleMesh;
+import mixedreality.base.mesh.TriangleMeshTools;
+import mixedreality.base.mesh.Vertex;
+
+public class TriangleMeshTest {
+
+    private TriangleMesh makeQuad() {
+        TriangleMesh mesh = new TriangleMesh();
+        mesh.addVertex(new Vector3f(0, 0, 0));
+        mesh.addVertex(new Vector3f(1, 0, 0));
+        mesh.addVertex(new Vector3f(1, 1, 0));
+        mesh.addVertex(new Vector3f(0, 1, 0));
+        mesh.addTriangle(0, 1, 2);
+        mesh.addTriangle(0, 2, 3);
+        mesh.computeTriangleNormals();
+        return mesh;
+    }
+
+    @Test
+    void testViewsWriteThrough() {
+        TriangleMesh mesh = makeQuad();
+        Vertex v = mesh.getVertex(2);
+        v.setPosition(new Vector3f(2, 2, 0));
+        v.setColor(ColorRGBA.Red);
+        assertEquals(new Vector3f(2, 2, 0), mesh.getVertex(2).getPosition());
+        assertEquals(ColorRGBA.Red, mesh.getVertex(2).getColor());
+        // Getters return copies
+        v.getPosition().set(3, 3, 0);
+        assertEquals(new Vector3f(2, 2, 0), mesh.getVertex(2).getPosition());
+
+        Triangle t = mesh.getTriangle(1);
+        t.flipOrientation();
+        assertEquals(2, mesh.getTriangle(1).getA());
+        assertEquals(0, mesh.getTriangle(1).getB());
+        assertEquals(new Vector3f(0, 0, 1), mesh.getTriangle(0).getNormal());
+    }
+
+    @Test
+    void testVertexNormals() {
+        TriangleMesh mesh = makeQuad();
+        mesh.computeNormals();
+        assertEquals(new Vector3f(0, 0, 1), mesh.getVertex(0).getNormal());
+        // Only the triangle normals are recomputed
+        mesh.flipTriangleOrientation();
+        assertEquals(new Vector3f(0, 0, 1), mesh.getVertex(3).getNormal());
+        assertEquals(0, new Vector3f(0, 0, -1).distance(mesh.getTriangle(1).getNormal()), 1e-6);
+        mesh.computeVertexNormals();
+        assertEquals(0, new Vector3f(0, 0, -1).distance(mesh.getVertex(3).getNormal()), 1e-6);
+    }
+
+    @Test
+    void testTransformSmallScale() {
+        // The determinant (1e-9) is below the epsilon of Matrix3f.invert()
+        TriangleMesh mesh = makeQuad();
+        mesh.computeNormals();
+        Matrix4f scale = new Matrix4f();
+        scale.setScale(0.001f, 0.001f, 0.001f);
+        TriangleMeshTools.transform(mesh, scale);
+        assertEquals(0.001f, mesh.getVertex(2).getPosition().x, 1e-9f);
+        assertEquals(new Vector3f(0, 0, 1), mesh.getVertex(0).getNormal());
+        assertEquals(new Vector3f(0, 0, 1), mesh.getTriangle(0).getNormal());
+
+        // Mirroring flips the normals, flattening onto the plane keeps them
+        Matrix4f mirror = new Matrix4f();
+        mirror.setScale(1e-6f, 1e-6f, -1e-6f);
+        TriangleMeshTools.transform(mesh, mirror);
+        assertEquals(new Vector3f(0, 0, -1), mesh.getTriangle(1).getNormal());
+        Matrix4f flatten = new Matrix4f();
+        flatten.setScale(1, 1, 0);
+        TriangleMeshTools.transform(mesh, flatten);
+        assertEquals(new Vector3f(0, 0, -1), mesh.getTriangle(1).getNormal());
+    }
+
+    @Test
+    void testRemoveTrianglesAndCompact() {
+        TriangleMesh mesh = makeQuad();
+        mesh.addVertex(new Vector3f(5, 5, 5));
+        assertEquals(1, mesh.removeTriangles(i -> mesh.getTriangle(i).getC() == 2));
+        assertEquals(2, mesh.removeUnreferencedVertices());
+        assertEquals(3, mesh.getNumberOfVertices());
+        assertEquals(new Vector3f(0, 1, 0), mesh.getVertex(mesh.getTriangle(0).getC()).getPosition());
+
+        // Nothing to remove: the (read-only) snapshot is not modified
+        BitSet beyondEnd = new BitSet();
+        beyondEnd.set(1);
+        assertEquals(0, mesh.snapshot().removeTriangles(beyondEnd));
+        assertEquals(0, mesh.snapshot().removeTriangles(new BitSet()));
+    }
+
+    @Test
+    void testConnectivity() {
+        TriangleMesh mesh = makeQuad();
+        MeshConnectivity connectivity = mesh.getConnectivity();
+        assertEquals(3, connectivity.getNumberOfNeighbors(0));
+        assertEquals(2, connectivity.getNumberOfNeighbors(1));
+        assertEquals(2, connectivity.getNumberOfTrianglesOnEdge(0, 2));
+        assertEquals(1, connectivity.getOppositeTriangle(0, 2));
+        assertEquals(8, connectivity.getBoundaryEdges().length);
+        assertSame(connectivity, mesh.getConnectivity());
+
+        mesh.addVertex(new Vector3f(2, 0, 0));
+        mesh.addVertex(new Vector3f(3, 0, 0));
+        mesh.addVertex(new Vector3f(3, 1, 0));
+        mesh.addTriangle(4, 5, 6);
+        int[] components = new int[mesh.getNumberOfTriangles()];
+        assertEquals(2, mesh.getConnectivity().getConnectedComponents(components));
+        assertEquals(1, components[2]);
+    }
+
+    @Test
+    void testConnectivityConcurrentReads() {
+        TriangleMesh grid = new TriangleMesh();
+        int n = 100;
+        for (int y = 0; y <= n; y++) {
+            for (int x = 0; x <= n; x++) {
+                grid.addVertex(x, y, 0);
+            }
+        }
+        for (int y = 0; y < n; y++) {
+            for (int x = 0; x < n; x++) {
+                int v = y * (n + 1) + x;
+                grid.addTriangle(v, v + 1, v + n + 2);
+                grid.addTriangle(v, v + n + 2, v + n + 1);
+            }
+        }
+        MeshConnectivity expected = new TriangleMesh(grid).getConnectivity();
+
+        // Several snapshots, each queried by several threads on first use
+        for (int round = 0; round < 10; round++) {
+            TriangleMesh snapshot = grid.snapshot();
+            IntStream.range(0, grid.getNumberOfTriangles()).parallel().forEach(t -> {
+                MeshConnectivity connectivity = snapshot.getConnectivity();
+                for (int e = 0; e < 3; e++) {
+                    assertEquals(expected.getOppositeTriangle(t, e),
+                            connectivity.getOppositeTriangle(t, e));
+                }
+                if (t < grid.getNumberOfVertices()) {
+                    assertEquals(expected.getNumberOfNeighbors(t), connectivity.getNumberOfNeighbors(t));
+                    for (int i = 0; i < connectivity.getNumberOfNeighbors(t); i++) {
+                        assertEquals(expected.getNeighbor(t, i), connectivity.getNeighbor(t, i));
+                    }
+                }
+            });
+        }
+    }
+
+    @Test
+    void testIncrementalBounds() throws Exception {
+        // The OBJ reader appends the vertices in blocks
+        Random random = new Random(42);
+        StringBuilder obj = new StringBuilder();
+        for (int i = 0; i < 999; i++) {
+            obj.append("v ").append(random.nextFloat() * 10 - 3).append(' ')
+                    .append(random.nextFloat() * 4 + 1).append(' ')
+                    .append(random.nextFloat() * -2).append('\n');
+        }
+        for (int i = 1; i + 2 <= 999; i += 3) {
+            obj.append("f ").append(i).append(' ').append(i + 1).append(' ')
+                    .append(i + 2).append('\n');
+        }
+        File file = File.createTempFile("bounds", ".obj");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), obj);
+        TriangleMesh mesh = new ObjReader().read(file.getAbsolutePath());
+        assertEquals(999, mesh.getNumberOfVertices());
+        assertBounds(mesh);
+
+        mesh.addVertex(-20, 3, 1);
+        mesh.addVertex(new Vector3f(2, 30, -40));
+        assertBounds(mesh);
+        TriangleMeshTools.translate(mesh, 1.5f, -2, 0.25f);
+        assertBounds(mesh);
+        TriangleMeshTools.scale(mesh, 2.5f);
+        assertBounds(mesh);
+        // Negative factors swap min and max, checked by an inner vertex
+        TriangleMeshTools.scale(mesh, -0.5f);
+        assertBounds(mesh);
+        AxisAlignedBoundingBox bb = mesh.getBoundingBox();
+        mesh.addVertex(bb.getLL().add(bb.getUR()).multLocal(0.5f));
+        assertBounds(mesh);
+
+        // The added vertices are not referenced by a triangle
+        assertEquals(3, mesh.removeUnreferencedVertices());
+        assertBounds(mesh);
+        mesh.addVertex(0, 0, 0);
+        assertBounds(mesh);
+
+        assertNull(new TriangleMesh().getBoundingBox());
+    }
+
+    /**
+     * Compare the (cached) bounding box with a scan over all vertices.
+     */
+    private void assertBounds(TriangleMesh mesh) {
+        Vector3f ll = new Vector3f(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+                Float.POSITIVE_INFINITY);
+        Vector3f ur = new Vector3f(Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY,
+                Float.NEGATIVE_INFINITY);
+        for (int i = 0; i < mesh.getNumberOfVertices(); i++) {
+            ll.minLocal(mesh.getVertex(i).getPosition());
+            ur.maxLocal(mesh.getVertex(i).getPosition());
+        }
+        AxisAlignedBoundingBox bb = mesh.getBoundingBox();
+        assertEquals(ll, bb.getLL());
+        assertEquals(ur, bb.getUR());
+    }
+
+    /**
+     * Quad with index i, only the first triangle has texture coordinates.
+     */
+    private TriangleMesh makeTexturedQuad(int i) {
+        TriangleMesh mesh = makeQuad();
+        TriangleMeshTools.translate(mesh, i, 0, 0);
+        for (int k = 0; k < 3; k++) {
+            mesh.addTextureCoordinate(new Vector2f(i, k));
+        }
+        mesh.clearTriangles();
+        mesh.addTriangle(new Triangle(0, 1, 2, 0, 1, 2));
+        mesh.addTriangle(0, 2, 3);
+        mesh.getTriangle(1).setColor(new ColorRGBA(i / 10f, 0, 0, 1));
+        return mesh;
+    }
+
+    private List<TriangleMesh> makeTexturedQuads(int n) {
+        List<TriangleMesh> meshes = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            meshes.add(makeTexturedQuad(i));
+        }
+        // Empty meshes do not shift the offsets
+        meshes.add(2, new TriangleMesh());
+        return meshes;
+    }
+
+    @Test
+    void testUnite() {
+        int n = 10;
+        TriangleMesh mesh = TriangleMeshTools.unite(makeTexturedQuads(n));
+        assertEquals(4 * n, mesh.getNumberOfVertices());
+        assertEquals(2 * n, mesh.getNumberOfTriangles());
+        assertEquals(3 * n, mesh.getNumberOfTextureCoordinates());
+        for (int i = 0; i < n; i++) {
+            Triangle textured = mesh.getTriangle(2 * i);
+            Triangle untextured = mesh.getTriangle(2 * i + 1);
+            for (int k = 0; k < 3; k++) {
+                assertEquals(4 * i + k, textured.getVertexIndex(k));
+                assertEquals(3 * i + k, textured.getTextureCoordinate(k));
+                assertEquals(new Vector2f(i, k), mesh.getTextureCoordinate(3 * i + k));
+                assertEquals(-1, untextured.getTextureCoordinate(k));
+            }
+            assertEquals(4 * i + 3, untextured.getC());
+            assertEquals(new Vector3f(i + 1, 1, 0), mesh.getVertex(4 * i + 2).getPosition());
+            assertEquals(new ColorRGBA(i / 10f, 0, 0, 1), untextured.getColor());
+        }
+
+        // The parallel version creates the same mesh
+        TriangleMesh parallel = TriangleMeshTools.uniteParallel(makeTexturedQuads(n));
+        assertEquals(mesh.getNumberOfVertices(), parallel.getNumberOfVertices());
+        assertEquals(mesh.getNumberOfTriangles(), parallel.getNumberOfTriangles());
+        assertEquals(mesh.getNumberOfTextureCoordinates(), parallel.getNumberOfTextureCoordinates());
+        for (int v = 0; v < mesh.getNumberOfVertices(); v++) {
+            assertEquals(mesh.getVertex(v).getPosition(), parallel.getVertex(v).getPosition());
+            assertEquals(mesh.getVertex(v).getNormal(), parallel.getVertex(v).getNormal());
+            assertEquals(mesh.getVertex(v).getColor(), parallel.getVertex(v).getColor());
+        }
+        for (int t = 0; t < mesh.getNumberOfTriangles(); t++) {
+            for (int k = 0; k < 3; k++) {
+                assertEquals(mesh.getTriangle(t).getVertexIndex(k),
+                        parallel.getTriangle(t).getVertexIndex(k));
+                assertEquals(mesh.getTriangle(t).getTextureCoordinate(k),
+                        parallel.getTriangle(t).getTextureCoordinate(k));
+            }
+            assertEquals(mesh.getTriangle(t).getNormal(), parallel.getTriangle(t).getNormal());
+            assertEquals(mesh.getTriangle(t).getColor(), parallel.getTriangle(t).getColor());
+        }
+        for (int i = 0; i < mesh.getNumberOfTextureCoordinates(); i++) {
+            assertEquals(mesh.getTextureCoordinate(i), parallel.getTextureCoordinate(i));
+        }
+    }
+
+    @Test
+    void testGrowAndRemove() {
+        TriangleMesh mesh = new TriangleMesh();
+        for (int i = 0; i < 1000; i++) {
+            mesh.addVertex(new Vector3f(i, 0, 0));
+            mesh.addVertex(new Vector3f(i, 1, 0));
+            mesh.addVertex(new Vector3f(i, 0, 1));
+            mesh.addTriangle(3 * i, 3 * i + 1, 3 * i + 2);
+        }
+        assertEquals(3000, mesh.getNumberOfVertices());
+        mesh.removeTriangle(0);
+        assertEquals(999, mesh.getNumberOfTriangles());
+        assertEquals(3, mesh.getTriangle(0).getA());
+
+        TriangleMesh copy = new TriangleMesh(mesh);
+        copy.getVertex(0).setPosition(new Vector3f(-1, -1, -1));
+        assertEquals(new Vector3f(0, 0, 0), mesh.getVertex(0).getPosition());
+        assertEquals(999, copy.getNumberOfTriangles());
+    }
+
+    @Test
+    void testBoundingVolumeHierarchy() {
+        // Height field grid of 50 x 50 quads
+        TriangleMesh mesh = new TriangleMesh();
+        int n = 50;
+        for (int i = 0; i <= n; i++) {
+            for (int j = 0; j <= n; j++) {
+                mesh.addVertex(new Vector3f(i, (float) Math.sin(i * 0.3) * (float) Math.cos(j * 0.2), j));
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                int a = i * (n + 1) + j;
+                mesh.addTriangle(a, a + n + 1, a + n + 2);
+                mesh.addTriangle(a, a + n + 2, a + 1);
+            }
+        }
+        BoundingVolumeHierarchy bvh = mesh.getBoundingVolumeHierarchy();
+        BoundingVolumeHierarchy.Hit hit =
+                bvh.intersectRay(new Vector3f(10.25f, 5, 20.75f), new Vector3f(0, -1, 0)).get();
+        assertEquals(20.75f, hit.point.z, 1e-3f);
+        assertHitInTriangle(mesh, hit);
+        assertTrue(bvh.intersectRay(new Vector3f(-1, 5, -1), new Vector3f(0, -1, 0)).isEmpty());
+
+        Vector3f p = new Vector3f(25.5f, 10, 25.5f);
+        BoundingVolumeHierarchy.Hit closest = bvh.closestPoint(p).get();
+        assertEquals(p.distance(closest.point), closest.distance, 1e-4f);
+        for (int i = 0; i < mesh.getNumberOfVertices(); i++) {
+            assertTrue(closest.distance <= p.distance(mesh.getVertex(i).getPosition()));
+        }
+
+        assertEquals(4, bvh.getOverlappingTriangles(new Vector3f(2.1f, -2, 2.1f),
+                new Vector3f(2.9f, 2, 3.9f)).length);
+
+        // Refit after translation
+        TriangleMeshTools.translate(mesh, new Vector3f(0, 10, 0));
+        hit = mesh.getBoundingVolumeHierarchy().intersectRay(new Vector3f(10.25f, 20, 20.75f),
+                new Vector3f(0, -1, 0)).get();
+        assertEquals(20.75f, hit.point.z, 1e-3f);
+        assertHitInTriangle(mesh, hit);
+        assertTrue(hit.point.y > 8);
+
+        // The parallel test is relative to the size of the triangles
+        TriangleMesh small = makeQuad();
+        TriangleMeshTools.scale(small, 1e-7f);
+        BoundingVolumeHierarchy smallBvh = small.getBoundingVolumeHierarchy();
+        hit = smallBvh.intersectRay(new Vector3f(2e-8f, 7e-8f, 1e-7f), new Vector3f(0, 0, -1)).get();
+        assertEquals(1, hit.triangleIndex);
+        assertEquals(1e-7f, hit.distance, 1e-12f);
+        assertTrue(smallBvh.intersectRay(new Vector3f(-1, 5e-8f, 0), new Vector3f(1, 0, 0)).isEmpty());
+    }
+
+    private void assertHitInTriangle(TriangleMesh mesh, BoundingVolumeHierarchy.Hit hit) {
+        Triangle t = mesh.getTriangle(hit.triangleIndex);
+        float minY = Float.POSITIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < 3; i++) {
+            float y = mesh.getVertex(t.getVertexIndex(i)).getPosition().y;
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+        assertTrue(hit.point.y >= minY - 1e-4f && hit.point.y <= maxY + 1e-4f);
+    }
+
+    @Test
+    void testWeldVertices() {
+        // Two triangle soup quads sharing an edge, plus one sliver triangle
+        TriangleMesh mesh = new TriangleMesh();
+        float[][] corners = {{0, 0}, {1, 0}, {1, 1}, {0, 0}, {1, 1}, {0, 1},
+                {1, 0}, {2, 0}, {2, 1}, {1, 0.000001f}, {2, 1}, {1, 1}};
+        for (float[] c : corners) {
+            mesh.addVertex(new Vector3f(c[0], c[1], 0));
+        }
+        for (int t = 0; t < 4; t++) {
+            mesh.addTriangle(3 * t, 3 * t + 1, 3 * t + 2);
+        }
+        mesh.addVertex(new Vector3f(0, 0, 0.000001f));
+        mesh.addTriangle(0, 12, 5);
+
+        assertEquals(7, mesh.weldVertices(0.0001f));
+        assertEquals(6, mesh.getNumberOfVertices());
+        assertEquals(4, mesh.getNumberOfTriangles());
+        assertTrue(mesh.getConnectivity().getOppositeTriangle(0, 1) >= 0);
+        assertEquals(0, new TriangleMesh(mesh).weldVertices(0));
+    }
+
+    @Test
+    void testOptimizeVertexCache() {
+        // Grid of 30 x 30 quads, triangles in column order
+        TriangleMesh mesh = new TriangleMesh();
+        int n = 30;
+        for (int i = 0; i <= n; i++) {
+            for (int j = 0; j <= n; j++) {
+                mesh.addVertex(new Vector3f(i, j, 0));
+            }
+        }
+        for (int j = 0; j < n; j++) {
+            for (int i = 0; i < n; i++) {
+                int a = i * (n + 1) + j;
+                mesh.addTriangle(a, a + n + 1, a + n + 2);
+                mesh.addTriangle(a, a + n + 2, a + 1);
+            }
+        }
+        double areaBefore = totalArea(mesh);
+        float acmrBefore = TriangleMeshTools.computeAcmr(mesh, 16);
+        TriangleMeshTools.optimizeVertexCache(mesh);
+        assertTrue(TriangleMeshTools.computeAcmr(mesh, 16) < acmrBefore);
+        assertEquals(2 * n * n, mesh.getNumberOfTriangles());
+        assertEquals(areaBefore, totalArea(mesh), 1e-6);
+        // First use order
+        assertEquals(0, mesh.getTriangle(0).getA());
+    }
+
+    private double totalArea(TriangleMesh mesh) {
+        double area = 0;
+        for (int t = 0; t < mesh.getNumberOfTriangles(); t++) {
+            Triangle triangle = mesh.getTriangle(t);
+            area += Triangle.getArea(mesh.getVertex(triangle.getA()).getPosition(),
+                    mesh.getVertex(triangle.getB()).getPosition(),
+                    mesh.getVertex(triangle.getC()).getPosition());
+        }
+        return area;
+    }
+
+    @Test
+    void testCreateMesh() {
+        TriangleMesh mesh = makeQuad();
+        mesh.computeVertexNormals();
+        mesh.getVertex(0).setNormal(new Vector3f(0, 0.6f, 0.8f));
+        for (TriangleMeshTools.Shading shading : TriangleMeshTools.Shading.values()) {
+            // Coplanar triangles of the same color share their vertices
+            Mesh jmeMesh = TriangleMeshTools.createMesh(mesh, shading);
+            assertEquals(4, jmeMesh.getVertexCount());
+            assertEquals(6, jmeMesh.getIndexBuffer().size());
+            assertEquals(VertexBuffer.Format.UnsignedShort,
+                    jmeMesh.getBuffer(VertexBuffer.Type.Index).getFormat());
+            assertRenderVertices(mesh, jmeMesh, shading);
+        }
+
+        // Triangles of different colors are split along the shared edge
+        mesh.getTriangle(1).setColor(ColorRGBA.Red);
+        for (TriangleMeshTools.Shading shading : TriangleMeshTools.Shading.values()) {
+            Mesh jmeMesh = TriangleMeshTools.createMesh(mesh, shading);
+            assertEquals(6, jmeMesh.getVertexCount());
+            assertRenderVertices(mesh, jmeMesh, shading);
+        }
+    }
+
+    @Test
+    void testCreateMeshIndexSize() {
+        // Triangle strip, each vertex is one render vertex in smooth shading
+        TriangleMesh mesh = new TriangleMesh();
+        for (int i = 0; i < 0xFFFF + 1; i++) {
+            mesh.addVertex(i, i % 2, 0);
+        }
+        for (int i = 0; i + 2 < mesh.getNumberOfVertices(); i++) {
+            mesh.addTriangle(i, i + 1, i + 2);
+        }
+        Mesh jmeMesh = TriangleMeshTools.createMesh(mesh, TriangleMeshTools.Shading.SMOOTH);
+        assertEquals(0xFFFF + 1, jmeMesh.getVertexCount());
+        assertEquals(VertexBuffer.Format.UnsignedShort,
+                jmeMesh.getBuffer(VertexBuffer.Type.Index).getFormat());
+        assertRenderVertices(mesh, jmeMesh, TriangleMeshTools.Shading.SMOOTH);
+
+        int last = mesh.addVertex(0xFFFF + 1, 1, 0);
+        mesh.addTriangle(last - 2, last - 1, last);
+        jmeMesh = TriangleMeshTools.createMesh(mesh, TriangleMeshTools.Shading.SMOOTH);
+        assertEquals(0xFFFF + 2, jmeMesh.getVertexCount());
+        assertEquals(VertexBuffer.Format.UnsignedInt,
+                jmeMesh.getBuffer(VertexBuffer.Type.Index).getFormat());
+        assertRenderVertices(mesh, jmeMesh, TriangleMeshTools.Shading.SMOOTH);
+    }
+
+    /**
+     * Check the attributes of the render vertex of each triangle corner.
+     */
+    private void assertRenderVertices(TriangleMesh mesh, Mesh jmeMesh,
+                                      TriangleMeshTools.Shading shading) {
+        assertEquals(mesh.getNumberOfTriangles(), jmeMesh.getTriangleCount());
+        IndexBuffer indices = jmeMesh.getIndexBuffer();
+        FloatBuffer positions = jmeMesh.getFloatBuffer(VertexBuffer.Type.Position);
+        FloatBuffer normals = jmeMesh.getFloatBuffer(VertexBuffer.Type.Normal);
+        FloatBuffer colors = jmeMesh.getFloatBuffer(VertexBuffer.Type.Color);
+        for (int t = 0; t < mesh.getNumberOfTriangles(); t++) {
+            Triangle triangle = mesh.getTriangle(t);
+            for (int c = 0; c < 3; c++) {
+                int i = indices.get(t * 3 + c);
+                Vertex vertex = mesh.getVertex(triangle.getVertexIndex(c));
+                Vector3f normal = shading == TriangleMeshTools.Shading.FLAT
+                        ? triangle.getNormal() : vertex.getNormal();
+                assertEquals(vertex.getPosition(), new Vector3f(positions.get(i * 3),
+                        positions.get(i * 3 + 1), positions.get(i * 3 + 2)));
+                assertEquals(normal, new Vector3f(normals.get(i * 3),
+                        normals.get(i * 3 + 1), normals.get(i * 3 + 2)));
+                assertEquals(triangle.getColor(), new ColorRGBA(colors.get(i * 4),
+                        colors.get(i * 4 + 1), colors.get(i * 4 + 2), colors.get(i * 4 + 3)));
+            }
+        }
+    }
+
+    @Test
+    void testSnapshotCopyOnWrite() {
+        TriangleMesh mesh = makeQuad();
+        TriangleMesh snapshot = mesh.snapshot();
+        mesh.getVertex(0).setPosition(new Vector3f(-1, 0, 0));
+        mesh.addVertex(new Vector3f(5, 5, 5));
+        mesh.addTriangle(1, 2, 4);
+        TriangleMeshTools.translate(mesh, new Vector3f(0, 0, 1));
+        assertEquals(new Vector3f(0, 0, 0), snapshot.getVertex(0).getPosition());
+        assertEquals(4, snapshot.getNumberOfVertices());
+        assertEquals(2, snapshot.getNumberOfTriangles());
+        assertThrows(IllegalStateException.class, () -> snapshot.addVertex(1, 2, 3));
+        assertThrows(IllegalStateException.class, () -> snapshot.getTriangle(0).flipOrientation());
+
+        TriangleMesh copy = new TriangleMesh(snapshot);
+        copy.clearTriangles();
+        copy.addTriangle(0, 2, 3);
+        assertEquals(2, snapshot.getNumberOfTriangles());
+        assertEquals(1, snapshot.getTriangle(0).getB());
+        assertEquals(2, copy.getTriangle(0).getB());
+    }
+
+    @Test
+    void testMeshBuilderSequenced() {
+        MeshBuilder builder = new MeshBuilder();
+        IntStream.range(0, 100).parallel().forEach(i -> {
+            TriangleMesh buffer = builder.getBuffer(i);
+            int a = buffer.addVertex(i, 0, 0);
+            int b = buffer.addVertex(i + 1, 0, 0);
+            int c = buffer.addVertex(i, 1, 0);
+            buffer.addTriangle(a, b, c);
+        });
+        TriangleMesh mesh = builder.build();
+        assertEquals(300, mesh.getNumberOfVertices());
+        assertEquals(100, mesh.getNumberOfTriangles());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(3 * i + 1, mesh.getTriangle(i).getB());
+            assertEquals(i + 1, mesh.getVertex(mesh.getTriangle(i).getB()).getPosition().x, 0);
+        }
+
+        IntStream.range(0, 100).parallel().forEach(i -> builder.getBuffer().addVertex(i, 0, 0));
+        assertEquals(100, builder.build().getNumberOfVertices());
+        assertEquals(0, builder.build().getNumberOfVertices());
+    }
+
+    @Test
+    void testMeshCache() throws Exception {
+        File first = File.createTempFile("first", ".obj");
+        File second = File.createTempFile("second", ".obj");
+        first.deleteOnExit();
+        second.deleteOnExit();
+        assertTrue(first.setLastModified(1_000_000_000_000L));
+        assertTrue(second.setLastModified(1_000_000_000_000L));
+        AtomicInteger loads = new AtomicInteger();
+        MeshCache.Loader<TriangleMesh> loader = () -> {
+            loads.incrementAndGet();
+            return makeQuad();
+        };
+        long quadSize = makeQuad().getMemoryUsage();
+        MeshCache cache = new MeshCache(quadSize);
+
+        TriangleMesh mesh = cache.getMesh(first, loader);
+        mesh.addVertex(5, 5, 5);
+        assertEquals(4, cache.getMesh(first, loader).getNumberOfVertices());
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        // Exceeds the capacity, the first mesh is evicted
+        cache.getMesh(second, loader);
+        assertEquals(2, loads.get());
+        assertEquals(quadSize, cache.getSize());
+        cache.getMesh(second, loader);
+        assertEquals(2, loads.get());
+
+        // Modified files are loaded again, even if the evicted mesh is
+        // still softly referenced
+        assertTrue(first.setLastModified(2_000_000_000_000L));
+        cache.getMesh(first, loader);
+        assertEquals(3, loads.get());
+        cache.getMesh(first, loader);
+        assertEquals(3, loads.get());
+        assertEquals(quadSize, cache.getSize());
+    }
+
+    @Test
+    void testBinaryMeshFile() throws Exception {
+        TriangleMesh mesh = makeQuad();
+        mesh.setTextureName("quad.png");
+        mesh.computeNormals();
+        File file = File.createTempFile("quad", ".bin");
+        file.deleteOnExit();
+        BinaryMeshFile.write(mesh, file, TriangleMeshTools.Shading.FLAT);
+
+        TriangleMesh read = BinaryMeshFile.read(file);
+        assertEquals(mesh.getNumberOfVertices(), read.getNumberOfVertices());
+        assertEquals(mesh.getNumberOfTriangles(), read.getNumberOfTriangles());
+        assertEquals("quad.png", read.getTextureName());
+        for (int i = 0; i < mesh.getNumberOfVertices(); i++) {
+            assertEquals(mesh.getVertex(i).getPosition(), read.getVertex(i).getPosition());
+            assertEquals(mesh.getVertex(i).getNormal(), read.getVertex(i).getNormal());
+        }
+        for (int i = 0; i < mesh.getNumberOfTriangles(); i++) {
+            for (int j = 0; j < 3; j++) {
+                assertEquals(mesh.getTriangle(i).getVertexIndex(j),
+                        read.getTriangle(i).getVertexIndex(j));
+            }
+        }
+        assertEquals(4, BinaryMeshFile.createMesh(file, TriangleMeshTools.Shading.FLAT)
+                .getVertexCount());
+    }
+
+    @Test
+    void testObjWriter() throws Exception {
+        TriangleMesh mesh = new TriangleMesh();
+        mesh.addVertex(0, 0, 0);
+        mesh.addVertex(1, 0, 0);
+        mesh.addVertex(0, 1, 0);
+        mesh.addVertex(0, 1, 0);
+        mesh.addVertex(-1.5f, 0.25f, 0);
+        mesh.addTriangle(0, 1, 2);
+        mesh.addTriangle(0, 3, 4);
+        mesh.getTriangle(1).setColor(new ColorRGBA(1, 0, 0, 1));
+        File file = File.createTempFile("mesh", ".obj");
+        File materialFile = new File(file.getParentFile(),
+                file.getName().replace(".obj", ".mtl"));
+        file.deleteOnExit();
+        materialFile.deleteOnExit();
+
+        ObjWriter writer = new ObjWriter();
+        writer.setDeduplicateVertices(true);
+        writer.setWriteNormals(false);
+        writer.write(mesh, file);
+        List<String> lines = Files.readAllLines(file.toPath());
+        assertEquals(4, lines.stream().filter(l -> l.startsWith("v ")).count());
+        assertTrue(lines.contains("v -1.5 0.25 0"));
+        assertTrue(lines.contains("usemtl material1"));
+        assertTrue(lines.contains("f 1 3 4"));
+        assertTrue(Files.readAllLines(materialFile.toPath()).contains("Kd 1 0 0"));
+    }
+}